@@ -0,0 +1,136 @@
+package com.msnos.proxy.bench;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ScheduledExecutorService;
+
+import org.mockito.ArgumentCaptor;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import com.workshare.msnos.core.Cloud;
+import com.workshare.msnos.core.Iden;
+import com.workshare.msnos.core.Message;
+import com.workshare.msnos.core.MessageBuilder;
+import com.workshare.msnos.core.RemoteAgent;
+import com.workshare.msnos.core.Ring;
+import com.workshare.msnos.core.payloads.QnePayload;
+import com.workshare.msnos.core.protocols.ip.Endpoint;
+import com.workshare.msnos.usvc.Microcloud;
+import com.workshare.msnos.usvc.Microservice;
+import com.workshare.msnos.usvc.RemoteMicroservice;
+import com.workshare.msnos.usvc.api.RestApi;
+
+/**
+ * An in-memory microcloud populated with remote microservices, the same way
+ * the tests do it: the cloud is mocked and the QNE messages announcing the
+ * apis are delivered straight to its listeners.
+ */
+public class BenchCloud {
+
+    private static final UUID CLOUD_UUID = UUID.randomUUID();
+    private static final int BASE_PORT = 9000;
+
+    private final Cloud cloud;
+    private final Microcloud microcloud;
+    private final Microservice local;
+    private final List<String> paths = new ArrayList<String>();
+    private final List<Message> announcements = new ArrayList<Message>();
+    private final Map<Iden, RemoteAgent> agents = new HashMap<Iden, RemoteAgent>();
+    private final List<Cloud.Listener> listeners;
+
+    public BenchCloud() throws Exception {
+        cloud = mock(Cloud.class);
+        when(cloud.getIden()).thenReturn(new Iden(Iden.Type.CLD, CLOUD_UUID));
+        when(cloud.getRing()).thenReturn(Ring.random());
+        when(cloud.find(any(Iden.class))).thenAnswer(new Answer<RemoteAgent>() {
+            @Override
+            public RemoteAgent answer(InvocationOnMock invocation) throws Throwable {
+                return agents.get(invocation.getArguments()[0]);
+            }
+        });
+        when(cloud.getRemoteAgents()).thenReturn(agents.values());
+
+        microcloud = new Microcloud(cloud, mock(ScheduledExecutorService.class));
+        local = new Microservice("bench");
+        local.join(microcloud);
+
+        ArgumentCaptor<Cloud.Listener> captor = ArgumentCaptor.forClass(Cloud.Listener.class);
+        verify(cloud, atLeastOnce()).addListener(captor.capture());
+        listeners = captor.getAllValues();
+    }
+
+    public BenchCloud(int services, int pathsPerService, int replicas, boolean affinity) throws Exception {
+        this();
+
+        for (int s = 0; s < services; s++) {
+            final String name = "service-" + s;
+            for (int r = 0; r < replicas; r++) {
+                final String host = "10.0." + s / 250 + "." + (s % 250 + 1);
+                final RestApi[] apis = new RestApi[pathsPerService];
+                for (int p = 0; p < pathsPerService; p++) {
+                    final RestApi api = new RestApi(path(s, p), BASE_PORT + r).onHost(host);
+                    apis[p] = affinity ? api.withAffinity() : api;
+                }
+                announce(name, apis);
+            }
+
+            for (int p = 0; p < pathsPerService; p++) {
+                paths.add(path(s, p));
+            }
+        }
+    }
+
+    public void announce(String name, RestApi... apis) {
+        final RemoteAgent agent = new RemoteAgent(UUID.randomUUID(), cloud, new HashSet<Endpoint>());
+        agents.put(agent.getIden(), agent);
+
+        final RemoteMicroservice remote = new RemoteMicroservice(name, agent, new HashSet<RestApi>(Arrays.asList(apis)));
+        final Message message = newQNEMessage(name, remote, apis);
+        announcements.add(message);
+        deliver(message);
+    }
+
+    public Microcloud microcloud() {
+        return microcloud;
+    }
+
+    public Microservice microservice() {
+        return local;
+    }
+
+    public List<String> paths() {
+        return paths;
+    }
+
+    public List<Message> announcements() {
+        return announcements;
+    }
+
+    private void deliver(Message message) {
+        for (Cloud.Listener listener : listeners) {
+            listener.onMessage(message);
+        }
+    }
+
+    private Message newQNEMessage(String name, RemoteMicroservice remote, RestApi... apis) {
+        return new MessageBuilder(Message.Type.QNE, remote.getAgent().getIden(), cloud.getIden())
+                .with(CLOUD_UUID)
+                .with(new QnePayload(name, apis)).make();
+    }
+
+    private static String path(int service, int index) {
+        return "/service-" + service + "/api-" + index;
+    }
+}
@@ -0,0 +1,305 @@
+package com.msnos.proxy.bench;
+
+import static io.netty.handler.codec.http.HttpHeaders.Names.COOKIE;
+import static io.netty.handler.codec.http.HttpHeaders.Names.HOST;
+import static io.netty.handler.codec.http.HttpHeaders.Names.SET_COOKIE;
+import static io.netty.handler.codec.http.HttpResponseStatus.FOUND;
+import static io.netty.handler.codec.http.HttpVersion.HTTP_1_1;
+import io.netty.bootstrap.Bootstrap;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.handler.codec.http.Cookie;
+import io.netty.handler.codec.http.CookieDecoder;
+import io.netty.handler.codec.http.DefaultFullHttpRequest;
+import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpClientCodec;
+import io.netty.handler.codec.http.HttpHeaders;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpObjectAggregator;
+
+import java.net.InetSocketAddress;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+/**
+ * An open loop http client: requests are submitted at the time they were
+ * scheduled, whether or not the previous ones were answered, and their
+ * latency is measured from that time. Requests that find no free connection
+ * wait in a queue, so the time lost waiting is part of the latency and the
+ * coordinated omission of a closed loop client is avoided.
+ *
+ * Retry redirects issued by the proxy are followed on the same connection
+ * and the cookies it sets are sent back, as a browser would do.
+ */
+public class LoadClient {
+
+    public static class Kind {
+        final String name;
+        final String path;
+        final Recorder latency = new Recorder(3);
+        final AtomicLongArray statuses = new AtomicLongArray(6);
+        final AtomicLong redirects = new AtomicLong();
+        final AtomicLong errors = new AtomicLong();
+        final AtomicLong timeouts = new AtomicLong();
+
+        public Kind(String name, String path) {
+            this.name = name;
+            this.path = path;
+        }
+
+        public String name() {
+            return name;
+        }
+
+        public Histogram histogram() {
+            return latency.getIntervalHistogram();
+        }
+    }
+
+    private static class Call {
+        final Kind kind;
+        final FullHttpRequest request;
+        final long intended;
+        int redirects;
+
+        Call(Kind kind, FullHttpRequest request, long intended) {
+            this.kind = kind;
+            this.request = request;
+            this.intended = intended;
+        }
+    }
+
+    private static final int ERROR = -1;
+    private static final int TIMEOUT = -2;
+
+    private final EventLoopGroup group;
+    private final InetSocketAddress proxy;
+    private final int maxConnections;
+    private final long timeoutMillis;
+    private final int maxRedirects;
+
+    private final Queue<Connection> idle = new ConcurrentLinkedQueue<Connection>();
+    private final Queue<Call> pending = new ConcurrentLinkedQueue<Call>();
+    private final Map<String, String> cookies = new ConcurrentHashMap<String, String>();
+    private final AtomicInteger open = new AtomicInteger();
+    private final AtomicInteger outstanding = new AtomicInteger();
+
+    private volatile long measureFrom = Long.MAX_VALUE;
+
+    public LoadClient(EventLoopGroup group, InetSocketAddress proxy, int maxConnections, long timeoutMillis, int maxRedirects) {
+        this.group = group;
+        this.proxy = proxy;
+        this.maxConnections = maxConnections;
+        this.timeoutMillis = timeoutMillis;
+        this.maxRedirects = maxRedirects;
+    }
+
+    public void measureFrom(long nanos) {
+        measureFrom = nanos;
+    }
+
+    public int outstanding() {
+        return outstanding.get();
+    }
+
+    public void submit(Kind kind, long intended) {
+        submit(kind, null, intended);
+    }
+
+    /**
+     * Submits a copy of the given request rather than a plain GET of the
+     * path of its kind.
+     */
+    public void submit(Kind kind, FullHttpRequest request, long intended) {
+        outstanding.incrementAndGet();
+        dispatch(new Call(kind, request, intended));
+    }
+
+    private void dispatch(Call call) {
+        final Connection connection = idle.poll();
+        if (connection != null) {
+            connection.send(call);
+        } else if (open.incrementAndGet() <= maxConnections) {
+            connect(call);
+        } else {
+            open.decrementAndGet();
+            pending.add(call);
+
+            final Connection freed = idle.poll();
+            if (freed != null)
+                freed.next();
+        }
+    }
+
+    private void connect(final Call call) {
+        final Connection connection = new Connection();
+        final Bootstrap bootstrap = new Bootstrap()
+                .group(group)
+                .channel(NioSocketChannel.class)
+                .handler(new ChannelInitializer<SocketChannel>() {
+                    @Override
+                    protected void initChannel(SocketChannel channel) throws Exception {
+                        channel.pipeline().addLast(new HttpClientCodec());
+                        channel.pipeline().addLast(new HttpObjectAggregator(1024 * 1024));
+                        channel.pipeline().addLast(connection);
+                    }
+                });
+
+        bootstrap.connect(proxy).addListener(new ChannelFutureListener() {
+            @Override
+            public void operationComplete(ChannelFuture future) throws Exception {
+                if (future.isSuccess()) {
+                    connection.channel = future.channel();
+                    connection.send(call);
+                } else {
+                    complete(call, ERROR);
+                    closed();
+                }
+            }
+        });
+    }
+
+    private void closed() {
+        open.decrementAndGet();
+
+        final Call call = pending.poll();
+        if (call != null)
+            dispatch(call);
+    }
+
+    private void complete(Call call, int status) {
+        outstanding.decrementAndGet();
+        if (call.intended < measureFrom)
+            return;
+
+        if (status == ERROR)
+            call.kind.errors.incrementAndGet();
+        else if (status == TIMEOUT)
+            call.kind.timeouts.incrementAndGet();
+        else
+            call.kind.statuses.incrementAndGet(Math.min(5, status / 100));
+
+        final long micros = (System.nanoTime() - call.intended) / 1000L;
+        call.kind.latency.recordValue(Math.max(0, micros));
+    }
+
+    private void keepCookies(FullHttpResponse response) {
+        for (String header : response.headers().getAll(SET_COOKIE)) {
+            for (Cookie cookie : CookieDecoder.decode(header)) {
+                if (cookie.getMaxAge() == 0)
+                    cookies.remove(cookie.getName());
+                else
+                    cookies.put(cookie.getName(), cookie.getValue());
+            }
+        }
+    }
+
+    private String cookieHeader() {
+        final StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, String> cookie : cookies.entrySet()) {
+            if (sb.length() > 0)
+                sb.append("; ");
+            sb.append(cookie.getKey()).append('=').append(cookie.getValue());
+        }
+        return sb.toString();
+    }
+
+    private class Connection extends SimpleChannelInboundHandler<FullHttpResponse> {
+
+        private volatile Channel channel;
+        private volatile Call current;
+        private ScheduledFuture<?> timeout;
+
+        void send(Call call) {
+            current = call;
+
+            final FullHttpRequest request = call.request != null ? call.request.copy() : new DefaultFullHttpRequest(HTTP_1_1, HttpMethod.GET, call.kind.path);
+            request.headers().set(HOST, proxy.getHostString() + ":" + proxy.getPort());
+            if (!cookies.isEmpty())
+                request.headers().set(COOKIE, cookieHeader());
+
+            timeout = channel.eventLoop().schedule(new Runnable() {
+                @Override
+                public void run() {
+                    final Call expired = current;
+                    if (expired != null) {
+                        current = null;
+                        complete(expired, TIMEOUT);
+                        channel.close();
+                    }
+                }
+            }, timeoutMillis, TimeUnit.MILLISECONDS);
+
+            channel.writeAndFlush(request);
+        }
+
+        void next() {
+            final Call call = pending.poll();
+            if (call != null)
+                send(call);
+            else
+                idle.offer(this);
+        }
+
+        @Override
+        protected void channelRead0(ChannelHandlerContext ctx, FullHttpResponse response) throws Exception {
+            final Call call = current;
+            if (call == null)
+                return;
+
+            timeout.cancel(false);
+            keepCookies(response);
+
+            final boolean keepAlive = HttpHeaders.isKeepAlive(response);
+            if (FOUND.equals(response.getStatus()) && call.redirects < maxRedirects && keepAlive) {
+                call.redirects++;
+                call.kind.redirects.incrementAndGet();
+                send(call);
+                return;
+            }
+
+            current = null;
+            complete(call, response.getStatus().code());
+            if (keepAlive)
+                next();
+            else
+                ctx.close();
+        }
+
+        @Override
+        public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+            final Call call = current;
+            if (call != null) {
+                current = null;
+                timeout.cancel(false);
+                complete(call, ERROR);
+            }
+
+            idle.remove(this);
+            closed();
+        }
+
+        @Override
+        public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) throws Exception {
+            ctx.close();
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package com.msnos.proxy.bench;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.beust.jcommander.JCommander;
+import com.beust.jcommander.Parameter;
+import com.beust.jcommander.ParameterException;
+
+public class LoadParams {
+
+    @Parameter(names = {"--help", "-h"}, description = "Displays this help screen and exits", help = true)
+    private boolean help;
+
+    @Parameter(names = {"--port", "-p"}, description = "The port to be used by the proxy under test (default is 19991)")
+    private int port = 19991;
+
+    @Parameter(names = {"--rate", "-r"}, description = "The number of requests started per second, regardless of the responses (default is 1000)")
+    private int rate = 1000;
+
+    @Parameter(names = {"--duration", "-d"}, description = "The length of the measured run, in seconds (default is 30)")
+    private int duration = 30;
+
+    @Parameter(names = {"--warmup", "-w"}, description = "The length of the unmeasured run preceding it, in seconds (default is 5)")
+    private int warmup = 5;
+
+    @Parameter(names = {"--replicas"}, description = "The number of stub upstreams serving every path, the first one being slow and failing (default is 3)")
+    private int replicas = 3;
+
+    @Parameter(names = {"--slow"}, description = "The response time of the slow upstream, in milliseconds (default is 200)")
+    private long slowMillis = 200;
+
+    @Parameter(names = {"--mix"}, description = "The share of requests sent to each kind of endpoint, as kind=weight,... (default is plain=60,sticky=20,failing=10,slow=10)")
+    private String mix = "plain=60,sticky=20,failing=10,slow=10";
+
+    @Parameter(names = {"--connections", "-c"}, description = "The maximum number of connections to the proxy (default is 256)")
+    private int connections = 256;
+
+    @Parameter(names = {"--timeout", "-t"}, description = "The time after which a request is considered failed, in milliseconds (default is 10000)")
+    private long timeoutMillis = 10000;
+
+    @Parameter(names = {"--redirects"}, description = "The maximum number of retry redirects followed for a single request (default is 4)")
+    private int redirects = 4;
+
+    @Parameter(names = {"--seed"}, description = "The seed of the request mix, to replay the same sequence (default is 42)")
+    private long seed = 42;
+
+    @Parameter(names = {"--out", "-o"}, description = "The file where to write the json report (default is the standard output)")
+    private String out;
+
+    public LoadParams(String[] args) {
+        JCommander jc = new JCommander(this, args);
+
+        if (this.help) {
+            jc.usage();
+            System.exit(1);
+        }
+    }
+
+    public int port() {
+        return port;
+    }
+
+    public int rate() {
+        return rate;
+    }
+
+    public int durationInSeconds() {
+        return duration;
+    }
+
+    public int warmupInSeconds() {
+        return warmup;
+    }
+
+    public int replicas() {
+        return replicas;
+    }
+
+    public long slowInMillis() {
+        return slowMillis;
+    }
+
+    public int connections() {
+        return connections;
+    }
+
+    public long timeoutInMillis() {
+        return timeoutMillis;
+    }
+
+    public int redirects() {
+        return redirects;
+    }
+
+    public long seed() {
+        return seed;
+    }
+
+    public String out() {
+        return out;
+    }
+
+    public Map<String, Integer> mix() {
+        Map<String, Integer> result = new LinkedHashMap<String, Integer>();
+        for (String entry : mix.split(",")) {
+            int index = entry.indexOf('=');
+            try {
+                if (index < 1)
+                    throw new NumberFormatException();
+
+                result.put(entry.substring(0, index).trim(), Integer.parseInt(entry.substring(index+1).trim()));
+            } catch (NumberFormatException e) {
+                throw new ParameterException("Invalid value "+entry+", expected kind=weight");
+            }
+        }
+        return result;
+    }
+}
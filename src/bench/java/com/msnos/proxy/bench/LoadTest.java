@@ -0,0 +1,186 @@
+package com.msnos.proxy.bench;
+
+import io.netty.channel.nio.NioEventLoopGroup;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import org.HdrHistogram.Histogram;
+
+import com.beust.jcommander.ParameterException;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonObject;
+import com.msnos.proxy.CliParams;
+import com.msnos.proxy.Proxy;
+import com.msnos.proxy.metrics.Metrics;
+import com.workshare.msnos.usvc.api.RestApi;
+
+/**
+ * End to end load test of the proxy, with no ms-nos cloud involved: the
+ * proxy runs on loopback over an in-memory microcloud where a number of stub
+ * upstreams are announced, and is driven at a fixed request rate with a mix
+ * of plain, sticky, failing and slow endpoints. The report is written as
+ * json so that runs of different versions can be compared.
+ *
+ *     mvn -Pbench test-compile exec:exec -Dbench.main=com.msnos.proxy.bench.LoadTest -Dbench.args="--rate 2000"
+ */
+public class LoadTest {
+
+    private static final String SERVICE = "load-upstream";
+    private static final String PATH_PREFIX = "/load/";
+    private static final String[] KINDS = {"plain", "sticky", StubUpstream.FAILING, StubUpstream.SLOW};
+    private static final double[] PERCENTILES = {50.0, 90.0, 99.0, 99.9, 99.99};
+    private static final String[] PERCENTILE_NAMES = {"p50", "p90", "p99", "p999", "p9999"};
+
+    public static void main(String[] args) throws Exception {
+        final LoadParams params = new LoadParams(args);
+        final NioEventLoopGroup group = new NioEventLoopGroup();
+
+        final BenchCloud cloud = new BenchCloud();
+        for (int i = 0; i < params.replicas(); i++) {
+            final StubUpstream upstream = new StubUpstream(i == 0, params.slowInMillis());
+            final int port = upstream.start(group);
+
+            final RestApi[] apis = new RestApi[KINDS.length];
+            for (int k = 0; k < KINDS.length; k++) {
+                final RestApi api = new RestApi(PATH_PREFIX + KINDS[k], port).onHost("127.0.0.1");
+                apis[k] = "sticky".equals(KINDS[k]) ? api.withAffinity() : api;
+            }
+            cloud.announce(SERVICE, apis);
+        }
+
+        new Proxy(cloud.microservice(), new CliParams(new String[] {"--port", Integer.toString(params.port())})).start();
+
+        final LoadClient client = new LoadClient(group, new InetSocketAddress("127.0.0.1", params.port()), params.connections(), params.timeoutInMillis(), params.redirects());
+        final List<LoadClient.Kind> kinds = new ArrayList<LoadClient.Kind>();
+        final List<Integer> weights = new ArrayList<Integer>();
+        int totalWeight = 0;
+        for (Map.Entry<String, Integer> entry : params.mix().entrySet()) {
+            if (!Arrays.asList(KINDS).contains(entry.getKey()))
+                throw new ParameterException("Unknown kind "+entry.getKey()+", expected one of "+Arrays.toString(KINDS));
+            if (entry.getValue() <= 0)
+                continue;
+            kinds.add(new LoadClient.Kind(entry.getKey(), PATH_PREFIX + entry.getKey()));
+            totalWeight += entry.getValue();
+            weights.add(totalWeight);
+        }
+
+        final long interval = TimeUnit.SECONDS.toNanos(1) / params.rate();
+        final long total = (long) params.rate() * (params.warmupInSeconds() + params.durationInSeconds());
+        final long start = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(100);
+        final long measureFrom = start + TimeUnit.SECONDS.toNanos(params.warmupInSeconds());
+        client.measureFrom(measureFrom);
+
+        final Random random = new Random(params.seed());
+        long lag = 0;
+        for (long i = 0; i < total; i++) {
+            final long intended = start + i * interval;
+            long wait;
+            while ((wait = intended - System.nanoTime()) > 0) {
+                LockSupport.parkNanos(wait);
+            }
+            lag = Math.max(lag, -wait);
+
+            final int pick = random.nextInt(totalWeight);
+            int index = 0;
+            while (weights.get(index) <= pick) {
+                index++;
+            }
+            client.submit(kinds.get(index), intended);
+        }
+
+        final long end = start + total * interval;
+        final long drainUntil = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(params.timeoutInMillis());
+        while (client.outstanding() > 0 && System.nanoTime() < drainUntil) {
+            Thread.sleep(10);
+        }
+
+        write(report(params, kinds, (end - measureFrom) / 1e9, client.outstanding(), lag), params.out());
+
+        System.exit(0);
+    }
+
+    private static JsonObject report(LoadParams params, List<LoadClient.Kind> kinds, double seconds, int unanswered, long lagNanos) {
+        final JsonObject config = new JsonObject();
+        config.addProperty("rate", params.rate());
+        config.addProperty("durationSeconds", params.durationInSeconds());
+        config.addProperty("warmupSeconds", params.warmupInSeconds());
+        config.addProperty("replicas", params.replicas());
+        config.addProperty("slowMillis", params.slowInMillis());
+        config.addProperty("connections", params.connections());
+        config.addProperty("timeoutMillis", params.timeoutInMillis());
+        config.addProperty("seed", params.seed());
+
+        return report(config, kinds, seconds, unanswered, lagNanos);
+    }
+
+    static JsonObject report(JsonObject config, List<LoadClient.Kind> kinds, double seconds, int unanswered, long lagNanos) {
+        final Histogram all = new Histogram(3);
+        final JsonObject byKind = new JsonObject();
+        long errors = 0;
+        long timeouts = 0;
+        for (LoadClient.Kind kind : kinds) {
+            final Histogram histogram = kind.histogram();
+            all.add(histogram);
+            errors += kind.errors.get();
+            timeouts += kind.timeouts.get();
+
+            final JsonObject statuses = new JsonObject();
+            for (int i = 1; i < 6; i++) {
+                statuses.addProperty(i + "xx", kind.statuses.get(i));
+            }
+
+            final JsonObject json = new JsonObject();
+            json.addProperty("requests", histogram.getTotalCount());
+            json.add("latencyMicros", toJson(histogram));
+            json.add("status", statuses);
+            json.addProperty("redirects", kind.redirects.get());
+            json.addProperty("errors", kind.errors.get());
+            json.addProperty("timeouts", kind.timeouts.get());
+            byKind.add(kind.name(), json);
+        }
+
+        final JsonObject result = new JsonObject();
+        result.add("config", config);
+        result.addProperty("requests", all.getTotalCount());
+        result.addProperty("throughput", seconds > 0 ? all.getTotalCount() / seconds : 0);
+        result.addProperty("errors", errors);
+        result.addProperty("timeouts", timeouts);
+        result.addProperty("unanswered", unanswered);
+        result.addProperty("maxSchedulingLagMicros", lagNanos / 1000L);
+        result.add("latencyMicros", toJson(all));
+        result.add("kinds", byKind);
+        result.add("proxyPhases", Metrics.DEFAULT.toJson().get("phases"));
+        return result;
+    }
+
+    static void write(JsonObject report, String out) throws IOException {
+        final Writer writer = out == null ? new OutputStreamWriter(System.out, "UTF-8") : new OutputStreamWriter(new FileOutputStream(out), "UTF-8");
+        try {
+            writer.write(new GsonBuilder().setPrettyPrinting().create().toJson(report));
+            writer.write('\n');
+        } finally {
+            writer.close();
+        }
+    }
+
+    private static JsonObject toJson(Histogram histogram) {
+        final JsonObject json = new JsonObject();
+        json.addProperty("mean", (long) histogram.getMean());
+        for (int i = 0; i < PERCENTILES.length; i++) {
+            json.addProperty(PERCENTILE_NAMES[i], histogram.getValueAtPercentile(PERCENTILES[i]));
+        }
+        json.addProperty("max", histogram.getMaxValue());
+        return json;
+    }
+}
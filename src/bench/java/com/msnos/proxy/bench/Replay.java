@@ -0,0 +1,177 @@
+package com.msnos.proxy.bench;
+
+import static io.netty.handler.codec.http.HttpHeaders.Names.CONNECTION;
+import static io.netty.handler.codec.http.HttpHeaders.Names.CONTENT_LENGTH;
+import static io.netty.handler.codec.http.HttpHeaders.Names.HOST;
+import static io.netty.handler.codec.http.HttpVersion.HTTP_1_1;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.handler.codec.http.DefaultFullHttpRequest;
+import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.HttpMethod;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import com.beust.jcommander.ParameterException;
+import com.google.gson.JsonObject;
+import com.msnos.proxy.CliParams;
+import com.msnos.proxy.Proxy;
+import com.msnos.proxy.log.TrafficCaptureReader;
+import com.workshare.msnos.usvc.api.RestApi;
+
+/**
+ * Replays a traffic capture taken with com.msnos.proxy.capture.file: every
+ * request is sent with its method, uri, headers and body at the time it
+ * arrived, scaled by the replay speed, and the report is the same as the
+ * one of the load test, by http method. Unless a target is given, a proxy
+ * is started over stub upstreams serving every captured path, so that a
+ * routing change can be measured against the real distribution of paths.
+ *
+ *     mvn -Pbench test-compile exec:exec -Dbench.main=com.msnos.proxy.bench.Replay -Dbench.args="-s 2 capture.bin"
+ */
+public class Replay {
+
+    private static final String SERVICE = "replay-upstream";
+    private static final int MAX_BODY_BYTES = 16 * 1024 * 1024;
+
+    public static void main(String[] args) throws Exception {
+        final ReplayParams params = new ReplayParams(args);
+        final NioEventLoopGroup group = new NioEventLoopGroup();
+
+        final InetSocketAddress target;
+        final Set<String> paths = new LinkedHashSet<String>();
+        if (params.target() == null) {
+            paths.addAll(paths(params.files()));
+            final BenchCloud cloud = new BenchCloud();
+            for (int i = 0; i < params.replicas(); i++) {
+                final int port = new StubUpstream(false, 0).start(group);
+
+                final RestApi[] apis = new RestApi[paths.size()];
+                int index = 0;
+                for (String path : paths) {
+                    apis[index++] = new RestApi(path, port).onHost("127.0.0.1");
+                }
+                cloud.announce(SERVICE, apis);
+            }
+
+            new Proxy(cloud.microservice(), new CliParams(new String[] {"--port", Integer.toString(params.port())})).start();
+            target = new InetSocketAddress("127.0.0.1", params.port());
+        } else {
+            target = address(params.target());
+        }
+
+        final LoadClient client = new LoadClient(group, target, params.connections(), params.timeoutInMillis(), params.redirects());
+        final Map<String, LoadClient.Kind> kinds = new HashMap<String, LoadClient.Kind>();
+
+        final long start = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(100);
+        client.measureFrom(start);
+
+        long first = -1;
+        long last = start;
+        long lag = 0;
+        long records = 0;
+        for (String file : params.files()) {
+            final TrafficCaptureReader reader = new TrafficCaptureReader(new FileInputStream(file));
+            try {
+                TrafficCaptureReader.Record record;
+                while ((record = reader.next()) != null) {
+                    if (first < 0)
+                        first = record.offsetMicros();
+
+                    final long intended = start + (long) (TimeUnit.MICROSECONDS.toNanos(record.offsetMicros() - first) / params.speed());
+                    long wait;
+                    while ((wait = intended - System.nanoTime()) > 0) {
+                        LockSupport.parkNanos(wait);
+                    }
+                    lag = Math.max(lag, -wait);
+                    last = Math.max(last, intended);
+
+                    LoadClient.Kind kind = kinds.get(record.method());
+                    if (kind == null) {
+                        kind = new LoadClient.Kind(record.method(), null);
+                        kinds.put(record.method(), kind);
+                    }
+                    client.submit(kind, request(record), intended);
+                    records++;
+                }
+            } finally {
+                reader.close();
+            }
+        }
+
+        final long drainUntil = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(params.timeoutInMillis());
+        while (client.outstanding() > 0 && System.nanoTime() < drainUntil) {
+            Thread.sleep(10);
+        }
+
+        final JsonObject config = new JsonObject();
+        config.addProperty("files", Arrays.toString(params.files().toArray()));
+        config.addProperty("records", records);
+        config.addProperty("speed", params.speed());
+        config.addProperty("target", params.target() == null ? "stubs" : params.target());
+        config.addProperty("paths", paths.size());
+        config.addProperty("replicas", params.target() == null ? params.replicas() : 0);
+        config.addProperty("connections", params.connections());
+        config.addProperty("timeoutMillis", params.timeoutInMillis());
+
+        LoadTest.write(LoadTest.report(config, new ArrayList<LoadClient.Kind>(kinds.values()), (last - start) / 1e9, client.outstanding(), lag), params.out());
+        System.exit(0);
+    }
+
+    private static Set<String> paths(List<String> files) throws IOException {
+        final Set<String> paths = new LinkedHashSet<String>();
+        for (String file : files) {
+            final TrafficCaptureReader reader = new TrafficCaptureReader(new FileInputStream(file));
+            try {
+                TrafficCaptureReader.Record record;
+                while ((record = reader.next()) != null) {
+                    final String path = URI.create(record.uri()).getRawPath();
+                    if (path != null && !path.isEmpty())
+                        paths.add(path);
+                }
+            } finally {
+                reader.close();
+            }
+        }
+        return paths;
+    }
+
+    // the captured body if complete, otherwise padded to the captured size
+    private static FullHttpRequest request(TrafficCaptureReader.Record record) {
+        final int size = (int) Math.min(MAX_BODY_BYTES, Math.max(record.bodySize(), record.body().length));
+        final byte[] body = record.body().length == size ? record.body() : Arrays.copyOf(record.body(), size);
+
+        final FullHttpRequest request = new DefaultFullHttpRequest(HTTP_1_1, HttpMethod.valueOf(record.method()), record.uri(), Unpooled.wrappedBuffer(body));
+        for (Map.Entry<String, String> header : record.headers()) {
+            final String name = header.getKey();
+            if (!HOST.equalsIgnoreCase(name) && !CONTENT_LENGTH.equalsIgnoreCase(name) && !CONNECTION.equalsIgnoreCase(name))
+                request.headers().add(name, header.getValue());
+        }
+        request.headers().set(CONTENT_LENGTH, size);
+        return request;
+    }
+
+    private static InetSocketAddress address(String hostAndPort) {
+        final int index = hostAndPort.lastIndexOf(':');
+        try {
+            if (index < 1)
+                throw new NumberFormatException();
+
+            return new InetSocketAddress(hostAndPort.substring(0, index), Integer.parseInt(hostAndPort.substring(index + 1)));
+        } catch (NumberFormatException e) {
+            throw new ParameterException("Invalid target "+hostAndPort+", expected host:port");
+        }
+    }
+}
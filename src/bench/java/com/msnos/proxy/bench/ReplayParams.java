@@ -0,0 +1,89 @@
+package com.msnos.proxy.bench;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.beust.jcommander.JCommander;
+import com.beust.jcommander.Parameter;
+import com.beust.jcommander.ParameterException;
+
+public class ReplayParams {
+
+    @Parameter(description = "The capture files to replay, oldest first")
+    private List<String> files = new ArrayList<String>();
+
+    @Parameter(names = {"--help", "-h"}, description = "Displays this help screen and exits", help = true)
+    private boolean help;
+
+    @Parameter(names = {"--port", "-p"}, description = "The port to be used by the proxy under test (default is 19991)")
+    private int port = 19991;
+
+    @Parameter(names = {"--target"}, description = "Replay against an already running proxy, as host:port, instead of starting one over stub upstreams")
+    private String target;
+
+    @Parameter(names = {"--speed", "-s"}, description = "The replay speed relative to the captured traffic, 2 being twice as fast (default is 1)")
+    private double speed = 1.0;
+
+    @Parameter(names = {"--replicas"}, description = "The number of stub upstreams serving every captured path (default is 2)")
+    private int replicas = 2;
+
+    @Parameter(names = {"--connections", "-c"}, description = "The maximum number of connections to the proxy (default is 256)")
+    private int connections = 256;
+
+    @Parameter(names = {"--timeout", "-t"}, description = "The time after which a request is considered failed, in milliseconds (default is 10000)")
+    private long timeoutMillis = 10000;
+
+    @Parameter(names = {"--redirects"}, description = "The maximum number of retry redirects followed for a single request (default is 4)")
+    private int redirects = 4;
+
+    @Parameter(names = {"--out", "-o"}, description = "The file where to write the json report (default is the standard output)")
+    private String out;
+
+    public ReplayParams(String[] args) {
+        JCommander jc = new JCommander(this, args);
+
+        if (this.help || files.isEmpty()) {
+            jc.usage();
+            System.exit(1);
+        }
+
+        if (speed <= 0)
+            throw new ParameterException("Invalid speed "+speed+", expected a positive number");
+    }
+
+    public List<String> files() {
+        return files;
+    }
+
+    public int port() {
+        return port;
+    }
+
+    public String target() {
+        return target;
+    }
+
+    public double speed() {
+        return speed;
+    }
+
+    public int replicas() {
+        return replicas;
+    }
+
+    public int connections() {
+        return connections;
+    }
+
+    public long timeoutInMillis() {
+        return timeoutMillis;
+    }
+
+    public int redirects() {
+        return redirects;
+    }
+
+    public String out() {
+        return out;
+    }
+}
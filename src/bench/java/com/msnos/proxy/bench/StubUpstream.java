@@ -0,0 +1,112 @@
+package com.msnos.proxy.bench;
+
+import static io.netty.handler.codec.http.HttpHeaders.Names.CONTENT_LENGTH;
+import static io.netty.handler.codec.http.HttpHeaders.Names.CONTENT_TYPE;
+import static io.netty.handler.codec.http.HttpResponseStatus.OK;
+import static io.netty.handler.codec.http.HttpResponseStatus.SERVICE_UNAVAILABLE;
+import static io.netty.handler.codec.http.HttpVersion.HTTP_1_1;
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.handler.codec.http.DefaultFullHttpResponse;
+import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpHeaders;
+import io.netty.handler.codec.http.HttpObjectAggregator;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpServerCodec;
+import io.netty.util.CharsetUtil;
+
+import java.net.InetSocketAddress;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A loopback http server standing in for a microservice. A degraded
+ * upstream answers the failing path with a 503 and the slow path after a
+ * delay, while a healthy one answers everything straight away.
+ */
+public class StubUpstream {
+
+    public static final String FAILING = "failing";
+    public static final String SLOW = "slow";
+
+    private static final int MAX_CONTENT_BYTES = 16 * 1024 * 1024;
+
+    private static final ByteBuf BODY = Unpooled.unreleasableBuffer(Unpooled.copiedBuffer("{\"ok\":true}", CharsetUtil.UTF_8));
+
+    private final boolean degraded;
+    private final long slowMillis;
+    private Channel channel;
+
+    public StubUpstream(boolean degraded, long slowMillis) {
+        this.degraded = degraded;
+        this.slowMillis = slowMillis;
+    }
+
+    public int start(EventLoopGroup group) throws InterruptedException {
+        channel = new ServerBootstrap()
+                .group(group)
+                .channel(NioServerSocketChannel.class)
+                .childHandler(new ChannelInitializer<SocketChannel>() {
+                    @Override
+                    protected void initChannel(SocketChannel channel) throws Exception {
+                        channel.pipeline().addLast(new HttpServerCodec());
+                        channel.pipeline().addLast(new HttpObjectAggregator(MAX_CONTENT_BYTES));
+                        channel.pipeline().addLast(new Handler());
+                    }
+                })
+                .bind("127.0.0.1", 0).sync().channel();
+
+        return ((InetSocketAddress) channel.localAddress()).getPort();
+    }
+
+    public void stop() {
+        if (channel != null)
+            channel.close();
+    }
+
+    private class Handler extends SimpleChannelInboundHandler<FullHttpRequest> {
+        @Override
+        protected void channelRead0(final ChannelHandlerContext ctx, FullHttpRequest request) throws Exception {
+            final String uri = request.getUri();
+            final boolean keepAlive = HttpHeaders.isKeepAlive(request);
+
+            if (degraded && uri.contains(FAILING)) {
+                respond(ctx, SERVICE_UNAVAILABLE, keepAlive);
+            } else if (degraded && uri.contains(SLOW)) {
+                ctx.executor().schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        respond(ctx, OK, keepAlive);
+                    }
+                }, slowMillis, TimeUnit.MILLISECONDS);
+            } else {
+                respond(ctx, OK, keepAlive);
+            }
+        }
+
+        @Override
+        public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) throws Exception {
+            ctx.close();
+        }
+
+        private void respond(ChannelHandlerContext ctx, HttpResponseStatus status, boolean keepAlive) {
+            final FullHttpResponse response = new DefaultFullHttpResponse(HTTP_1_1, status, BODY.duplicate());
+            response.headers().set(CONTENT_TYPE, "application/json");
+            response.headers().set(CONTENT_LENGTH, response.content().readableBytes());
+
+            if (keepAlive)
+                ctx.writeAndFlush(response);
+            else
+                ctx.writeAndFlush(response).addListener(ChannelFutureListener.CLOSE);
+        }
+    }
+}
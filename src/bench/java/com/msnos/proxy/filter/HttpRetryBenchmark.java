@@ -0,0 +1,52 @@
+package com.msnos.proxy.filter;
+
+import io.netty.handler.codec.http.DefaultFullHttpResponse;
+import io.netty.handler.codec.http.HttpResponse;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpVersion;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The retry decision taken on every upstream response, over a mix of
+ * statuses covering all of its branches.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HttpRetryBenchmark {
+
+    private static final int[] STATUSES = {200, 200, 200, 204, 302, 404, 409, 429, 400, 500, 503};
+
+    private final Retry retry = new HttpRetry();
+    private HttpResponse[] responses;
+    private int next;
+
+    @Setup
+    public void setup() {
+        responses = new HttpResponse[STATUSES.length];
+        for (int i = 0; i < STATUSES.length; i++) {
+            responses[i] = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.valueOf(STATUSES[i]));
+        }
+    }
+
+    @Benchmark
+    public boolean isNeeded() {
+        next = (next + 1) % responses.length;
+        return retry.isNeeded(responses[next]);
+    }
+}
@@ -0,0 +1,69 @@
+package com.msnos.proxy.filter.admin;
+
+import io.netty.handler.codec.http.DefaultHttpRequest;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.HttpResponse;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.util.ReferenceCountUtil;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.msnos.proxy.bench.BenchCloud;
+import com.workshare.msnos.usvc.Microservice;
+
+/**
+ * Rendering of the json admin views over a populated cloud.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AdminFilterBenchmark {
+
+    @Param({"100", "1000"})
+    public int services;
+
+    private Microservice microservice;
+
+    @Setup
+    public void setup() throws Exception {
+        microservice = new BenchCloud(services, 5, 4, false).microservice();
+    }
+
+    @Benchmark
+    public HttpResponse routes() {
+        return render("routes");
+    }
+
+    @Benchmark
+    public HttpResponse microservices() {
+        return render("microservices");
+    }
+
+    @Benchmark
+    public HttpResponse metrics() {
+        return render("metrics");
+    }
+
+    private HttpResponse render(String path) {
+        final HttpRequest request = new DefaultHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, "http://127.0.0.1:8881/admin/" + path);
+        final HttpResponse response = new AdminFilter(request, microservice).requestPre(request);
+        ReferenceCountUtil.release(response);
+        return response;
+    }
+}
@@ -0,0 +1,57 @@
+package com.msnos.proxy.filter.http;
+
+import io.netty.handler.codec.http.Cookie;
+import io.netty.handler.codec.http.CookieDecoder;
+import io.netty.handler.codec.http.DefaultCookie;
+import io.netty.handler.codec.http.ServerCookieEncoder;
+
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Decoding the affinity cookies of a request and encoding the one set on the
+ * response, as done by the router.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CookieBenchmark {
+
+    private String header;
+    private DefaultCookie cookie;
+
+    @Setup
+    public void setup() {
+        header = "JSESSIONID=3D8A1E5C0F; "
+                + String.format(HttpRouter.COOKIE_API_ID_FORMAT, "/service-1/api-1") + "=1234567890; "
+                + String.format(HttpRouter.COOKIE_API_ID_FORMAT, "/service-2/api-7") + "=987654321; "
+                + "theme=dark";
+
+        cookie = new DefaultCookie(String.format(HttpRouter.COOKIE_API_ID_FORMAT, "/service-1/api-1"), "1234567890");
+        cookie.setPath("/");
+    }
+
+    @Benchmark
+    public Set<Cookie> decode() {
+        return CookieDecoder.decode(header);
+    }
+
+    @Benchmark
+    public String encode() {
+        return ServerCookieEncoder.encode(cookie);
+    }
+}
@@ -0,0 +1,103 @@
+package com.msnos.proxy.filter.http;
+
+import static io.netty.handler.codec.http.HttpHeaders.Names.COOKIE;
+import io.netty.handler.codec.http.DefaultFullHttpResponse;
+import io.netty.handler.codec.http.DefaultHttpRequest;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.HttpResponse;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpVersion;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.msnos.proxy.bench.BenchCloud;
+import com.workshare.msnos.usvc.Microservice;
+import com.workshare.msnos.usvc.api.RestApi;
+
+/**
+ * The routing hot path: choosing an api for a request, with and without an
+ * affinity cookie, and handling its response both when it succeeds and when
+ * it has to be retried elsewhere. Faulty marking and outlier ejection are
+ * disabled so that the endpoints stay selectable for the whole run.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Dcom.msnos.proxy.api.failures.max=2147483647", "-Dcom.msnos.proxy.outliers.disable=true"})
+public class HttpRouterBenchmark {
+
+    private static final int PATHS_PER_SERVICE = 5;
+    private static final int REPLICAS = 4;
+
+    @Param({"100", "1000"})
+    public int services;
+
+    @Param({"false", "true"})
+    public boolean affinity;
+
+    private Microservice microservice;
+    private String[] paths;
+    private String[] cookies;
+    private int next;
+
+    @Setup
+    public void setup() throws Exception {
+        final BenchCloud cloud = new BenchCloud(services, PATHS_PER_SERVICE, REPLICAS, affinity);
+        microservice = cloud.microservice();
+
+        final List<String> all = cloud.paths();
+        paths = all.toArray(new String[all.size()]);
+        cookies = new String[paths.length];
+        for (int i = 0; i < paths.length; i++) {
+            final RestApi api = cloud.microcloud().searchApi(microservice, paths[i]);
+            cookies[i] = String.format(HttpRouter.COOKIE_API_ID_FORMAT, paths[i]) + "=" + api.getId();
+        }
+    }
+
+    @Benchmark
+    public HttpResponse computeApiRoute() {
+        final HttpRequest request = nextRequest();
+        return new HttpRouter(request, null, microservice).computeApiRoute(request);
+    }
+
+    @Benchmark
+    public HttpResponse handleApiResponseOnSuccess() {
+        return routeAndHandle(HttpResponseStatus.OK);
+    }
+
+    @Benchmark
+    public HttpResponse handleApiResponseOnRetry() {
+        return routeAndHandle(HttpResponseStatus.SERVICE_UNAVAILABLE);
+    }
+
+    private HttpResponse routeAndHandle(HttpResponseStatus status) {
+        final HttpRequest request = nextRequest();
+        final HttpRouter router = new HttpRouter(request, null, microservice);
+        router.computeApiRoute(request);
+        return router.handleApiResponse(new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, status));
+    }
+
+    private HttpRequest nextRequest() {
+        next = (next + 1) % paths.length;
+        final HttpRequest request = new DefaultHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, paths[next]);
+        if (affinity)
+            request.headers().set(COOKIE, cookies[next]);
+        return request;
+    }
+}
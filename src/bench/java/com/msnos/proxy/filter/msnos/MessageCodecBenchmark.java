@@ -0,0 +1,84 @@
+package com.msnos.proxy.filter.msnos;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.util.CharsetUtil;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.gson.JsonParser;
+import com.msnos.proxy.bench.BenchCloud;
+import com.workshare.msnos.core.Message;
+import com.workshare.msnos.core.serializers.WireJsonSerializer;
+
+/**
+ * The QNE messages posted to /msnos as json and as CBOR: reading the body
+ * into the text handed to the wire serializer, alone and followed by the
+ * deserialization. The average size of the two bodies is printed at setup.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MessageCodecBenchmark {
+
+    private final WireJsonSerializer serializer = new WireJsonSerializer();
+
+    private ByteBuf[] jsons;
+    private ByteBuf[] cbors;
+    private int next;
+
+    @Setup
+    public void setup() throws Exception {
+        final List<Message> messages = new BenchCloud(100, 5, 4, false).announcements();
+        jsons = new ByteBuf[messages.size()];
+        cbors = new ByteBuf[messages.size()];
+        long jsonBytes = 0;
+        long cborBytes = 0;
+        for (int i = 0; i < jsons.length; i++) {
+            final String text = serializer.toText(messages.get(i));
+            jsons[i] = Unpooled.wrappedBuffer(text.getBytes(CharsetUtil.UTF_8));
+            cbors[i] = Unpooled.buffer();
+            Cbor.encode(new JsonParser().parse(text), cbors[i]);
+            jsonBytes += jsons[i].readableBytes();
+            cborBytes += cbors[i].readableBytes();
+        }
+        System.out.printf("%nAverage body: json %d bytes, cbor %d bytes%n", jsonBytes / jsons.length, cborBytes / cbors.length);
+    }
+
+    @Benchmark
+    public String readJson() {
+        next = (next + 1) % jsons.length;
+        return jsons[next].toString(CharsetUtil.UTF_8);
+    }
+
+    @Benchmark
+    public String readCbor() {
+        next = (next + 1) % cbors.length;
+        return Cbor.toJson(cbors[next].duplicate());
+    }
+
+    @Benchmark
+    public Message decodeJson() {
+        return serializer.fromText(readJson(), Message.class);
+    }
+
+    @Benchmark
+    public Message decodeCbor() {
+        return serializer.fromText(readCbor(), Message.class);
+    }
+}
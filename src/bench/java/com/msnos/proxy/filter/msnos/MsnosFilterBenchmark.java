@@ -0,0 +1,86 @@
+package com.msnos.proxy.filter.msnos;
+
+import io.netty.buffer.Unpooled;
+import io.netty.handler.codec.http.DefaultFullHttpRequest;
+import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpResponse;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.util.CharsetUtil;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.msnos.proxy.bench.BenchCloud;
+import com.msnos.proxy.metrics.Metrics;
+import com.workshare.msnos.core.Message;
+import com.workshare.msnos.core.serializers.WireJsonSerializer;
+import com.workshare.msnos.usvc.Microcloud;
+
+/**
+ * Deserialization of the QNE messages posted to /msnos, alone and followed
+ * by their processing in the microcloud, and the cost left on the event
+ * loop by the filter that queues them. The same messages are posted over
+ * and over, so duplicates are not dropped here.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MsnosFilterBenchmark {
+
+    private final WireJsonSerializer serializer = new WireJsonSerializer();
+
+    private Microcloud microcloud;
+    private MessageQueue queue;
+    private String[] texts;
+    private byte[][] bodies;
+    private int next;
+
+    @Setup
+    public void setup() throws Exception {
+        final BenchCloud cloud = new BenchCloud(100, 5, 4, false);
+        microcloud = cloud.microcloud();
+        queue = new MessageQueue(1, 1024, new MessageDedup(0L, 0), Metrics.DEFAULT);
+
+        final List<Message> messages = cloud.announcements();
+        texts = new String[messages.size()];
+        bodies = new byte[messages.size()][];
+        for (int i = 0; i < texts.length; i++) {
+            texts[i] = serializer.toText(messages.get(i));
+            bodies[i] = texts[i].getBytes(CharsetUtil.UTF_8);
+        }
+    }
+
+    @Benchmark
+    public Message deserialize() {
+        next = (next + 1) % texts.length;
+        return serializer.fromText(texts[next], Message.class);
+    }
+
+    @Benchmark
+    public void process() {
+        next = (next + 1) % texts.length;
+        queue.process(microcloud, texts[next], System.nanoTime());
+    }
+
+    @Benchmark
+    public HttpResponse filter() {
+        next = (next + 1) % bodies.length;
+        final FullHttpRequest request = new DefaultFullHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.POST, "/msnos", Unpooled.wrappedBuffer(bodies[next]));
+        return new MsnosFilter(request, microcloud, queue).requestPre(request);
+    }
+}
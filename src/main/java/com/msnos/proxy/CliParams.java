@@ -1,12 +1,15 @@
 package com.msnos.proxy;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
 
 import com.beust.jcommander.IStringConverter;
 import com.beust.jcommander.JCommander;
 import com.beust.jcommander.Parameter;
+import com.beust.jcommander.ParameterException;
 
 public class CliParams {
 
@@ -33,7 +36,19 @@ public class CliParams {
     private int idleTimeout = 30;
 
     @Parameter(names = {"--connect", "-c"}, description = "Specify the timeout for connecting to the remote server, in seconds (default is 10)")
-    private int connectTimeout = 30;
+    private int connectTimeout = 10;
+
+    @Parameter(names = {"--api-timeout"}, description = "Specify the request timeout of an api, as path=milliseconds, after which the request is sent to another endpoint (can be repeated)")
+    private List<String> apiTimeouts = new ArrayList<String>();
+
+    @Parameter(names = {"--hedge"}, description = "Specify an api whose GET requests are hedged to a second endpoint, as path=milliseconds, or just path to hedge after the 95th percentile of its response times (can be repeated)")
+    private List<String> hedges = new ArrayList<String>();
+
+    @Parameter(names = {"--hedge-budget"}, description = "Specify the maximum percentage of proxied requests that can be hedged (default is 10)")
+    private int hedgeBudget = 10;
+
+    @Parameter(names = {"--adaptive-timeout"}, description = "Derive the request timeout of the apis not configured with --api-timeout from the observed response times of their endpoints")
+    private boolean adaptiveTimeout;
 
     public CliParams(String[] args) {
         JCommander jc = new JCommander(this, args);
@@ -63,6 +78,43 @@ public class CliParams {
     public int connectTimeoutInSeconds() {
         return connectTimeout;
     }
+
+    public Map<String, Long> apiTimeoutsInMillis() {
+        return toMillisByPath(apiTimeouts, false);
+    }
+
+    public boolean adaptiveTimeout() {
+        return adaptiveTimeout;
+    }
+
+    public Map<String, Long> hedgeDelaysInMillis() {
+        return toMillisByPath(hedges, true);
+    }
+
+    public int hedgeBudgetPercent() {
+        return hedgeBudget;
+    }
+
+    private Map<String, Long> toMillisByPath(List<String> entries, boolean millisOptional) {
+        Map<String, Long> result = new HashMap<String, Long>();
+        for (String entry : entries) {
+            int index = entry.lastIndexOf('=');
+            if (index < 0 && millisOptional) {
+                result.put(entry, 0L);
+                continue;
+            }
+
+            try {
+                if (index < 1)
+                    throw new NumberFormatException();
+
+                result.put(entry.substring(0, index), Long.parseLong(entry.substring(index+1)));
+            } catch (NumberFormatException e) {
+                throw new ParameterException("Invalid value "+entry+", expected path=milliseconds");
+            }
+        }
+        return result;
+    }
     
     public String usage() {
         // TODO Auto-generated method stub
@@ -19,9 +19,16 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.msnos.proxy.filter.admin.AdminFilter;
+import com.msnos.proxy.filter.admin.AdminViews;
+import com.msnos.proxy.filter.admin.RingIndex;
+import com.msnos.proxy.filter.admin.RouteIndex;
+import com.msnos.proxy.filter.admin.TopologyStream;
+import com.msnos.proxy.filter.http.ApiTimeouts;
+import com.msnos.proxy.filter.http.HedgePolicy;
 import com.msnos.proxy.filter.http.HttpProxyFilter;
 import com.msnos.proxy.filter.msnos.MsnosFilter;
 import com.msnos.proxy.filter.msnos.PassiveServiceFilter;
+import com.msnos.proxy.metrics.RuntimeStats;
 import com.workshare.msnos.usvc.Microservice;
 import com.workshare.msnos.usvc.api.RestApi;
 import com.workshare.msnos.usvc.api.RestApi.Type;
@@ -32,10 +39,22 @@ public class Proxy {
 
     private final Microservice microservice;
     private final CliParams params;
+    private final ApiTimeouts timeouts;
+    private final HedgePolicy hedges;
+    private final AdminViews views;
+    private final TopologyStream stream;
+    private final RingIndex rings;
+    private final RouteIndex routes;
 
     public Proxy(Microservice microservice, CliParams params) {
         this.microservice = microservice;
         this.params = params;
+        this.timeouts = new ApiTimeouts(params.apiTimeoutsInMillis(), params.adaptiveTimeout(), params.idleTimeoutInSeconds()*1000L);
+        this.hedges = new HedgePolicy(params.hedgeDelaysInMillis(), params.hedgeBudgetPercent());
+        this.views = new AdminViews();
+        this.stream = new TopologyStream(microservice.getCloud());
+        this.rings = new RingIndex(microservice);
+        this.routes = new RouteIndex(microservice.getCloud());
     }
 
     public void start() throws Exception {
@@ -48,9 +67,14 @@ public class Proxy {
                 .withFiltersSource(getHttpFiltersSourceAdapter())
                 .withChainProxyManager(chainedProxyManager())
                 .withTransparent(true)
-                .withAllowLocalOnly(false);
+                .withAllowLocalOnly(false)
+                .plusActivityTracker(RuntimeStats.DEFAULT.tracker());
 
         main.start();
+        rings.listen();
+        routes.listen();
+        stream.listen();
+        views.listen(microservice.getCloud());
         
         microservice.publish(new RestApi("/msnos", params.port(), null, Type.MSNOS_HTTP, false));
     }
@@ -90,15 +114,17 @@ public class Proxy {
             public HttpFilters filterRequest(HttpRequest request, ChannelHandlerContext context) {
                 final String uri = request.getUri();
                 if (log.isDebugEnabled()) log.debug("Request for uri {}", uri);
+                if (context != null)
+                    RuntimeStats.DEFAULT.channel(context.channel());
                 
                 if (uri.startsWith("/admin")) {
-                    return new AdminFilter(request, microservice);
+                    return new AdminFilter(request, microservice, views, stream, rings, routes);
                 } else if (uri.startsWith("/msnos")) {
                     return new MsnosFilter(request, microservice.getCloud());
                 } else if (uri.startsWith("/pasv/")) {
                     return new PassiveServiceFilter(request, microservice.getCloud());
                 } else {
-                    return new HttpProxyFilter(request, context, microservice);
+                    return new HttpProxyFilter(request, context, microservice, timeouts, hedges);
                 }
             }
         };
@@ -1,37 +1,90 @@
 package com.msnos.proxy;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.msnos.proxy.jfr.ProxyEvents;
+import com.msnos.proxy.jfr.RepublishEvent;
+import com.msnos.proxy.metrics.Metrics;
 import com.workshare.msnos.core.Cloud;
+import com.workshare.msnos.core.Iden;
 import com.workshare.msnos.core.Message;
 import com.workshare.msnos.core.MsnosException;
+import com.workshare.msnos.core.payloads.FltPayload;
+import com.workshare.msnos.core.payloads.Presence;
 import com.workshare.msnos.core.payloads.QnePayload;
 import com.workshare.msnos.usvc.Microcloud;
 import com.workshare.msnos.usvc.Microservice;
+import com.workshare.msnos.usvc.RemoteMicroservice;
 import com.workshare.msnos.usvc.api.RestApi;
 
+/**
+ * Publishes again on the proxy port the apis announced by the microservices
+ * in the cloud. Announcements are collected on the watchdog own thread, not
+ * on the cloud listener, and the apis not seen before are published together
+ * once the window opened by the first of them is over, so that a rolling
+ * deployment of many replicas costs one publish rather than one each.
+ * <p>
+ * Each proxied api is kept with the agents backing it, which are dropped when
+ * they leave or fault and, failing that, when a periodic sweep no longer finds
+ * them in the cloud. When the last one goes the api is forgotten, so that it
+ * is published again as soon as a backend announces it. ms-nos has no way to
+ * unpublish, and leaving the cloud to join it again would cost far more than
+ * the stale advertisement does: until then the router answers the requests
+ * for it as for any path with no backend. A sweep finding no microservice at
+ * all, as right after joining again, is taken as a partial view of the cloud
+ * and evicts nothing.
+ */
 public class ProxyApiWatchdog {
 
     private static final Logger log = LoggerFactory.getLogger(ProxyApiWatchdog.class);
 
+    public static final long WINDOW = Long.getLong("com.msnos.proxy.api.republisher.window", 500L);
+    public static final long SWEEP = Long.getLong("com.msnos.proxy.api.republisher.sweep", 60000L);
+
     private final int port;
+    private final long window;
     private final Microcloud cloud;
     private final Microservice microservice;
+    private final ScheduledExecutorService executor;
+    private final Metrics metrics;
     private final Map<String, RestApi> proxiedServices;
+    private final Map<String, Set<UUID>> backends;
+    private final Map<String, RestApi> pending;
+
+    private int announced;
 
     public ProxyApiWatchdog(Microservice microservice, int port) {
+        this(microservice, port, newExecutor(), WINDOW, Metrics.DEFAULT);
+    }
+
+    public ProxyApiWatchdog(Microservice microservice, int port, ScheduledExecutorService executor, long window, Metrics metrics) {
         this.port = port;
+        this.window = window;
         this.cloud = microservice.getCloud();
         this.microservice = microservice;
+        this.executor = executor;
+        this.metrics = metrics;
 
-        this.proxiedServices = new ConcurrentHashMap<String, RestApi>();
+        this.proxiedServices = new HashMap<String, RestApi>();
+        this.backends = new HashMap<String, Set<UUID>>();
+        this.pending = new LinkedHashMap<String, RestApi>();
     }
 
 
@@ -39,35 +92,173 @@ public class ProxyApiWatchdog {
         cloud.addListener(new Cloud.Listener() {
             @Override
             public void onMessage(Message message) {
+                final UUID from = uuid(message.getFrom());
                 if (message.getType() == Message.Type.QNE) {
-                    QnePayload qnePayload = (QnePayload) message.getData();
-
-                    Set<RestApi> apis = qnePayload.getApis();
-                    List<RestApi> toPublish = createProxyRestApis(apis);
-
-                    try {
-                        if (!toPublish.isEmpty()) {
-                            microservice.publish(toPublish.toArray(new RestApi[toPublish.size()]));
+                    final QnePayload qnePayload = (QnePayload) message.getData();
+                    executor.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            collect(from, qnePayload.getApis());
                         }
-                    } catch (MsnosException e) {
-                        log.error("Unable to publish reverse proxied api ", e);
-                    }
-
-                    for (RestApi rest : apis) {
-                        if (!proxiedServices.containsKey(rest.getUrl()))
-                            proxiedServices.put(rest.getUrl(), rest);
-                    }
+                    });
+                } else if (message.getType() == Message.Type.PRS && message.getData() instanceof Presence && !((Presence) message.getData()).isPresent()) {
+                    left(from);
+                } else if (message.getType() == Message.Type.FLT && message.getData() instanceof FltPayload) {
+                    left(uuid(((FltPayload) message.getData()).getAbout()));
                 }
             }
         });
+
+        executor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                sweep();
+            }
+        }, SWEEP, SWEEP, TimeUnit.MILLISECONDS);
+    }
+
+    int size() {
+        return proxiedServices.size();
     }
 
-    private List<RestApi> createProxyRestApis(Set<RestApi> apis) {
-        List<RestApi> toPublish = new ArrayList<RestApi>();
+    private void left(final UUID agent) {
+        if (agent == null)
+            return;
+
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                drop(Collections.singleton(agent));
+            }
+        });
+    }
+
+    // an api nobody is known to back could never be evicted
+    private void collect(UUID from, Set<RestApi> apis) {
+        if (from == null)
+            return;
+
+        final boolean idle = idle();
+        if (idle)
+            announced = 0;
+
         for (RestApi api : apis) {
-            if (!proxiedServices.containsKey(api.getUrl()) && api.getType() != RestApi.Type.HEALTHCHECK)
-                toPublish.add(api.onPort(port));
+            if (api.getType() == RestApi.Type.HEALTHCHECK)
+                continue;
+
+            final String path = api.getPath();
+            Set<UUID> agents = backends.get(path);
+            if (agents == null) {
+                agents = new HashSet<UUID>();
+                backends.put(path, agents);
+            }
+            agents.add(from);
+
+            if (!proxiedServices.containsKey(path)) {
+                final RestApi proxied = api.onPort(port);
+                pending.put(path, proxied);
+                proxiedServices.put(path, proxied);
+            }
         }
-        return toPublish;
+
+        announced += apis.size();
+        if (idle && !idle())
+            schedule();
+    }
+
+    private void sweep() {
+        final Collection<RemoteMicroservice> services = cloud.getMicroServices();
+        if (services.isEmpty())
+            return;
+
+        final Set<UUID> alive = new HashSet<UUID>();
+        for (RemoteMicroservice service : services) {
+            alive.add(uuid(service.getAgent().getIden()));
+        }
+
+        final Set<UUID> gone = new HashSet<UUID>();
+        for (Set<UUID> agents : backends.values()) {
+            for (UUID agent : agents) {
+                if (!alive.contains(agent))
+                    gone.add(agent);
+            }
+        }
+
+        if (!gone.isEmpty())
+            drop(gone);
+    }
+
+    private void drop(Set<UUID> gone) {
+        int evicted = 0;
+        final Iterator<Map.Entry<String, Set<UUID>>> entries = backends.entrySet().iterator();
+        while (entries.hasNext()) {
+            final Map.Entry<String, Set<UUID>> entry = entries.next();
+            final Set<UUID> agents = entry.getValue();
+            if (!agents.removeAll(gone) || !agents.isEmpty())
+                continue;
+
+            final String path = entry.getKey();
+            entries.remove();
+            proxiedServices.remove(path);
+            if (pending.remove(path) == null)
+                evicted++;
+            log.debug("No backend left for proxied api {}", path);
+        }
+
+        if (evicted > 0)
+            metrics.apisEvicted(evicted);
+    }
+
+    private boolean idle() {
+        return pending.isEmpty();
+    }
+
+    private void schedule() {
+        executor.schedule(new Runnable() {
+            @Override
+            public void run() {
+                flush();
+            }
+        }, window, TimeUnit.MILLISECONDS);
+    }
+
+    private void flush() {
+        final List<RestApi> toPublish = new ArrayList<RestApi>(pending.values());
+        final int count = announced;
+        pending.clear();
+        announced = 0;
+
+        if (!toPublish.isEmpty())
+            publish(count, toPublish);
+    }
+
+    private void publish(int announced, List<RestApi> toPublish) {
+        final RepublishEvent event = ProxyEvents.republish();
+        boolean failed = false;
+        try {
+            microservice.publish(toPublish.toArray(new RestApi[toPublish.size()]));
+        } catch (MsnosException e) {
+            failed = true;
+            log.error("Unable to publish reverse proxied api ", e);
+        }
+
+        metrics.apisRepublished(toPublish.size(), failed);
+        if (event != null)
+            event.published(announced, toPublish.size(), failed);
+    }
+
+    private static UUID uuid(Iden iden) {
+        return iden == null ? null : iden.getUUID();
+    }
+
+    private static ScheduledExecutorService newExecutor() {
+        return Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                final Thread thread = new Thread(runnable, "api-watchdog");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
     }
 }
@@ -1,6 +1,8 @@
 package com.msnos.proxy.filter.admin;
 
+import static io.netty.handler.codec.http.HttpHeaders.Names.ACCEPT;
 import static io.netty.handler.codec.http.HttpHeaders.Names.CONTENT_TYPE;
+import static io.netty.handler.codec.http.HttpResponseStatus.INTERNAL_SERVER_ERROR;
 import static io.netty.handler.codec.http.HttpResponseStatus.NOT_FOUND;
 import static io.netty.handler.codec.http.HttpResponseStatus.OK;
 import static io.netty.handler.codec.http.HttpVersion.HTTP_1_1;
@@ -11,37 +13,26 @@ import io.netty.handler.codec.http.HttpHeaders;
 import io.netty.handler.codec.http.HttpObject;
 import io.netty.handler.codec.http.HttpRequest;
 import io.netty.handler.codec.http.HttpResponse;
+import io.netty.handler.codec.http.QueryStringDecoder;
 import io.netty.util.CharsetUtil;
 
+import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Collection;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
-import java.util.UUID;
 
 import org.littleshoot.proxy.HttpFiltersAdapter;
 
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 import com.google.gson.JsonArray;
-import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
-import com.workshare.msnos.core.Agent;
-import com.workshare.msnos.core.Cloud;
-import com.workshare.msnos.core.RemoteAgent;
-import com.workshare.msnos.core.Ring;
-import com.workshare.msnos.core.geo.Location;
-import com.workshare.msnos.soup.json.Json;
-import com.workshare.msnos.usvc.IMicroservice;
+import com.msnos.proxy.metrics.Metrics;
+import com.msnos.proxy.metrics.RuntimeStats;
+import com.msnos.proxy.metrics.TopTraffic;
 import com.workshare.msnos.usvc.Microcloud;
 import com.workshare.msnos.usvc.Microservice;
-import com.workshare.msnos.usvc.RemoteMicroservice;
-import com.workshare.msnos.usvc.api.RestApi;
-import com.workshare.msnos.usvc.api.routing.ApiEndpoint;
-import com.workshare.msnos.usvc.api.routing.ApiList;
 
 public class AdminFilter extends HttpFiltersAdapter {
     
@@ -50,10 +41,19 @@ public class AdminFilter extends HttpFiltersAdapter {
     private static final String PATH_ADMIN_RINGS = "admin/rings";
     private static final String PATH_ADMIN_MICROSERVICES = "admin/microservices";
     private static final String PATH_ADMIN_AGENTS = "admin/agents";
+    private static final String PATH_ADMIN_DEADLINES = "admin/deadlines";
+    private static final String PATH_ADMIN_METRICS = "admin/metrics";
+    private static final String PATH_ADMIN_TOP = "admin/top";
+    private static final String PATH_ADMIN_RUNTIME = "admin/runtime";
+    private static final String PATH_ADMIN_STREAM = "admin/stream";
     
     private final Microcloud microcloud;
     private final HttpRequest request;
     private final Microservice microservice;
+    private final AdminViews views;
+    private final TopologyStream stream;
+    private final RingIndex rings;
+    private final RouteIndex routes;
     
     private final ThreadLocal<Gson> gson = new ThreadLocal<Gson>() {
         @Override
@@ -63,10 +63,18 @@ public class AdminFilter extends HttpFiltersAdapter {
     };
 
     public AdminFilter(HttpRequest request, Microservice microservice) {
+        this(request, microservice, new AdminViews(), new TopologyStream(microservice.getCloud()), new RingIndex(microservice), new RouteIndex(microservice.getCloud()));
+    }
+
+    public AdminFilter(HttpRequest request, Microservice microservice, AdminViews views, TopologyStream stream, RingIndex rings, RouteIndex routes) {
         super(request);
         this.request = request;
         this.microservice = microservice;
         this.microcloud = microservice.getCloud();
+        this.views = views;
+        this.stream = stream;
+        this.rings = rings;
+        this.routes = routes;
     }
 
     @Override
@@ -78,137 +86,167 @@ public class AdminFilter extends HttpFiltersAdapter {
             if (request.getUri().contains(PATH_ADMIN_ROUTES)) response = routes();
             if (request.getUri().contains(PATH_ADMIN_RINGS)) response = rings();
             if (request.getUri().contains(PATH_ADMIN_PING)) response = pong();
+            if (request.getUri().contains(PATH_ADMIN_DEADLINES)) response = deadlines();
+            if (request.getUri().contains(PATH_ADMIN_METRICS)) response = metrics();
+            if (request.getUri().contains(PATH_ADMIN_TOP)) response = top();
+            if (request.getUri().contains(PATH_ADMIN_RUNTIME)) response = runtime();
+            if (request.getUri().contains(PATH_ADMIN_STREAM)) response = stream();
         }
         return response != null ? response : new DefaultFullHttpResponse(HTTP_1_1, NOT_FOUND);
     }
                 
                 
     private HttpResponse microservices() {
-        List<RemoteMicroservice> micros = microcloud.getMicroServices();
-        String content = gson.get().toJson(micros);
-        DefaultFullHttpResponse resp = new DefaultFullHttpResponse(HTTP_1_1, OK, writeContent(content));
-        resp.headers().set(CONTENT_TYPE, "application/json; charset=UTF-8");
-        addControlHeaders(resp);
-        return resp;
+        return view(PATH_ADMIN_MICROSERVICES, new AdminViews.View() {
+            @Override
+            public Object build() {
+                return microcloud.getMicroServices();
+            }
+        });
     }
 
     private HttpResponse agents() {
-        Collection<RemoteAgent> agents = microcloud.getCloud().getRemoteAgents();
-        String content = gson.get().toJson(agents);
+        return view(PATH_ADMIN_AGENTS, new AdminViews.View() {
+            @Override
+            public Object build() {
+                return microcloud.getCloud().getRemoteAgents();
+            }
+        });
+    }
+
+    private HttpResponse routes() {
+        final QueryStringDecoder decoder = new QueryStringDecoder(request.getUri());
+        final Map<String, List<String>> parameters = new HashMap<String, List<String>>(decoder.parameters());
+        parameters.remove(AdminViews.COMPACT);
+
+        final boolean legacy = parameters.isEmpty();
+        final RouteIndex.Query query = legacy ? new RouteIndex.Query() : RouteIndex.Query.parse(parameters);
+        query.contains = getArgument(decoder.path(), PATH_ADMIN_ROUTES);
+        final String key = PATH_ADMIN_ROUTES + (legacy ? "|legacy|" : "|") + query.key();
+
+        return view(key, new AdminViews.View() {
+            @Override
+            public Object build() {
+                final RouteIndex.Page page = routes.query(query);
+                if (legacy)
+                    return page.routes();
+
+                final JsonObject result = new JsonObject();
+                result.add("routes", gson.get().toJsonTree(page.routes()));
+                if (page.next() != null)
+                    result.addProperty("next", page.next());
+                return result;
+            }
+        });
+    }
+
+    private HttpResponse deadlines() {
+        Map<String, Long> expired = Metrics.DEFAULT.expiredByPath();
+        String content = gson.get().toJson(expired);
         DefaultFullHttpResponse resp = new DefaultFullHttpResponse(HTTP_1_1, OK, writeContent(content));
         resp.headers().set(CONTENT_TYPE, "application/json; charset=UTF-8");
         addControlHeaders(resp);
         return resp;
     }
 
-    private HttpResponse routes() {
-        String argument = getArgument(PATH_ADMIN_ROUTES);
-        
-        Map<String, List<JsonObject>> result = new HashMap<String, List<JsonObject>>();
-        Map<String, ApiList> apis = microcloud.getApis().getRemoteApis();
-        for (String path : apis.keySet()) {
-            final ApiList list = apis.get(path);
-            if (!path.contains(argument))
-                continue;
-
-            final List<JsonObject> entries = new ArrayList<JsonObject>();
-            result.put(path, entries);
-
-            for (ApiEndpoint endpoint : list.getEndpoints()) {
-                final RestApi api = endpoint.api();
-                final Location loc = endpoint.location();
-                final RemoteMicroservice svc = endpoint.service();
-
-                JsonObject entry = new JsonObject();
-                entry.addProperty("service", svc.getName());
-                entry.addProperty("url", api.getUrl());
-                entry.addProperty("type", api.getType().toString());
-                entry.addProperty("faulty", isFaulty(api));
-                entry.addProperty("sticky", api.hasAffinity());
-                entry.addProperty("priority", api.getPriority());
-                entry.addProperty("location", loc.toString());
-                entries.add(entry);
-            }
+    private HttpResponse metrics() {
+        final String accept = request.headers().get(ACCEPT);
+        final boolean prometheus = request.getUri().contains("format=prometheus") || (accept != null && accept.startsWith("text/plain"));
+
+        String content;
+        DefaultFullHttpResponse resp;
+        if (prometheus) {
+            content = Metrics.DEFAULT.toPrometheus();
+            resp = new DefaultFullHttpResponse(HTTP_1_1, OK, writeContent(content));
+            resp.headers().set(CONTENT_TYPE, "text/plain; version=0.0.4; charset=UTF-8");
+        } else {
+            content = gson.get().toJson(Metrics.DEFAULT.toJson());
+            resp = new DefaultFullHttpResponse(HTTP_1_1, OK, writeContent(content));
+            resp.headers().set(CONTENT_TYPE, "application/json; charset=UTF-8");
         }
-        
-        String content = gson.get().toJson(result);
+        addControlHeaders(resp);
+        return resp;
+    }
+
+    private HttpResponse top() {
+        String content = gson.get().toJson(TopTraffic.DEFAULT.toJson());
         DefaultFullHttpResponse resp = new DefaultFullHttpResponse(HTTP_1_1, OK, writeContent(content));
         resp.headers().set(CONTENT_TYPE, "application/json; charset=UTF-8");
         addControlHeaders(resp);
         return resp;
     }
 
-    @SuppressWarnings("unchecked")
-    private HttpResponse rings() {
-        Cloud cloud = microcloud.getCloud();
-        Collection<JsonObject> rings = createRingMap(cloud.getRemoteAgents(), cloud.getLocalAgents());
-        String content = gson.get().toJson(rings);
+    private HttpResponse runtime() {
+        String content = gson.get().toJson(RuntimeStats.DEFAULT.toJson());
         DefaultFullHttpResponse resp = new DefaultFullHttpResponse(HTTP_1_1, OK, writeContent(content));
         resp.headers().set(CONTENT_TYPE, "application/json; charset=UTF-8");
         addControlHeaders(resp);
         return resp;
     }
 
-    private Collection<JsonObject> createRingMap(Collection<? extends Agent>... agents_array) {
-        final Set<Agent> all = new HashSet<Agent>();
-        for (Collection<? extends Agent> collection : agents_array) {
-            for (Agent agent : collection) {
-                all.add(agent);
-            }
-        }
-        
-        final Map<UUID, JsonObject> rings = new HashMap<UUID, JsonObject>();
-        for (Agent agent : all) {
-            Ring ring = agent.getRing();
-            JsonObject data = rings.get(ring.uuid());
-            if (data == null) {
-                data = new JsonObject();
-                data.addProperty("uuid", ring.uuid().toString());
-                data.addProperty("location", ring.location().toString());
-                data.add("gps", toJsonTree(ring.location().getGPS()));
-                data.add("agents", new JsonArray());
-                rings.put(ring.uuid(), data);
-            }
+    private HttpResponse rings() {
+        final QueryStringDecoder query = new QueryStringDecoder(request.getUri());
+        final String ring = parameter(query, "ring");
+        final String location = parameter(query, "location");
+        final String offset = parameter(query, "offset");
+        final String limit = parameter(query, "limit");
+        final String key = PATH_ADMIN_RINGS + "|" + ring + "|" + location + "|" + offset + "|" + limit;
+
+        return view(key, new AdminViews.View() {
+            @Override
+            public Object build() {
+                final List<JsonObject> page = new ArrayList<JsonObject>();
+                final int from = toInt(offset, 0);
+                final int total = rings.rings(ring, location, from, toInt(limit, Integer.MAX_VALUE), page);
+                if (offset == null && limit == null)
+                    return page;
 
-            JsonObject friend = new JsonObject();
-            friend.addProperty("agent", agent.getIden().getUUID().toString());
-            final IMicroservice uservice = findMicroserviceName(agent);
-            if (uservice != null) {
-                friend.addProperty("uservice", uservice.getName());
-                friend.addProperty("location", uservice.getLocation().toString());
-            } else {
-                friend.addProperty("uservice", "n/a");
+                final JsonArray items = new JsonArray();
+                for (JsonObject item : page) {
+                    items.add(item);
+                }
+                final JsonObject result = new JsonObject();
+                result.addProperty("total", total);
+                result.addProperty("offset", from);
+                result.add("rings", items);
+                return result;
             }
-            
-            JsonArray friends = (JsonArray) data.get("agents");
-            friends.add(friend);
-        }
-        
-        return rings.values();
+        });
     }
 
-    private JsonElement toJsonTree(final Object object) {
-        return (object == null) ? null : Json.toJsonTree(object);
+    private static String parameter(QueryStringDecoder query, String name) {
+        final List<String> values = query.parameters().get(name);
+        return values == null || values.isEmpty() ? null : values.get(0);
     }
 
-
-    private IMicroservice findMicroserviceName(Agent agent) {
-        if (microservice.getAgent().equals(agent)) {
-            return microservice;
+    private static int toInt(String value, int defaultValue) {
+        try {
+            return value == null ? defaultValue : Math.max(0, Integer.parseInt(value));
+        } catch (NumberFormatException e) {
+            return defaultValue;
         }
+    }
 
-        List<RemoteMicroservice> services = microcloud.getMicroServices();
-        for (RemoteMicroservice service : services) {
-            if (service.getAgent().equals(agent)) {
-                return service;
-            }
-        }
+    private HttpResponse stream() {
+        DefaultFullHttpResponse resp = stream.respond(request);
+        addControlHeaders(resp);
+        return resp;
+    }
 
-        return null;
+    private HttpResponse view(String name, AdminViews.View view) {
+        DefaultFullHttpResponse resp;
+        try {
+            resp = views.respond(request, name, view);
+        } catch (IOException e) {
+            resp = new DefaultFullHttpResponse(HTTP_1_1, INTERNAL_SERVER_ERROR);
+        }
+        addControlHeaders(resp);
+        return resp;
     }
-    private String getArgument(String path) {
+
+    private String getArgument(String uri, String path) {
         try {
-            final String uri = request.getUri().toLowerCase();
+            uri = uri.toLowerCase();
             final String argument = uri.substring(uri.indexOf(path) + path.length()+1);
             return argument;
         } catch (Exception whatever) {
@@ -216,22 +254,6 @@ public class AdminFilter extends HttpFiltersAdapter {
         }
     }
 
-    private String isFaulty(RestApi api) {
-        StringBuffer sb = new StringBuffer();
-        if (api.isFaulty() || api.getTempFaults() > 0) {
-            sb.append("yes");
-            if (api.getTempFaults() > 0) {
-                sb.append("(temporary: ");
-                sb.append(api.getTempFaults());
-                sb.append(")");
-            }
-                
-        } else
-            sb.append("no");
-
-        return sb.toString();
-    }
-
     private HttpResponse pong() {
         DefaultFullHttpResponse pong = new DefaultFullHttpResponse(HTTP_1_1, OK, writeContent("pong"));
         pong.headers().set(CONTENT_TYPE, "text/plain; charset=UTF-8");
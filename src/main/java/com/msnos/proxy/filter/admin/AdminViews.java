@@ -0,0 +1,208 @@
+package com.msnos.proxy.filter.admin;
+
+import static io.netty.handler.codec.http.HttpHeaders.Names.ACCEPT_ENCODING;
+import static io.netty.handler.codec.http.HttpHeaders.Names.CACHE_CONTROL;
+import static io.netty.handler.codec.http.HttpHeaders.Names.CONTENT_ENCODING;
+import static io.netty.handler.codec.http.HttpHeaders.Names.CONTENT_LENGTH;
+import static io.netty.handler.codec.http.HttpHeaders.Names.CONTENT_TYPE;
+import static io.netty.handler.codec.http.HttpHeaders.Names.ETAG;
+import static io.netty.handler.codec.http.HttpHeaders.Names.IF_NONE_MATCH;
+import static io.netty.handler.codec.http.HttpHeaders.Names.VARY;
+import static io.netty.handler.codec.http.HttpResponseStatus.NOT_MODIFIED;
+import static io.netty.handler.codec.http.HttpResponseStatus.OK;
+import static io.netty.handler.codec.http.HttpVersion.HTTP_1_1;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufOutputStream;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.handler.codec.http.DefaultFullHttpResponse;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.QueryStringDecoder;
+import io.netty.util.CharsetUtil;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+import java.util.zip.GZIPOutputStream;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonNull;
+import com.google.gson.stream.JsonWriter;
+import com.workshare.msnos.core.Cloud;
+import com.workshare.msnos.core.Message;
+import com.workshare.msnos.usvc.Microcloud;
+
+/**
+ * The rendered admin views of the cloud topology, cached until a cloud
+ * message changes the topology, or for a short time at most, since some
+ * state, like the faults of an api, changes without one. Views are written
+ * with a streaming json writer straight into a pooled buffer, compressed
+ * when the client accepts it, and served with an ETag so that an unchanged
+ * view costs a 304 to the dashboards polling it. Output is pretty printed
+ * unless the query has a compact parameter.
+ */
+public class AdminViews {
+
+    public static final long TTL_MILLIS = Long.getLong("com.msnos.proxy.admin.cache.ttl", 1000L);
+
+    static final int MAX_ENTRIES = 64;
+    static final String COMPACT = "compact";
+
+    static final Set<Message.Type> TOPOLOGY = EnumSet.of(Message.Type.PRS, Message.Type.QNE, Message.Type.FLT, Message.Type.DSC);
+
+    interface View {
+        Object build();
+    }
+
+    private final Gson gson = new Gson();
+    private final AtomicLong version = new AtomicLong();
+    private final Map<String, Rendering> cache = new HashMap<String, Rendering>();
+    private final long ttlMillis;
+
+    public AdminViews() {
+        this(TTL_MILLIS);
+    }
+
+    public AdminViews(long ttlMillis) {
+        this.ttlMillis = ttlMillis;
+    }
+
+    public void listen(Microcloud microcloud) {
+        microcloud.addListener(new Cloud.Listener() {
+            @Override
+            public void onMessage(Message message) {
+                if (TOPOLOGY.contains(message.getType()))
+                    invalidate();
+            }
+        });
+    }
+
+    public void invalidate() {
+        version.incrementAndGet();
+    }
+
+    DefaultFullHttpResponse respond(HttpRequest request, String name, View view) throws IOException {
+        final boolean pretty = !new QueryStringDecoder(request.getUri()).parameters().containsKey(COMPACT);
+        final String encoding = request.headers().get(ACCEPT_ENCODING);
+        final boolean gzip = encoding != null && encoding.contains("gzip");
+        final String key = name + (pretty ? "" : "|compact") + (gzip ? "|gzip" : "");
+
+        Rendering rendering = lookup(key);
+        if (rendering == null) {
+            final long current = version.get();
+            rendering = store(key, render(view.build(), current, pretty, gzip));
+        }
+
+        final DefaultFullHttpResponse response;
+        if (matches(request.headers().getAll(IF_NONE_MATCH), rendering.etag)) {
+            rendering.content.release();
+            response = new DefaultFullHttpResponse(HTTP_1_1, NOT_MODIFIED);
+            response.headers().set(CONTENT_LENGTH, "0");
+        } else {
+            final ByteBuf content = rendering.content;
+            response = new DefaultFullHttpResponse(HTTP_1_1, OK, content);
+            response.headers().set(CONTENT_TYPE, "application/json; charset=UTF-8");
+            response.headers().set(CONTENT_LENGTH, content.readableBytes());
+            if (gzip)
+                response.headers().set(CONTENT_ENCODING, "gzip");
+        }
+
+        response.headers().set(ETAG, rendering.etag);
+        response.headers().set(CACHE_CONTROL, "no-cache");
+        response.headers().set(VARY, ACCEPT_ENCODING);
+        return response;
+    }
+
+    protected long now() {
+        return System.currentTimeMillis();
+    }
+
+    // If-None-Match compares weakly, against any tag of the list or all of
+    // them for * (RFC 7232, 3.2)
+    static boolean matches(List<String> conditions, String etag) {
+        for (String condition : conditions) {
+            for (String tag : condition.split(",")) {
+                tag = tag.trim();
+                if (tag.equals("*"))
+                    return true;
+                if (tag.startsWith("W/"))
+                    tag = tag.substring(2);
+                if (tag.equals(etag))
+                    return true;
+            }
+        }
+        return false;
+    }
+
+    // the cached buffer is released when replaced, so what is served is a
+    // slice of it retained under the same lock
+    private synchronized Rendering lookup(String key) {
+        final Rendering rendering = cache.get(key);
+        if (rendering == null || rendering.version != version.get() || now() - rendering.created > ttlMillis)
+            return null;
+        return rendering.retain();
+    }
+
+    private synchronized Rendering store(String key, Rendering rendering) {
+        if (cache.size() >= MAX_ENTRIES && !cache.containsKey(key)) {
+            for (Rendering old : cache.values()) {
+                old.content.release();
+            }
+            cache.clear();
+        }
+
+        final Rendering old = cache.put(key, rendering);
+        if (old != null)
+            old.content.release();
+        return rendering.retain();
+    }
+
+    private Rendering render(Object tree, long current, boolean pretty, boolean gzip) throws IOException {
+        final ByteBuf content = PooledByteBufAllocator.DEFAULT.buffer();
+        try {
+            final OutputStream out = gzip ? new GZIPOutputStream(new ByteBufOutputStream(content)) : new ByteBufOutputStream(content);
+            final JsonWriter writer = new JsonWriter(new OutputStreamWriter(out, CharsetUtil.UTF_8));
+            if (pretty)
+                writer.setIndent("  ");
+            if (tree == null)
+                gson.toJson(JsonNull.INSTANCE, writer);
+            else
+                gson.toJson(tree, tree.getClass(), writer);
+            writer.close();
+        } catch (IOException e) {
+            content.release();
+            throw e;
+        } catch (RuntimeException e) {
+            content.release();
+            throw e;
+        }
+
+        final CRC32 crc = new CRC32();
+        crc.update(content.nioBuffer());
+        return new Rendering(content, "\"" + Long.toHexString(crc.getValue()) + "\"", current, now());
+    }
+
+    private static class Rendering {
+        final ByteBuf content;
+        final String etag;
+        final long version;
+        final long created;
+
+        Rendering(ByteBuf content, String etag, long version, long created) {
+            this.content = content;
+            this.etag = etag;
+            this.version = version;
+            this.created = created;
+        }
+
+        Rendering retain() {
+            return new Rendering(content.slice().retain(), etag, version, created);
+        }
+    }
+}
@@ -0,0 +1,238 @@
+package com.msnos.proxy.filter.admin;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.workshare.msnos.core.Agent;
+import com.workshare.msnos.core.Cloud;
+import com.workshare.msnos.core.Iden;
+import com.workshare.msnos.core.Message;
+import com.workshare.msnos.core.Ring;
+import com.workshare.msnos.core.payloads.FltPayload;
+import com.workshare.msnos.core.payloads.Presence;
+import com.workshare.msnos.soup.json.Json;
+import com.workshare.msnos.usvc.IMicroservice;
+import com.workshare.msnos.usvc.Microcloud;
+import com.workshare.msnos.usvc.Microservice;
+import com.workshare.msnos.usvc.RemoteMicroservice;
+
+/**
+ * The agents of the cloud grouped by ring, each with the microservice it
+ * runs, kept up to date from presence and qne messages so that the rings
+ * view renders in time linear with the agents it shows rather than looking
+ * up the microservice of every agent in the whole list of them. The index
+ * is built from the cloud when listening starts and then only touched by
+ * the agent a message comes from, or the one a fault is about. A qne from
+ * an agent whose microservice is not known yet only marks the index stale,
+ * the microservices being looked up again once, when it is next read. Agents
+ * may also join or leave the cloud with no message at all, by expiring, so
+ * the index is built again when it is read and its agents are no longer
+ * those of the cloud.
+ */
+public class RingIndex {
+
+    private final Microservice microservice;
+    private final ConcurrentMap<UUID, UUID> agents = new ConcurrentHashMap<UUID, UUID>();
+    private final ConcurrentMap<UUID, IMicroservice> services = new ConcurrentHashMap<UUID, IMicroservice>();
+    private final ConcurrentSkipListMap<UUID, Group> rings = new ConcurrentSkipListMap<UUID, Group>();
+
+    private volatile boolean stale;
+
+    public RingIndex(Microservice microservice) {
+        this.microservice = microservice;
+    }
+
+    public void listen() {
+        microservice.getCloud().addListener(new Cloud.Listener() {
+            @Override
+            public void onMessage(Message message) {
+                if (message.getType() == Message.Type.PRS)
+                    presence(message);
+                else if (message.getType() == Message.Type.QNE)
+                    qne(message);
+                else if (message.getType() == Message.Type.FLT && message.getData() instanceof FltPayload)
+                    remove(((FltPayload) message.getData()).getAbout());
+            }
+        });
+        rebuild();
+    }
+
+    public synchronized void rebuild() {
+        stale = false;
+        agents.clear();
+        services.clear();
+        rings.clear();
+
+        final Microcloud microcloud = microservice.getCloud();
+        final Cloud cloud = microcloud.getCloud();
+        for (Agent agent : cloud.getRemoteAgents()) {
+            add(agent);
+        }
+        for (Agent agent : cloud.getLocalAgents()) {
+            add(agent);
+        }
+
+        services.put(uuid(microservice.getAgent()), microservice);
+        for (RemoteMicroservice service : microcloud.getMicroServices()) {
+            services.put(uuid(service.getAgent()), service);
+        }
+    }
+
+    /**
+     * Adds the json of the rings matching the given ring uuid and location,
+     * either of them optional, to the given collection, skipping the first
+     * offset of them and stopping at limit. Returns the number of matching
+     * rings.
+     */
+    public int rings(String ring, String location, int offset, int limit, Collection<JsonObject> into) {
+        reconcile();
+        final Map<UUID, Group> groups = ring == null ? rings : single(ring);
+        final String where = location == null ? null : location.toLowerCase();
+
+        int total = 0;
+        for (Group group : groups.values()) {
+            if (where != null && !String.valueOf(group.ring.location()).toLowerCase().contains(where))
+                continue;
+
+            if (total >= offset && total - offset < limit)
+                into.add(toJson(group));
+            total++;
+        }
+        return total;
+    }
+
+    private void reconcile() {
+        final Cloud cloud = microservice.getCloud().getCloud();
+        if (stale || !indexed(cloud.getRemoteAgents(), cloud.getLocalAgents()))
+            rebuild();
+    }
+
+    private boolean indexed(Collection<? extends Agent> remote, Collection<? extends Agent> local) {
+        if (agents.size() != remote.size() + local.size())
+            return false;
+
+        for (Agent agent : remote) {
+            if (!agents.containsKey(uuid(agent)))
+                return false;
+        }
+        for (Agent agent : local) {
+            if (!agents.containsKey(uuid(agent)))
+                return false;
+        }
+        return true;
+    }
+
+    private Map<UUID, Group> single(String ring) {
+        try {
+            final Group group = rings.get(UUID.fromString(ring));
+            if (group != null)
+                return Collections.singletonMap(group.uuid, group);
+        } catch (IllegalArgumentException notAnUuid) {
+        }
+        return Collections.emptyMap();
+    }
+
+    private void presence(Message message) {
+        final Agent agent = microservice.getCloud().getCloud().find(message.getFrom());
+        final boolean present = !(message.getData() instanceof Presence) || ((Presence) message.getData()).isPresent();
+        if (agent != null && present)
+            add(agent);
+        else
+            remove(message.getFrom());
+    }
+
+    private void qne(Message message) {
+        final Agent agent = microservice.getCloud().getCloud().find(message.getFrom());
+        if (agent == null)
+            return;
+
+        add(agent);
+        if (!services.containsKey(uuid(agent)))
+            stale = true;
+    }
+
+    // the ring of an agent is kept apart as the agent may be updated in place
+    private synchronized void add(Agent agent) {
+        final UUID uuid = uuid(agent);
+        final Ring ring = agent.getRing();
+        final UUID previous = agents.put(uuid, ring.uuid());
+        if (previous != null)
+            leave(uuid, previous);
+
+        Group group = rings.get(ring.uuid());
+        if (group == null) {
+            group = new Group(ring);
+            rings.put(group.uuid, group);
+        }
+        group.agents.add(uuid);
+    }
+
+    private synchronized void remove(Iden iden) {
+        if (iden == null)
+            return;
+
+        final UUID uuid = iden.getUUID();
+        final UUID ring = agents.remove(uuid);
+        services.remove(uuid);
+        if (ring != null)
+            leave(uuid, ring);
+    }
+
+    private void leave(UUID agent, UUID ring) {
+        final Group group = rings.get(ring);
+        if (group == null)
+            return;
+
+        group.agents.remove(agent);
+        if (group.agents.isEmpty())
+            rings.remove(group.uuid);
+    }
+
+    private JsonObject toJson(Group group) {
+        final JsonObject data = new JsonObject();
+        data.addProperty("uuid", group.uuid.toString());
+        data.addProperty("location", String.valueOf(group.ring.location()));
+        final Object gps = group.ring.location() == null ? null : group.ring.location().getGPS();
+        data.add("gps", gps == null ? null : Json.toJsonTree(gps));
+
+        final JsonArray friends = new JsonArray();
+        for (UUID agent : group.agents) {
+            final JsonObject friend = new JsonObject();
+            friend.addProperty("agent", agent.toString());
+            final IMicroservice uservice = services.get(agent);
+            if (uservice != null) {
+                friend.addProperty("uservice", uservice.getName());
+                friend.addProperty("location", String.valueOf(uservice.getLocation()));
+            } else {
+                friend.addProperty("uservice", "n/a");
+            }
+            friends.add(friend);
+        }
+        data.add("agents", friends);
+        return data;
+    }
+
+    private static UUID uuid(Agent agent) {
+        return agent.getIden().getUUID();
+    }
+
+    private static class Group {
+        final UUID uuid;
+        final Ring ring;
+        final Set<UUID> agents = new ConcurrentSkipListSet<UUID>();
+
+        Group(Ring ring) {
+            this.uuid = ring.uuid();
+            this.ring = ring;
+        }
+    }
+}
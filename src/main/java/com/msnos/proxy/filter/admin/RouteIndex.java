@@ -0,0 +1,297 @@
+package com.msnos.proxy.filter.admin;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.gson.JsonObject;
+import com.workshare.msnos.core.Cloud;
+import com.workshare.msnos.core.Message;
+import com.workshare.msnos.usvc.Microcloud;
+import com.workshare.msnos.usvc.api.RestApi;
+import com.workshare.msnos.usvc.api.routing.ApiEndpoint;
+import com.workshare.msnos.usvc.api.routing.ApiList;
+
+/**
+ * The remote apis of the cloud sorted by path, so that routes can be
+ * looked up by exact path or prefix without going through all of them,
+ * filtered on their endpoints, projected on some fields only and paged with
+ * an opaque cursor. The sorted copy is taken again on the first query after
+ * a topology message.
+ */
+public class RouteIndex {
+
+    public static final int DEFAULT_LIMIT = 100;
+    public static final int MAX_LIMIT = 1000;
+
+    static final String SERVICE = "service";
+    static final String URL = "url";
+    static final String TYPE = "type";
+    static final String FAULTY = "faulty";
+    static final String STICKY = "sticky";
+    static final String PRIORITY = "priority";
+    static final String LOCATION = "location";
+
+    private static final Comparator<ApiEndpoint> BY_URL = new Comparator<ApiEndpoint>() {
+        @Override
+        public int compare(ApiEndpoint one, ApiEndpoint two) {
+            return String.valueOf(one.api().getUrl()).compareTo(String.valueOf(two.api().getUrl()));
+        }
+    };
+
+    private final Microcloud microcloud;
+    private final AtomicLong version = new AtomicLong();
+
+    private volatile NavigableMap<String, ApiList> paths;
+    private volatile long indexed = -1;
+
+    public RouteIndex(Microcloud microcloud) {
+        this.microcloud = microcloud;
+    }
+
+    public void listen() {
+        microcloud.addListener(new Cloud.Listener() {
+            @Override
+            public void onMessage(Message message) {
+                if (AdminViews.TOPOLOGY.contains(message.getType()))
+                    version.incrementAndGet();
+            }
+        });
+    }
+
+    public Page query(Query query) {
+        NavigableMap<String, ApiList> candidates = index();
+        if (query.exact != null)
+            candidates = candidates.subMap(query.exact, true, query.exact, true);
+        else if (query.prefix != null)
+            candidates = candidates.subMap(query.prefix, true, query.prefix + Character.MAX_VALUE, false);
+
+        final String[] after = decode(query.cursor);
+        if (after != null)
+            candidates = candidates.tailMap(after[0], true);
+
+        final Page page = new Page();
+        String lastPath = null;
+        String lastUrl = null;
+        int count = 0;
+        for (Map.Entry<String, ApiList> entry : candidates.entrySet()) {
+            final String path = entry.getKey();
+            if (query.contains != null && !path.contains(query.contains))
+                continue;
+
+            final List<ApiEndpoint> endpoints = new ArrayList<ApiEndpoint>(entry.getValue().getEndpoints());
+            Collections.sort(endpoints, BY_URL);
+
+            List<JsonObject> entries = null;
+            for (ApiEndpoint endpoint : endpoints) {
+                final String url = String.valueOf(endpoint.api().getUrl());
+                if (after != null && path.equals(after[0]) && url.compareTo(after[1]) <= 0)
+                    continue;
+                if (!query.matches(endpoint))
+                    continue;
+
+                if (count == query.limit) {
+                    page.next = encode(lastPath, lastUrl);
+                    return page;
+                }
+
+                if (entries == null) {
+                    entries = new ArrayList<JsonObject>();
+                    page.routes.put(path, entries);
+                }
+                entries.add(query.project(endpoint));
+                lastPath = path;
+                lastUrl = url;
+                count++;
+            }
+        }
+        return page;
+    }
+
+    private NavigableMap<String, ApiList> index() {
+        final long current = version.get();
+        if (indexed != current || paths == null) {
+            paths = new TreeMap<String, ApiList>(microcloud.getApis().getRemoteApis());
+            indexed = current;
+        }
+        return paths;
+    }
+
+    // the cursor holds the path and url of the last endpoint returned, the
+    // next page starts right after them
+    private static String encode(String path, String url) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString((path + "\n" + url).getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String[] decode(String cursor) {
+        if (cursor == null)
+            return null;
+
+        try {
+            final String value = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+            final int separator = value.indexOf('\n');
+            return separator < 0 ? null : new String[] {value.substring(0, separator), value.substring(separator + 1)};
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    static boolean isFaulty(RestApi api) {
+        return api.isFaulty() || api.getTempFaults() > 0;
+    }
+
+    static String faultyText(RestApi api) {
+        StringBuffer sb = new StringBuffer();
+        if (isFaulty(api)) {
+            sb.append("yes");
+            if (api.getTempFaults() > 0) {
+                sb.append("(temporary: ");
+                sb.append(api.getTempFaults());
+                sb.append(")");
+            }
+        } else
+            sb.append("no");
+
+        return sb.toString();
+    }
+
+    /**
+     * The endpoints of a page grouped by path, in order, and the cursor of
+     * the next page if there is one.
+     */
+    public static class Page {
+        final Map<String, List<JsonObject>> routes = new LinkedHashMap<String, List<JsonObject>>();
+        String next;
+
+        public Map<String, List<JsonObject>> routes() {
+            return routes;
+        }
+
+        public String next() {
+            return next;
+        }
+    }
+
+    /**
+     * A route query: an exact path, a prefix or a substring of the path,
+     * filters on the endpoints, the fields to return and the page.
+     */
+    public static class Query {
+        String exact;
+        String prefix;
+        String contains;
+        Boolean faulty;
+        Boolean sticky;
+        String type;
+        String service;
+        String location;
+        Set<String> fields;
+        int limit = Integer.MAX_VALUE;
+        String cursor;
+
+        public static Query contains(String text) {
+            final Query query = new Query();
+            query.contains = text;
+            return query;
+        }
+
+        public static Query parse(Map<String, List<String>> parameters) {
+            final Query query = new Query();
+            query.exact = first(parameters, "path");
+            query.prefix = first(parameters, "prefix");
+            query.faulty = toBoolean(first(parameters, FAULTY));
+            query.sticky = toBoolean(first(parameters, STICKY));
+            query.type = first(parameters, TYPE);
+            query.service = first(parameters, SERVICE);
+            query.location = lower(first(parameters, LOCATION));
+            query.cursor = first(parameters, "cursor");
+
+            final String fields = first(parameters, "fields");
+            if (fields != null)
+                query.fields = new HashSet<String>(Arrays.asList(fields.split(",")));
+
+            query.limit = DEFAULT_LIMIT;
+            final String limit = first(parameters, "limit");
+            if (limit != null) {
+                try {
+                    query.limit = Math.max(1, Math.min(MAX_LIMIT, Integer.parseInt(limit)));
+                } catch (NumberFormatException e) {
+                }
+            }
+            return query;
+        }
+
+        /**
+         * Identifies the query by its normalized fields, so that the same
+         * query written in different ways shares one cached view.
+         */
+        String key() {
+            final Set<String> sorted = fields == null ? null : new TreeSet<String>(fields);
+            return exact + "|" + prefix + "|" + contains + "|" + faulty + "|" + sticky + "|" + type + "|" + service + "|" + location + "|" + sorted + "|" + limit + "|" + cursor;
+        }
+
+        boolean matches(ApiEndpoint endpoint) {
+            final RestApi api = endpoint.api();
+            if (faulty != null && faulty != isFaulty(api))
+                return false;
+            if (sticky != null && sticky != api.hasAffinity())
+                return false;
+            if (type != null && !type.equalsIgnoreCase(String.valueOf(api.getType())))
+                return false;
+            if (service != null && !service.equals(endpoint.service().getName()))
+                return false;
+            if (location != null && !String.valueOf(endpoint.location()).toLowerCase().contains(location))
+                return false;
+            return true;
+        }
+
+        JsonObject project(ApiEndpoint endpoint) {
+            final RestApi api = endpoint.api();
+            final JsonObject entry = new JsonObject();
+            if (wants(SERVICE))
+                entry.addProperty(SERVICE, endpoint.service().getName());
+            if (wants(URL))
+                entry.addProperty(URL, api.getUrl());
+            if (wants(TYPE))
+                entry.addProperty(TYPE, String.valueOf(api.getType()));
+            if (wants(FAULTY))
+                entry.addProperty(FAULTY, faultyText(api));
+            if (wants(STICKY))
+                entry.addProperty(STICKY, api.hasAffinity());
+            if (wants(PRIORITY))
+                entry.addProperty(PRIORITY, api.getPriority());
+            if (wants(LOCATION))
+                entry.addProperty(LOCATION, String.valueOf(endpoint.location()));
+            return entry;
+        }
+
+        private boolean wants(String field) {
+            return fields == null || fields.contains(field);
+        }
+
+        private static String first(Map<String, List<String>> parameters, String name) {
+            final List<String> values = parameters.get(name);
+            return values == null || values.isEmpty() ? null : values.get(0);
+        }
+
+        private static Boolean toBoolean(String value) {
+            return value == null ? null : Boolean.valueOf(value);
+        }
+
+        private static String lower(String value) {
+            return value == null ? null : value.toLowerCase();
+        }
+    }
+}
@@ -0,0 +1,295 @@
+package com.msnos.proxy.filter.admin;
+
+import static io.netty.handler.codec.http.HttpHeaders.Names.CACHE_CONTROL;
+import static io.netty.handler.codec.http.HttpHeaders.Names.CONTENT_LENGTH;
+import static io.netty.handler.codec.http.HttpHeaders.Names.CONTENT_TYPE;
+import static io.netty.handler.codec.http.HttpResponseStatus.OK;
+import static io.netty.handler.codec.http.HttpVersion.HTTP_1_1;
+import io.netty.buffer.Unpooled;
+import io.netty.handler.codec.http.DefaultFullHttpResponse;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.util.CharsetUtil;
+
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.workshare.msnos.core.Agent;
+import com.workshare.msnos.core.Cloud;
+import com.workshare.msnos.core.Message;
+import com.workshare.msnos.usvc.Microcloud;
+import com.workshare.msnos.usvc.api.RestApi;
+import com.workshare.msnos.usvc.api.routing.ApiEndpoint;
+import com.workshare.msnos.usvc.api.routing.ApiList;
+
+/**
+ * The changes of the cloud topology as a stream of server-sent events: apis
+ * announced or withdrawn, endpoints turning faulty or recovering, agents
+ * joining, leaving or moving to another ring. A cloud message that may
+ * change the topology only marks it stale, and the next request for the
+ * stream reads it again and diffs it against the last known one, so the
+ * cloud listener never pays for it and a burst of messages costs a single
+ * diff. As faults change without a message, a topology older than the
+ * admin cache ttl is read again as well. The deltas are kept in a bounded
+ * journal, numbered by the id of the event.
+ *
+ * The proxy closes the connection after answering an admin request, so the
+ * stream is resumed rather than held open: each response carries the events
+ * after the Last-Event-ID sent by the client, and a retry hint that tells
+ * the EventSource when to reconnect for the next ones. A client with no id,
+ * or one so far behind that its events left the journal, gets a snapshot of
+ * the whole topology instead, so a slow consumer costs one coalesced
+ * snapshot and never an unbounded backlog.
+ */
+public class TopologyStream {
+
+    public static final int JOURNAL_SIZE = Integer.getInteger("com.msnos.proxy.admin.stream.journal", 1024);
+    public static final long RETRY_MILLIS = Long.getLong("com.msnos.proxy.admin.stream.retry", 2000L);
+
+    public static final String LAST_EVENT_ID = "Last-Event-ID";
+
+    static final String SNAPSHOT = "snapshot";
+    static final String API_ANNOUNCED = "api-announced";
+    static final String API_WITHDRAWN = "api-withdrawn";
+    static final String ENDPOINT_FAULTY = "endpoint-faulty";
+    static final String ENDPOINT_RECOVERED = "endpoint-recovered";
+    static final String AGENT_JOINED = "agent-joined";
+    static final String AGENT_LEFT = "agent-left";
+    static final String RING_CHANGED = "ring-changed";
+
+    private final Microcloud microcloud;
+    private final int journalSize;
+    private final long ttlMillis;
+    private final Deque<Event> journal = new ArrayDeque<Event>();
+    private final AtomicLong version = new AtomicLong();
+
+    private Topology current = new Topology();
+    private long sequence;
+    private long refreshedVersion = -1;
+    private long refreshed;
+
+    public TopologyStream(Microcloud microcloud) {
+        this(microcloud, JOURNAL_SIZE, AdminViews.TTL_MILLIS);
+    }
+
+    TopologyStream(Microcloud microcloud, int journalSize, long ttlMillis) {
+        this.microcloud = microcloud;
+        this.journalSize = journalSize;
+        this.ttlMillis = ttlMillis;
+    }
+
+    public void listen() {
+        microcloud.addListener(new Cloud.Listener() {
+            @Override
+            public void onMessage(Message message) {
+                if (AdminViews.TOPOLOGY.contains(message.getType()))
+                    invalidate();
+            }
+        });
+    }
+
+    public void invalidate() {
+        version.incrementAndGet();
+    }
+
+    /**
+     * Diffs the topology against the last known one and appends the deltas
+     * to the journal.
+     */
+    public synchronized void refresh() {
+        refreshedVersion = version.get();
+        refreshed = now();
+        final Topology next = read();
+        diff(current, next);
+        current = next;
+    }
+
+    DefaultFullHttpResponse respond(HttpRequest request) {
+        refreshIfStale();
+
+        final StringBuilder sb = new StringBuilder();
+        sb.append("retry: ").append(RETRY_MILLIS).append('\n');
+        events(lastEventId(request), sb);
+
+        final DefaultFullHttpResponse response = new DefaultFullHttpResponse(HTTP_1_1, OK, Unpooled.copiedBuffer(sb, CharsetUtil.UTF_8));
+        response.headers().set(CONTENT_TYPE, "text/event-stream; charset=UTF-8");
+        response.headers().set(CONTENT_LENGTH, response.content().readableBytes());
+        response.headers().set(CACHE_CONTROL, "no-cache");
+        return response;
+    }
+
+    private synchronized void refreshIfStale() {
+        if (refreshedVersion != version.get() || now() - refreshed > ttlMillis)
+            refresh();
+    }
+
+    private synchronized void events(long last, StringBuilder sb) {
+        final Event oldest = journal.peekFirst();
+        final boolean missed = oldest == null ? last != sequence : last < oldest.id - 1;
+        if (last < 0 || last > sequence || missed) {
+            write(sb, new Event(sequence, SNAPSHOT, current.toJson()));
+            return;
+        }
+
+        boolean any = false;
+        for (Event event : journal) {
+            if (event.id > last) {
+                write(sb, event);
+                any = true;
+            }
+        }
+
+        if (!any)
+            sb.append(": no changes\n\n");
+    }
+
+    protected Topology read() {
+        final Topology topology = new Topology();
+        final Map<String, ApiList> apis = microcloud.getApis().getRemoteApis();
+        for (Map.Entry<String, ApiList> entry : apis.entrySet()) {
+            for (ApiEndpoint endpoint : entry.getValue().getEndpoints()) {
+                final RestApi api = endpoint.api();
+                topology.endpoint(entry.getKey(), api.getUrl(), endpoint.service().getName(), api.isFaulty());
+            }
+        }
+
+        final Cloud cloud = microcloud.getCloud();
+        agents(topology, cloud.getRemoteAgents());
+        agents(topology, cloud.getLocalAgents());
+        return topology;
+    }
+
+    protected long now() {
+        return System.currentTimeMillis();
+    }
+
+    private static void agents(Topology topology, Collection<? extends Agent> agents) {
+        for (Agent agent : agents) {
+            topology.agent(agent.getIden().getUUID().toString(), agent.getRing().uuid().toString());
+        }
+    }
+
+    private void diff(Topology before, Topology after) {
+        for (Map.Entry<String, JsonObject> entry : after.endpoints.entrySet()) {
+            final JsonObject old = before.endpoints.get(entry.getKey());
+            final JsonObject now = entry.getValue();
+            if (old == null)
+                append(API_ANNOUNCED, now);
+            else if (faulty(old) != faulty(now))
+                append(faulty(now) ? ENDPOINT_FAULTY : ENDPOINT_RECOVERED, now);
+        }
+        for (Map.Entry<String, JsonObject> entry : before.endpoints.entrySet()) {
+            if (!after.endpoints.containsKey(entry.getKey()))
+                append(API_WITHDRAWN, entry.getValue());
+        }
+
+        for (Map.Entry<String, String> entry : after.agents.entrySet()) {
+            final String ring = before.agents.get(entry.getKey());
+            if (ring == null) {
+                append(AGENT_JOINED, agent(entry.getKey(), entry.getValue()));
+            } else if (!ring.equals(entry.getValue())) {
+                final JsonObject data = agent(entry.getKey(), entry.getValue());
+                data.addProperty("previous", ring);
+                append(RING_CHANGED, data);
+            }
+        }
+        for (Map.Entry<String, String> entry : before.agents.entrySet()) {
+            if (!after.agents.containsKey(entry.getKey()))
+                append(AGENT_LEFT, agent(entry.getKey(), entry.getValue()));
+        }
+    }
+
+    private void append(String name, JsonObject data) {
+        journal.addLast(new Event(++sequence, name, data));
+        while (journal.size() > journalSize) {
+            journal.removeFirst();
+        }
+    }
+
+    private static boolean faulty(JsonObject endpoint) {
+        return endpoint.get("faulty").getAsBoolean();
+    }
+
+    private static JsonObject agent(String uuid, String ring) {
+        final JsonObject json = new JsonObject();
+        json.addProperty("agent", uuid);
+        json.addProperty("ring", ring);
+        return json;
+    }
+
+    private static long lastEventId(HttpRequest request) {
+        final String value = request.headers().get(LAST_EVENT_ID);
+        if (value == null)
+            return -1;
+
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static void write(StringBuilder sb, Event event) {
+        sb.append("id: ").append(event.id).append('\n');
+        sb.append("event: ").append(event.name).append('\n');
+        sb.append("data: ").append(event.data).append("\n\n");
+    }
+
+    private static class Event {
+        final long id;
+        final String name;
+        final JsonObject data;
+
+        Event(long id, String name, JsonObject data) {
+            this.id = id;
+            this.name = name;
+            this.data = data;
+        }
+    }
+
+    /**
+     * The endpoints of every remote api, by path and url, and the ring of
+     * every agent, by uuid.
+     */
+    static class Topology {
+        private final Map<String, JsonObject> endpoints = new HashMap<String, JsonObject>();
+        private final Map<String, String> agents = new HashMap<String, String>();
+
+        Topology endpoint(String path, String url, String service, boolean faulty) {
+            final JsonObject json = new JsonObject();
+            json.addProperty("path", path);
+            json.addProperty("url", url);
+            json.addProperty("service", service);
+            json.addProperty("faulty", faulty);
+            endpoints.put(path + " " + url, json);
+            return this;
+        }
+
+        Topology agent(String uuid, String ring) {
+            agents.put(uuid, ring);
+            return this;
+        }
+
+        JsonObject toJson() {
+            final JsonArray apis = new JsonArray();
+            for (JsonObject endpoint : endpoints.values()) {
+                apis.add(endpoint);
+            }
+
+            final JsonArray all = new JsonArray();
+            for (Map.Entry<String, String> entry : agents.entrySet()) {
+                all.add(TopologyStream.agent(entry.getKey(), entry.getValue()));
+            }
+
+            final JsonObject json = new JsonObject();
+            json.add("apis", apis);
+            json.add("agents", all);
+            return json;
+        }
+    }
+}
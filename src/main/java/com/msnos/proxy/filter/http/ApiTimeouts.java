@@ -0,0 +1,50 @@
+package com.msnos.proxy.filter.http;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.workshare.msnos.usvc.api.RestApi;
+
+/**
+ * Request timeouts of the proxied apis, either configured for a path or
+ * derived from a high percentile of the response times of each endpoint.
+ * The response times are the ones kept by the outlier detector, which
+ * records them whether or not ejection is enabled, as of its last periodic
+ * evaluation; requests that timed out add no sample, so a slow spell cannot
+ * keep raising its own timeout.
+ */
+public class ApiTimeouts {
+
+    public static final int ADAPTIVE_PERCENTILE = Integer.getInteger("com.msnos.proxy.timeout.adaptive.percentile", 99);
+    public static final int ADAPTIVE_MULTIPLIER = Integer.getInteger("com.msnos.proxy.timeout.adaptive.multiplier", 4);
+    public static final long ADAPTIVE_MIN_MILLIS = Long.getLong("com.msnos.proxy.timeout.adaptive.min", 250L);
+
+    public static final ApiTimeouts NONE = new ApiTimeouts(Collections.<String, Long>emptyMap(), false, 0);
+
+    private final Map<String, Long> configured;
+    private final boolean adaptive;
+    private final long maxMillis;
+
+    public ApiTimeouts(Map<String, Long> configured, boolean adaptive, long maxMillis) {
+        this.configured = new HashMap<String, Long>(configured);
+        this.adaptive = adaptive;
+        this.maxMillis = maxMillis;
+    }
+
+    long of(RestApi api, OutlierDetector stats) {
+        final Long millis = configured.get(api.getPath());
+        if (millis != null)
+            return millis;
+
+        if (!adaptive)
+            return 0;
+
+        final long percentile = stats.percentile(api, ADAPTIVE_PERCENTILE);
+        if (percentile < 0)
+            return 0;
+
+        final long timeout = Math.max(ADAPTIVE_MIN_MILLIS, percentile * ADAPTIVE_MULTIPLIER);
+        return maxMillis > 0 ? Math.min(maxMillis, timeout) : timeout;
+    }
+}
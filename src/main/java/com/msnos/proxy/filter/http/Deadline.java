@@ -0,0 +1,54 @@
+package com.msnos.proxy.filter.http;
+
+import io.netty.handler.codec.http.HttpRequest;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The time by which the client expects an answer, received either as an
+ * absolute time in epoch milliseconds or as a budget in milliseconds, and
+ * always forwarded upstream as the remaining budget.
+ */
+public class Deadline {
+
+    private static final Logger log = LoggerFactory.getLogger(Deadline.class);
+
+    public static final String ABSOLUTE_HEADER = "x-msnos-deadline";
+    public static final String RELATIVE_HEADER = "x-msnos-timeout";
+
+    private final long expiresAt;
+
+    Deadline(long expiresAt) {
+        this.expiresAt = expiresAt;
+    }
+
+    static Deadline from(HttpRequest request, long received) {
+        try {
+            final String relative = request.headers().get(RELATIVE_HEADER);
+            if (relative != null)
+                return new Deadline(received + Long.parseLong(relative.trim()));
+
+            final String absolute = request.headers().get(ABSOLUTE_HEADER);
+            if (absolute != null)
+                return new Deadline(Long.parseLong(absolute.trim()));
+        } catch (NumberFormatException e) {
+            log.debug("Ignoring invalid deadline on request {}", request.getUri());
+        }
+
+        return null;
+    }
+
+    long remainingMillis() {
+        return expiresAt - System.currentTimeMillis();
+    }
+
+    boolean isExpired() {
+        return remainingMillis() <= 0;
+    }
+
+    void forward(HttpRequest request) {
+        request.headers().remove(ABSOLUTE_HEADER);
+        request.headers().set(RELATIVE_HEADER, Math.max(0, remainingMillis()));
+    }
+}
@@ -0,0 +1,68 @@
+package com.msnos.proxy.filter.http;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.workshare.msnos.usvc.api.RestApi;
+
+/**
+ * Decides which requests are hedged and when. Hedging is opt-in per path,
+ * after a fixed delay or, when the delay is zero, after a high percentile of
+ * the response times of the endpoint; the number of hedges is kept within a
+ * percentage of the proxied requests by a global budget.
+ */
+public class HedgePolicy {
+
+    public static final int DYNAMIC_PERCENTILE = Integer.getInteger("com.msnos.proxy.hedge.percentile", 95);
+    public static final int MAX_BURST = Integer.getInteger("com.msnos.proxy.hedge.burst", 10);
+
+    public static final HedgePolicy NONE = new HedgePolicy(Collections.<String, Long>emptyMap(), 0);
+
+    private static final long TOKEN = 1000L;
+
+    private final Map<String, Long> paths;
+    private final long earnedPerRequest;
+    private final AtomicLong tokens = new AtomicLong();
+
+    public HedgePolicy(Map<String, Long> paths, int budgetPercent) {
+        this.paths = new HashMap<String, Long>(paths);
+        this.earnedPerRequest = TOKEN * budgetPercent / 100;
+    }
+
+    void onRequest() {
+        if (paths.isEmpty() || earnedPerRequest == 0)
+            return;
+
+        final long max = MAX_BURST * TOKEN;
+        long current;
+        do {
+            current = tokens.get();
+            if (current >= max)
+                return;
+        } while (!tokens.compareAndSet(current, Math.min(max, current + earnedPerRequest)));
+    }
+
+    boolean acquire() {
+        long current;
+        do {
+            current = tokens.get();
+            if (current < TOKEN)
+                return false;
+        } while (!tokens.compareAndSet(current, current - TOKEN));
+        return true;
+    }
+
+    long delayOf(RestApi api, OutlierDetector stats) {
+        final Long delay = paths.get(api.getPath());
+        if (delay == null)
+            return 0;
+
+        if (delay > 0)
+            return delay;
+
+        final long percentile = stats.percentile(api, DYNAMIC_PERCENTILE);
+        return percentile < 0 ? 0 : Math.max(1, percentile);
+    }
+}
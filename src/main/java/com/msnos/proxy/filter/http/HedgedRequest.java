@@ -0,0 +1,174 @@
+package com.msnos.proxy.filter.http;
+
+import static io.netty.handler.codec.http.HttpHeaders.Names.CONNECTION;
+import static io.netty.handler.codec.http.HttpHeaders.Names.HOST;
+import static io.netty.handler.codec.http.HttpHeaders.Values.CLOSE;
+import static io.netty.handler.codec.http.HttpVersion.HTTP_1_1;
+import io.netty.bootstrap.Bootstrap;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoop;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.handler.codec.http.DefaultFullHttpRequest;
+import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpClientCodec;
+import io.netty.handler.codec.http.HttpHeaders;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpObjectAggregator;
+import io.netty.handler.codec.http.HttpRequest;
+
+import java.net.URI;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.msnos.proxy.metrics.RuntimeStats;
+import com.msnos.proxy.trace.TraceContext;
+import com.workshare.msnos.usvc.api.RestApi;
+
+/**
+ * A copy of a GET sent to an alternative endpoint, outside of the proxy
+ * pipeline, on the event loop of the client connection. Hedges are sent in
+ * plain http only, so endpoints served over https are never hedged to.
+ */
+class HedgedRequest {
+
+    private static final Logger log = LoggerFactory.getLogger(HedgedRequest.class);
+
+    public static final int MAX_CONTENT_BYTES = Integer.getInteger("com.msnos.proxy.hedge.content.max", 1024*1024);
+    public static final int CONNECT_TIMEOUT_MILLIS = Integer.getInteger("com.msnos.proxy.hedge.connect", 1000);
+
+    private static final Set<String> HOP_BY_HOP = new HashSet<String>(Arrays.asList(
+            "connection", "keep-alive", "te", "trailer", "transfer-encoding", "upgrade"));
+
+    public interface Listener {
+        void onResponse(RestApi api, FullHttpResponse response, long latencyMillis);
+    }
+
+    private final RestApi api;
+    private final HttpRequest original;
+    private final Deadline deadline;
+    private final String traceparent;
+    private final long started;
+
+    private volatile Channel channel;
+    private volatile boolean cancelled;
+
+    HedgedRequest(RestApi api, HttpRequest original, Deadline deadline, String traceparent) {
+        this.api = api;
+        this.original = original;
+        this.deadline = deadline;
+        this.traceparent = traceparent;
+        this.started = System.nanoTime();
+    }
+
+    void send(EventLoop loop, final Listener listener) {
+        final URI uri = URI.create(api.getUrl());
+        final int port = port(uri);
+        final FullHttpRequest request = createRequest(uri, port);
+
+        final Bootstrap bootstrap = new Bootstrap()
+                .group(loop)
+                .channel(NioSocketChannel.class)
+                .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, CONNECT_TIMEOUT_MILLIS)
+                .handler(new ChannelInitializer<SocketChannel>() {
+                    @Override
+                    protected void initChannel(SocketChannel channel) throws Exception {
+                        channel.pipeline().addLast(new HttpClientCodec());
+                        channel.pipeline().addLast(new HttpObjectAggregator(MAX_CONTENT_BYTES));
+                        channel.pipeline().addLast(new SimpleChannelInboundHandler<FullHttpResponse>() {
+                            @Override
+                            protected void channelRead0(ChannelHandlerContext ctx, FullHttpResponse response) throws Exception {
+                                ctx.close();
+                                if (!cancelled)
+                                    listener.onResponse(api, response.retain(), (System.nanoTime() - started) / 1000000L);
+                            }
+
+                            @Override
+                            public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) throws Exception {
+                                log.debug("Hedged request to {} failed: {}", api.getUrl(), cause.getMessage());
+                                ctx.close();
+                            }
+                        });
+                    }
+                });
+
+        final ChannelFuture connect = bootstrap.connect(uri.getHost(), port);
+        channel = connect.channel();
+        connect.addListener(new ChannelFutureListener() {
+            @Override
+            public void operationComplete(ChannelFuture future) throws Exception {
+                if (!future.isSuccess()) {
+                    log.debug("Unable to connect hedged request to {}", api.getUrl());
+                    request.release();
+                } else if (cancelled) {
+                    request.release();
+                    future.channel().close();
+                } else {
+                    RuntimeStats.DEFAULT.hedge(future.channel());
+                    future.channel().writeAndFlush(request);
+                }
+            }
+        });
+    }
+
+    void cancel() {
+        cancelled = true;
+        final Channel current = channel;
+        if (current != null)
+            current.close();
+    }
+
+    FullHttpRequest createRequest(URI uri, int port) {
+        final String target = uri.getRawQuery() == null ? uri.getRawPath() : uri.getRawPath() + "?" + uri.getRawQuery();
+        final FullHttpRequest request = new DefaultFullHttpRequest(HTTP_1_1, HttpMethod.GET, target);
+        copyEndToEnd(original.headers(), request.headers());
+        request.headers().set(HOST, uri.getHost() + ":" + port);
+        request.headers().set(HttpRouter.API_ID_HEADER, api.getId());
+        if (traceparent != null)
+            request.headers().set(TraceContext.TRACEPARENT, traceparent);
+        if (deadline != null)
+            deadline.forward(request);
+        request.headers().set(CONNECTION, CLOSE);
+        return request;
+    }
+
+    static boolean isPlainHttp(String url) {
+        return url != null && url.regionMatches(true, 0, "http:", 0, 5);
+    }
+
+    static int port(URI uri) {
+        if (uri.getPort() >= 0)
+            return uri.getPort();
+        return "https".equalsIgnoreCase(uri.getScheme()) ? 443 : 80;
+    }
+
+    // hop-by-hop headers belong to the client connection (RFC 7230, 6.1)
+    // and are left behind, together with the ones it names in Connection
+    private static void copyEndToEnd(HttpHeaders from, HttpHeaders to) {
+        final Set<String> hopByHop = new HashSet<String>(HOP_BY_HOP);
+        for (String connection : from.getAll(CONNECTION)) {
+            for (String name : connection.split(",")) {
+                hopByHop.add(name.trim().toLowerCase(Locale.ENGLISH));
+            }
+        }
+
+        for (Map.Entry<String, String> header : from) {
+            final String name = header.getKey().toLowerCase(Locale.ENGLISH);
+            if (!hopByHop.contains(name) && !name.startsWith("proxy-"))
+                to.add(header.getKey(), header.getValue());
+        }
+    }
+}
@@ -1,25 +1,69 @@
 package com.msnos.proxy.filter.http;
 
+import static io.netty.handler.codec.http.HttpHeaders.Names.CONNECTION;
+import static io.netty.handler.codec.http.HttpHeaders.Values.CLOSE;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
 import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpContent;
 import io.netty.handler.codec.http.HttpObject;
 import io.netty.handler.codec.http.HttpRequest;
 import io.netty.handler.codec.http.HttpResponse;
+import io.netty.handler.codec.http.LastHttpContent;
+
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.littleshoot.proxy.HttpFiltersAdapter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.msnos.proxy.jfr.ProxyEvents;
+import com.msnos.proxy.jfr.RequestEvent;
+import com.msnos.proxy.log.AccessLog;
+import com.msnos.proxy.log.TrafficCapture;
+import com.msnos.proxy.metrics.Metrics;
+import com.msnos.proxy.metrics.RuntimeStats;
+import com.msnos.proxy.trace.Tracer;
 import com.workshare.msnos.usvc.Microservice;
+import com.workshare.msnos.usvc.api.RestApi;
 
 public class HttpProxyFilter extends HttpFiltersAdapter {
 
     private static final Logger log = LoggerFactory.getLogger(HttpProxyFilter.class);
+    private static final AccessLog ACCESS_LOG = AccessLog.DEFAULT;
+    private static final RuntimeStats RUNTIME = RuntimeStats.DEFAULT;
+    private static final TrafficCapture CAPTURE = TrafficCapture.DEFAULT;
 
     private final HttpRouter router;
+    private final ChannelHandlerContext context;
+    private final AtomicBoolean answered = new AtomicBoolean();
+    private final AtomicBoolean upstreamBusy = new AtomicBoolean();
+    private final PhaseTimings timings = new PhaseTimings(Metrics.DEFAULT);
+    private final RequestTrace trace = new RequestTrace(Tracer.DEFAULT);
+
+    private ScheduledFuture<?> timeout;
+    private ScheduledFuture<?> hedgeTimer;
+    private volatile HedgedRequest hedge;
+    private RequestEvent event;
+    private ChannelFutureListener clientClosed;
+    private TrafficCapture.Request capture;
+    private long bytesIn;
+    private long bytesOut;
+    private int status;
+    private int clientStatus;
+    private boolean late;
 
     public HttpProxyFilter(HttpRequest originalRequest, ChannelHandlerContext context, Microservice microservice) {
+        this(originalRequest, context, microservice, ApiTimeouts.NONE, HedgePolicy.NONE);
+    }
+
+    public HttpProxyFilter(HttpRequest originalRequest, ChannelHandlerContext context, Microservice microservice, ApiTimeouts timeouts, HedgePolicy hedges) {
         super(originalRequest);
-        router = new HttpRouter(originalRequest, context, microservice);
+        this.context = context;
+        this.router = new HttpRouter(originalRequest, context, microservice, timeouts, hedges);
     }
 
     @Override
@@ -29,7 +73,20 @@ public class HttpProxyFilter extends HttpFiltersAdapter {
         HttpResponse response = null;
         if (httpObject instanceof HttpRequest) {
             HttpRequest request = (HttpRequest) httpObject;
+            timings.received();
+            trace.received(request);
+            event = ProxyEvents.request();
+            if (CAPTURE != null)
+                capture = CAPTURE.start(request);
             response = router.computeApiRoute(request);
+            if (response == null)
+                timings.routed();
+            else
+                finished(response.getStatus().code());
+        } else if (httpObject instanceof HttpContent) {
+            bytesIn += ((HttpContent) httpObject).content().readableBytes();
+            if (capture != null)
+                capture.content(((HttpContent) httpObject).content());
         }
         return response != null ? response : super.requestPre(httpObject);
     }
@@ -37,6 +94,22 @@ public class HttpProxyFilter extends HttpFiltersAdapter {
     @Override
     public HttpResponse requestPost(HttpObject httpObject) {
         if (log.isDebugEnabled()) log.debug("http: {}", httpObject);
+
+        if (httpObject instanceof HttpRequest) {
+            HttpRequest request = (HttpRequest) httpObject;
+            HttpResponse response = router.forwardDeadline(request);
+            if (response != null) {
+                answered.set(true);
+                finished(response.getStatus().code());
+                return response;
+            }
+
+            timings.sent();
+            upstreamBusy();
+            trace.upstream(request, router.api());
+            scheduleTimeout();
+            scheduleHedge(request);
+        }
         return super.requestPost(httpObject);
     }
 
@@ -46,8 +119,181 @@ public class HttpProxyFilter extends HttpFiltersAdapter {
 
         if (httpObject instanceof HttpResponse) {
             HttpResponse response = (HttpResponse) httpObject;
-            return router.handleApiResponse(response);
+            if (!answered.compareAndSet(false, true)) {
+                log.debug("Response received after the request was already answered, dropping the connection");
+                late = true;
+                return null;
+            }
+
+            timings.firstByte();
+            cancelTimeout();
+            cancelHedge();
+            status = response.getStatus().code();
+            response = router.handleApiResponse(response);
+            trace.upstreamResponse(status, router.failedOver());
+            if (router.failedOver())
+                trace.failover(router.api(), "status " + status);
+            clientStatus = response.getStatus().code();
+            if (PhaseTimings.SERVER_TIMING)
+                response.headers().add(PhaseTimings.SERVER_TIMING_HEADER, timings.serverTiming());
+
+            httpObject = response;
         }
+
+        if (late)
+            return null;
+
+        if (httpObject instanceof HttpContent)
+            bytesOut += ((HttpContent) httpObject).content().readableBytes();
+
+        if (httpObject instanceof LastHttpContent && status != 0) {
+            timings.completed();
+            completed(router.api(), status, router.failedOver() ? AccessLog.Entry.RETRIED : 0);
+            finished(clientStatus);
+            status = 0;
+        }
+
         return httpObject;
     }
+
+    private void scheduleTimeout() {
+        final long millis = router.requestTimeoutMillis();
+        if (millis <= 0 || context == null)
+            return;
+
+        timeout = context.executor().schedule(new Runnable() {
+            @Override
+            public void run() {
+                if (answered.compareAndSet(false, true)) {
+                    cancelHedge();
+                    HttpResponse response = router.handleTimeout();
+                    completed(router.api(), response.getStatus().code(), AccessLog.Entry.TIMED_OUT);
+                    trace.upstreamTimeout();
+                    if (router.failedOver())
+                        trace.failover(router.api(), "timeout");
+                    finished(response.getStatus().code());
+                    response.headers().set(CONNECTION, CLOSE);
+                    context.channel().writeAndFlush(response).addListener(ChannelFutureListener.CLOSE);
+                }
+            }
+        }, millis, TimeUnit.MILLISECONDS);
+    }
+
+    private void cancelTimeout() {
+        if (timeout != null)
+            timeout.cancel(false);
+    }
+
+    private void scheduleHedge(final HttpRequest request) {
+        final long millis = router.hedgeDelayMillis();
+        if (millis <= 0 || context == null)
+            return;
+
+        hedgeTimer = context.executor().schedule(new Runnable() {
+            @Override
+            public void run() {
+                hedge(request);
+            }
+        }, millis, TimeUnit.MILLISECONDS);
+    }
+
+    private void hedge(HttpRequest request) {
+        if (answered.get())
+            return;
+
+        final RestApi alternative = router.hedgeTarget();
+        if (alternative == null)
+            return;
+
+        hedge = new HedgedRequest(alternative, request, router.deadline(), trace.hedge(alternative));
+        hedge.send(context.channel().eventLoop(), new HedgedRequest.Listener() {
+            @Override
+            public void onResponse(RestApi api, FullHttpResponse response, long latencyMillis) {
+                final int code = response.getStatus().code();
+                final boolean accepted = router.acceptHedgeResponse(api, response, latencyMillis);
+                if (!accepted || !answered.compareAndSet(false, true)) {
+                    trace.hedgeResponse(code, !accepted, false);
+                    response.release();
+                    return;
+                }
+
+                cancelTimeout();
+                trace.hedgeResponse(code, false, true);
+                finished(code);
+                bytesOut = response.content().readableBytes();
+                completed(api, code, AccessLog.Entry.HEDGED);
+                response.headers().set(CONNECTION, CLOSE);
+                context.channel().writeAndFlush(response).addListener(ChannelFutureListener.CLOSE);
+            }
+        });
+    }
+
+    private void finished(int status) {
+        trace.completed(status);
+        if (capture != null) {
+            CAPTURE.completed(capture, status);
+            capture = null;
+        }
+    }
+
+    private void completed(RestApi api, int status, int flags) {
+        upstreamIdle();
+        if (event != null && api != null)
+            event.completed(api.getPath(), api.getUrl(), status, flags);
+
+        logAccess(api, status, flags);
+    }
+
+    // the upstream connection is busy until the response is over, or until
+    // the client goes away and takes it down with its own connection
+    private void upstreamBusy() {
+        if (!upstreamBusy.compareAndSet(false, true))
+            return;
+
+        RUNTIME.upstreamBusy();
+        if (context != null && context.channel() != null) {
+            clientClosed = new ChannelFutureListener() {
+                @Override
+                public void operationComplete(ChannelFuture future) throws Exception {
+                    upstreamIdle();
+                }
+            };
+            context.channel().closeFuture().addListener(clientClosed);
+        }
+    }
+
+    private void upstreamIdle() {
+        if (!upstreamBusy.compareAndSet(true, false))
+            return;
+
+        RUNTIME.upstreamIdle();
+        if (clientClosed != null)
+            context.channel().closeFuture().removeListener(clientClosed);
+    }
+
+    private void logAccess(RestApi api, int status, int flags) {
+        if (ACCESS_LOG == null || api == null)
+            return;
+
+        final AccessLog.Entry entry = ACCESS_LOG.claim();
+        if (entry == null)
+            return;
+
+        entry.api(api.getId(), api.getPath(), api.getUrl())
+            .status(status, flags)
+            .bytes(bytesIn, bytesOut)
+            .phases(timings.routeMicros(), timings.upstreamMicros(), timings.bodyMicros(), timings.totalMicros());
+        ACCESS_LOG.publish(entry);
+    }
+
+    private void cancelHedge() {
+        if (hedgeTimer != null)
+            hedgeTimer.cancel(false);
+
+        final HedgedRequest current = hedge;
+        if (current != null) {
+            current.cancel();
+            trace.hedgeCancelled();
+        }
+    }
 }
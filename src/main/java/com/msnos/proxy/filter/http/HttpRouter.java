@@ -7,22 +7,27 @@ import static io.netty.handler.codec.http.HttpHeaders.Names.LOCATION;
 import static io.netty.handler.codec.http.HttpHeaders.Names.SET_COOKIE;
 import static io.netty.handler.codec.http.HttpResponseStatus.BAD_GATEWAY;
 import static io.netty.handler.codec.http.HttpResponseStatus.FOUND;
+import static io.netty.handler.codec.http.HttpResponseStatus.GATEWAY_TIMEOUT;
 import static io.netty.handler.codec.http.HttpResponseStatus.INTERNAL_SERVER_ERROR;
 import static io.netty.handler.codec.http.HttpResponseStatus.NOT_FOUND;
 import static io.netty.handler.codec.http.HttpVersion.HTTP_1_1;
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.handler.codec.http.Cookie;
 import io.netty.handler.codec.http.CookieDecoder;
 import io.netty.handler.codec.http.DefaultCookie;
 import io.netty.handler.codec.http.DefaultFullHttpResponse;
+import io.netty.handler.codec.http.HttpMethod;
 import io.netty.handler.codec.http.HttpRequest;
 import io.netty.handler.codec.http.HttpResponse;
 import io.netty.handler.codec.http.HttpResponseStatus;
 import io.netty.handler.codec.http.ServerCookieEncoder;
 import io.netty.util.CharsetUtil;
 
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.util.Set;
@@ -33,6 +38,9 @@ import org.slf4j.LoggerFactory;
 
 import com.msnos.proxy.filter.HttpRetry;
 import com.msnos.proxy.filter.Retry;
+import com.msnos.proxy.jfr.ProxyEvents;
+import com.msnos.proxy.metrics.Metrics;
+import com.msnos.proxy.metrics.TopTraffic;
 import com.workshare.msnos.usvc.IMicroservice;
 import com.workshare.msnos.usvc.Microcloud;
 import com.workshare.msnos.usvc.Microservice;
@@ -44,6 +52,7 @@ class HttpRouter {
     private static final Logger log = LoggerFactory.getLogger(HttpRouter.class);
 
     public static final int MAX_FAILURES = Integer.getInteger("com.msnos.proxy.api.failures.max", 4);
+    public static final int MAX_SEARCHES = Integer.getInteger("com.msnos.proxy.api.searches.max", 4);
     public static final boolean USE_REMOTE_ADDRESS = Boolean.getBoolean("com.msnos.proxy.use.remote.address");
 
     public static final String API_ID_HEADER = "x-msnos-api";
@@ -53,17 +62,37 @@ class HttpRouter {
     public static final String[] EMPTY_PATH = new String[]{};
 
     private static final Retry RETRY = new HttpRetry();
+    private static final OutlierDetector OUTLIERS = new OutlierDetector().start();
+    private static final SlowStart SLOW_START = new SlowStart();
+    private static final Metrics METRICS = Metrics.DEFAULT;
+    private static final TopTraffic TOP = TopTraffic.DEFAULT;
 
     private final Microcloud microcloud;
     private final IMicroservice microservice;
+    private final ApiTimeouts timeouts;
+    private final HedgePolicy hedges;
     private final String path;
+    private final String client;
+    private final long received;
 
     private RestApi api;
     private Set<Cookie> cookies;
+    private long started;
+    private boolean idempotent;
+    private Deadline deadline;
+    private boolean failedOver;
 
     public HttpRouter(HttpRequest originalRequest, ChannelHandlerContext context, Microservice aMicroservice) {
+        this(originalRequest, context, aMicroservice, ApiTimeouts.NONE, HedgePolicy.NONE);
+    }
+
+    public HttpRouter(HttpRequest originalRequest, ChannelHandlerContext context, Microservice aMicroservice, ApiTimeouts timeouts, HedgePolicy hedges) {
         this.microcloud = aMicroservice.getCloud();
+        this.timeouts = timeouts;
+        this.hedges = hedges;
         this.path = extractPath(originalRequest);
+        this.client = extractClient(context);
+        this.received = System.currentTimeMillis();
 
         if (USE_REMOTE_ADDRESS)
             this.microservice = new ProxiedMicroservice(aMicroservice, context);
@@ -73,6 +102,7 @@ class HttpRouter {
     
     public HttpResponse computeApiRoute(HttpRequest request) {
 
+        TOP.request(path, client);
         try {
             if (request.headers().get(API_ID_HEADER) != null) {
                 log.debug("A retry was executed against an already seen API - sending it back as 302");
@@ -86,33 +116,51 @@ class HttpRouter {
             } 
             
             if (api == null) {
-                api = microcloud.searchApi(microservice, path);
+                api = searchApi();
             }
 
             if (api != null && api.getType() != Type.PUBLIC) {
                 log.warn("An attempt to call the restricted api {} was done ", api);
+                METRICS.notFound();
                 return createResponse(NOT_FOUND);
             }
             
             if (api == null) {
                 if (microcloud.canServe(path)) {
                     log.info("A suitable rest api for {} is present but it's not working :(", request.getUri());
+                    METRICS.badGateway();
                     return createResponse(BAD_GATEWAY);
                 } else {
                     log.debug("Request search found no suitable rest api for {} ", request.getUri());
+                    METRICS.notFound();
                     return createResponse(NOT_FOUND);
                 }
             }
             
             if (api.isFaulty()) {
-                if (affinity)
+                if (affinity) {
+                    METRICS.badGateway();
                     return createResponse(BAD_GATEWAY);
-                else
+                } else {
+                    METRICS.api(api.getPath()).retry();
+                    ProxyEvents.decision(ProxyEvents.RETRY, api.getPath(), api.getUrl());
                     return createRetryResponse();
+                }
+            }
+
+            deadline = Deadline.from(request, received);
+            if (deadline != null && deadline.isExpired()) {
+                log.debug("Request for {} expired before being routed", request.getUri());
+                METRICS.api(api.getPath()).expired();
+                return createResponse(GATEWAY_TIMEOUT);
             }
 
             request.setUri(api.getUrl());
             request.headers().add(API_ID_HEADER, api.getId());
+            idempotent = HttpMethod.GET.equals(request.getMethod());
+            started = System.nanoTime();
+            hedges.onRequest();
+            TOP.endpoint(api.getUrl());
             return null;
         } catch (Exception ex) {
             log.error("General exception requesting " + request.getUri(), ex);
@@ -125,16 +173,14 @@ class HttpRouter {
         if (api == null)
             return response;
 
-        if (RETRY.isNeeded(response)) {
-            markApiFaultyStatus();
+        final long micros = elapsedMicros();
+        final boolean failed = RETRY.isNeeded(response);
+        OUTLIERS.record(api, micros / 1000L, failed);
+        METRICS.api(api.getPath()).response(response.getStatus().code(), micros);
+        METRICS.endpoint(api.getUrl(), micros);
 
-            if (microcloud.searchApi(microservice,path) == null) {
-                response = noWorkingRestApiResponse();
-            } else {
-                response = createRetryResponse();
-                DefaultCookie cookie = createDeleteCookie(api);
-                setCookieOnResponse(response, cookie);
-            }
+        if (failed) {
+            response = failover();
         } else {
             if (api.hasAffinity()) {
                 DefaultCookie cookie = createCookie(api);
@@ -147,14 +193,153 @@ class HttpRouter {
         return response;
     }
 
+    public HttpResponse forwardDeadline(HttpRequest request) {
+        if (api == null || deadline == null)
+            return null;
+
+        if (deadline.isExpired()) {
+            log.debug("Request for {} expired before being sent upstream", api.getUrl());
+            METRICS.api(api.getPath()).expired();
+            return createResponse(GATEWAY_TIMEOUT);
+        }
+
+        deadline.forward(request);
+        return null;
+    }
+
+    public long requestTimeoutMillis() {
+        if (api == null)
+            return 0;
+
+        final long timeout = timeouts.of(api, OUTLIERS);
+        if (deadline == null)
+            return timeout;
+
+        final long remaining = Math.max(1, deadline.remainingMillis());
+        return timeout <= 0 ? remaining : Math.min(timeout, remaining);
+    }
+
+    public HttpResponse handleTimeout() {
+        if (deadline != null && deadline.isExpired()) {
+            log.debug("Request to {} reached its deadline after {}ms", api.getUrl(), elapsedMillis());
+            METRICS.api(api.getPath()).expired();
+            return createResponse(GATEWAY_TIMEOUT);
+        }
+
+        log.info("Request to {} timed out after {}ms", api.getUrl(), elapsedMillis());
+        OUTLIERS.failed(api);
+        METRICS.api(api.getPath()).timeout();
+        if (idempotent)
+            return failover();
+
+        // the request may have been applied upstream already: never ask to send it again
+        markApiFaultyStatus();
+        return createResponse(GATEWAY_TIMEOUT);
+    }
+
+    public long hedgeDelayMillis() {
+        if (api == null || !idempotent || api.hasAffinity())
+            return 0;
+
+        return hedges.delayOf(api, OUTLIERS);
+    }
+
+    public RestApi hedgeTarget() {
+        for (int i = 0; i < MAX_SEARCHES; i++) {
+            final RestApi candidate = microcloud.searchApi(microservice, path);
+            if (candidate == null)
+                return null;
+
+            if (candidate.getId() != api.getId() && !candidate.isFaulty() && candidate.getType() == Type.PUBLIC && HedgedRequest.isPlainHttp(candidate.getUrl()) && isSelectable(candidate)) {
+                if (!hedges.acquire()) {
+                    log.debug("Hedge budget exhausted, not hedging request to {}", api.getUrl());
+                    return null;
+                }
+
+                log.debug("Hedging request to {} with {}", api.getUrl(), candidate.getUrl());
+                METRICS.api(api.getPath()).hedge();
+                return candidate;
+            }
+        }
+
+        return null;
+    }
+
+    public boolean acceptHedgeResponse(RestApi hedged, HttpResponse response, long latencyMillis) {
+        final boolean failed = RETRY.isNeeded(response);
+        OUTLIERS.record(hedged, latencyMillis, failed);
+        METRICS.endpoint(hedged.getUrl(), latencyMillis * 1000L);
+        return !failed;
+    }
+
+    public RestApi api() {
+        return api;
+    }
+
+    public Deadline deadline() {
+        return deadline;
+    }
+
+    public boolean failedOver() {
+        return failedOver;
+    }
+
+    private HttpResponse failover() {
+        failedOver = true;
+        markApiFaultyStatus();
+
+        if (microcloud.searchApi(microservice,path) == null) {
+            return noWorkingRestApiResponse();
+        } else {
+            METRICS.api(api.getPath()).retry();
+            ProxyEvents.decision(ProxyEvents.RETRY, api.getPath(), api.getUrl());
+            HttpResponse response = createRetryResponse();
+            DefaultCookie cookie = createDeleteCookie(api);
+            setCookieOnResponse(response, cookie);
+            return response;
+        }
+    }
+
     private void markApiFaultyStatus() {
         if (api.getTempFaults() < MAX_FAILURES) {
             api.markTempFault();
+            METRICS.api(api.getPath()).tempFault();
+            ProxyEvents.decision(ProxyEvents.TEMP_FAULT, api.getPath(), api.getUrl());
         } else {
             api.markFaulty();
+            SLOW_START.faulty(api);
+            METRICS.api(api.getPath()).faulty();
+            ProxyEvents.decision(ProxyEvents.FAULTY, api.getPath(), api.getUrl());
         }
     }
 
+    private RestApi searchApi() {
+        final RestApi first = microcloud.searchApi(microservice, path);
+
+        RestApi candidate = first;
+        for (int i = 0; candidate != null && i < MAX_SEARCHES; i++) {
+            if (isSelectable(candidate))
+                return candidate;
+
+            candidate = microcloud.searchApi(microservice, path);
+        }
+
+        log.debug("No selectable endpoint found for {}, using {} anyway", path, first);
+        return first;
+    }
+
+    private boolean isSelectable(RestApi candidate) {
+        return !OUTLIERS.isEjected(candidate) && SLOW_START.admits(candidate);
+    }
+
+    private long elapsedMillis() {
+        return elapsedMicros() / 1000L;
+    }
+
+    private long elapsedMicros() {
+        return (System.nanoTime() - started) / 1000L;
+    }
+
     private RestApi findApiWithCookie(HttpRequest httpRequest, Set<Cookie> cookies) throws Exception {
         RestApi result = null;
         for (Cookie cookie : cookies) {
@@ -211,6 +396,15 @@ class HttpRouter {
         }
     }
 
+    private String extractClient(ChannelHandlerContext context) {
+        final Channel channel = context == null ? null : context.channel();
+        final SocketAddress address = channel == null ? null : channel.remoteAddress();
+        if (address instanceof InetSocketAddress && ((InetSocketAddress) address).getAddress() != null)
+            return ((InetSocketAddress) address).getAddress().getHostAddress();
+        else
+            return null;
+    }
+
     private DefaultFullHttpResponse createResponse(HttpResponseStatus status) {
         final DefaultFullHttpResponse response = new DefaultFullHttpResponse(HTTP_1_1, status);
         response.headers().set(CONTENT_LENGTH, "0");
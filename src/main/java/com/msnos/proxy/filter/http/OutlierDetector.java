@@ -0,0 +1,314 @@
+package com.msnos.proxy.filter.http;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.workshare.msnos.usvc.api.RestApi;
+
+/**
+ * Passive outlier detection: every endpoint serving a path is periodically
+ * compared with its peers, and the ones that are much slower or fail much
+ * more often are ejected from the selection for an exponentially growing
+ * interval. Requests are recorded without locking, the comparison runs on
+ * its own timer, and paths whose endpoints have all gone idle are dropped.
+ * <p>
+ * The response times are also what adaptive timeouts and hedging read, so
+ * they are recorded even when detection is disabled, only ejection is off.
+ * Their percentiles are those of the last evaluation: the samples are sorted
+ * once per interval on the timer, never on the request path.
+ */
+class OutlierDetector {
+
+    private static final Logger log = LoggerFactory.getLogger(OutlierDetector.class);
+
+    public static final boolean ENABLED = !Boolean.getBoolean("com.msnos.proxy.outliers.disable");
+    public static final long INTERVAL_MILLIS = Long.getLong("com.msnos.proxy.outliers.interval", 10000L);
+    public static final int PERCENTILE = Integer.getInteger("com.msnos.proxy.outliers.percentile", 90);
+    public static final int MIN_REQUESTS = Integer.getInteger("com.msnos.proxy.outliers.requests.min", 20);
+    public static final int MIN_PEERS = Integer.getInteger("com.msnos.proxy.outliers.peers.min", 3);
+    public static final int LATENCY_FACTOR = Integer.getInteger("com.msnos.proxy.outliers.latency.factor", 5);
+    public static final long LATENCY_MIN_MILLIS = Long.getLong("com.msnos.proxy.outliers.latency.min", 100L);
+    public static final int ERROR_RATE_DELTA = Integer.getInteger("com.msnos.proxy.outliers.errors.delta", 30);
+    public static final long EJECTION_MILLIS = Long.getLong("com.msnos.proxy.outliers.ejection.base", 30000L);
+    public static final long EJECTION_MAX_MILLIS = Long.getLong("com.msnos.proxy.outliers.ejection.max", 300000L);
+    public static final int EJECTION_MAX_PERCENT = Integer.getInteger("com.msnos.proxy.outliers.ejection.percent", 30);
+
+    static final int SAMPLES = 64;
+    static final int MIN_SAMPLES = SAMPLES / 4;
+
+    private static final long[] NO_SAMPLES = new long[0];
+
+    private final ConcurrentMap<String, Peers> paths = new ConcurrentHashMap<String, Peers>();
+
+    /**
+     * Starts evaluating the endpoints every interval on a daemon thread.
+     */
+    public OutlierDetector start() {
+        final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                final Thread thread = new Thread(runnable, "outlier-detector");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        timer.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    evaluate();
+                } catch (RuntimeException e) {
+                    log.warn("Unable to evaluate outliers", e);
+                }
+            }
+        }, INTERVAL_MILLIS, INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+        return this;
+    }
+
+    public void record(RestApi api, long latencyMillis, boolean failed) {
+        peers(api.getPath()).endpoint(api).record(latencyMillis, failed, now());
+    }
+
+    /**
+     * Records a failed request whose response time is unknown, as one that
+     * timed out: counted against the error rate, but kept out of the samples
+     * the timeouts are derived from, or every timeout would raise the next.
+     */
+    public void failed(RestApi api) {
+        peers(api.getPath()).endpoint(api).failed(now());
+    }
+
+    public synchronized void evaluate() {
+        final long now = now();
+        final Iterator<Peers> i = paths.values().iterator();
+        while (i.hasNext()) {
+            final Peers peers = i.next();
+            peers.evaluate(now);
+            if (peers.endpoints.isEmpty())
+                i.remove();
+        }
+    }
+
+    int size() {
+        return paths.size();
+    }
+
+    public boolean isEjected(RestApi api) {
+        if (!ENABLED)
+            return false;
+
+        final Peers peers = paths.get(api.getPath());
+        if (peers == null)
+            return false;
+
+        final Endpoint endpoint = peers.endpoints.get(api.getId());
+        return endpoint != null && endpoint.isEjected(now());
+    }
+
+    public long percentile(RestApi api, int percentile) {
+        final Peers peers = paths.get(api.getPath());
+        if (peers == null)
+            return -1;
+
+        final Endpoint endpoint = peers.endpoints.get(api.getId());
+        return endpoint == null ? -1 : endpoint.percentile(percentile, MIN_SAMPLES);
+    }
+
+    protected long now() {
+        return System.currentTimeMillis();
+    }
+
+    private Peers peers(String path) {
+        Peers peers = paths.get(path);
+        if (peers == null) {
+            final Peers fresh = new Peers(path);
+            peers = paths.putIfAbsent(path, fresh);
+            if (peers == null)
+                peers = fresh;
+        }
+        return peers;
+    }
+
+    static class Peers {
+        private final String path;
+        private final ConcurrentMap<Long, Endpoint> endpoints = new ConcurrentHashMap<Long, Endpoint>();
+
+        Peers(String path) {
+            this.path = path;
+        }
+
+        Endpoint endpoint(RestApi api) {
+            Endpoint endpoint = endpoints.get(api.getId());
+            if (endpoint == null) {
+                final Endpoint fresh = new Endpoint(api.getUrl());
+                endpoint = endpoints.putIfAbsent(api.getId(), fresh);
+                if (endpoint == null)
+                    endpoint = fresh;
+            }
+            return endpoint;
+        }
+
+        void evaluate(long now) {
+            final List<Endpoint> candidates = new ArrayList<Endpoint>();
+            int ejected = 0;
+            for (Endpoint endpoint : endpoints.values()) {
+                endpoint.snapshot();
+                if (endpoint.isEjected(now))
+                    ejected++;
+                else if (endpoint.windowRequests >= MIN_REQUESTS)
+                    candidates.add(endpoint);
+            }
+
+            final int maxEjected = Math.max(1, endpoints.size() * EJECTION_MAX_PERCENT / 100);
+            if (ENABLED && candidates.size() >= MIN_PEERS) {
+                for (Endpoint endpoint : candidates) {
+                    if (isOutlier(endpoint, candidates)) {
+                        if (ejected < maxEjected) {
+                            endpoint.eject(now);
+                            ejected++;
+                            log.warn("Endpoint {} for {} ejected as outlier (latency {}ms, errors {}%)", new Object[] {endpoint.url, path, endpoint.windowLatency, endpoint.windowErrorRate});
+                        }
+                    } else {
+                        endpoint.forgive();
+                    }
+                }
+            }
+
+            evict(now);
+        }
+
+        private boolean isOutlier(Endpoint endpoint, List<Endpoint> candidates) {
+            final long[] latencies = new long[candidates.size() - 1];
+            final long[] errors = new long[candidates.size() - 1];
+            int i = 0;
+            for (Endpoint peer : candidates) {
+                if (peer != endpoint) {
+                    latencies[i] = peer.windowLatency;
+                    errors[i] = peer.windowErrorRate;
+                    i++;
+                }
+            }
+
+            final long peersLatency = median(latencies);
+            final long peersErrors = median(errors);
+
+            final boolean slow = endpoint.windowLatency > peersLatency * LATENCY_FACTOR && endpoint.windowLatency - peersLatency > LATENCY_MIN_MILLIS;
+            final boolean failing = endpoint.windowErrorRate - peersErrors > ERROR_RATE_DELTA;
+            return slow || failing;
+        }
+
+        private void evict(long now) {
+            final Iterator<Endpoint> i = endpoints.values().iterator();
+            while (i.hasNext()) {
+                Endpoint endpoint = i.next();
+                if (!endpoint.isEjected(now) && now - endpoint.lastSeen > INTERVAL_MILLIS * 10)
+                    i.remove();
+            }
+        }
+
+        private static long median(long[] values) {
+            Arrays.sort(values);
+            return values[values.length / 2];
+        }
+    }
+
+    static class Endpoint {
+        private final String url;
+        private final AtomicLongArray samples = new AtomicLongArray(SAMPLES);
+        private final AtomicLong recorded = new AtomicLong();
+        private final AtomicInteger requests = new AtomicInteger();
+        private final AtomicInteger failures = new AtomicInteger();
+        private volatile long[] sorted = NO_SAMPLES;
+        private volatile long lastSeen;
+        private volatile long ejectedUntil;
+        private volatile long discarded;
+
+        private int ejections;
+        private int windowRequests;
+        private long windowLatency;
+        private long windowErrorRate;
+
+        Endpoint(String url) {
+            this.url = url;
+        }
+
+        void record(long latencyMillis, boolean failed, long now) {
+            samples.set((int) (recorded.getAndIncrement() % SAMPLES), latencyMillis);
+            requests.incrementAndGet();
+            if (failed)
+                failures.incrementAndGet();
+
+            lastSeen = now;
+        }
+
+        void failed(long now) {
+            requests.incrementAndGet();
+            failures.incrementAndGet();
+            lastSeen = now;
+        }
+
+        void snapshot() {
+            final int total = requests.getAndSet(0);
+            final int failed = failures.getAndSet(0);
+            windowRequests = total;
+            windowErrorRate = total == 0 ? 0 : Math.min(100L, failed * 100L / total);
+            sorted = sort();
+            windowLatency = percentile(PERCENTILE, 1);
+        }
+
+        long percentile(int percentile, int minSamples) {
+            final long[] values = sorted;
+            final int count = values.length;
+            if (count == 0 || count < minSamples)
+                return -1;
+
+            final int index = (int) Math.ceil(percentile / 100.0 * count) - 1;
+            return values[Math.max(0, Math.min(count - 1, index))];
+        }
+
+        private long[] sort() {
+            final long end = recorded.get();
+            final int count = (int) Math.min(SAMPLES, end - discarded);
+            if (count <= 0)
+                return NO_SAMPLES;
+
+            final long[] values = new long[count];
+            for (int i = 0; i < count; i++) {
+                values[i] = samples.get((int) ((end - 1 - i) % SAMPLES));
+            }
+            Arrays.sort(values);
+            return values;
+        }
+
+        boolean isEjected(long now) {
+            return ejectedUntil > now;
+        }
+
+        void eject(long now) {
+            final long duration = Math.min(EJECTION_MAX_MILLIS, EJECTION_MILLIS << Math.min(ejections, 20));
+            ejectedUntil = now + duration;
+            ejections++;
+            discarded = recorded.get();
+            sorted = NO_SAMPLES;
+        }
+
+        void forgive() {
+            if (ejections > 0)
+                ejections--;
+        }
+    }
+}
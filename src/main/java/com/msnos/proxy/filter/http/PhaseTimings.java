@@ -0,0 +1,110 @@
+package com.msnos.proxy.filter.http;
+
+import com.msnos.proxy.metrics.Metrics;
+
+/**
+ * Timestamps of a proxied request along the filter lifecycle, recorded in
+ * the per-phase histograms as each phase completes: routing the request,
+ * waiting upstream for the first byte of the response and streaming its
+ * body. LittleProxy opens the upstream connection only after the request
+ * went through the filters, and tells them nothing about it, so the
+ * connection setup is part of the upstream phase.
+ */
+class PhaseTimings {
+
+    public static final boolean SERVER_TIMING = Boolean.getBoolean("com.msnos.proxy.timing.header");
+    public static final String SERVER_TIMING_HEADER = "Server-Timing";
+
+    public static final String ROUTE = "route";
+    public static final String UPSTREAM = "upstream";
+    public static final String BODY = "body";
+    public static final String TOTAL = "total";
+
+    private final Metrics metrics;
+
+    private long received;
+    private long routed;
+    private long sent;
+    private long firstByte;
+    private long completed;
+
+    PhaseTimings(Metrics metrics) {
+        this.metrics = metrics;
+    }
+
+    public void received() {
+        received = now();
+    }
+
+    public void routed() {
+        routed = now();
+        record(ROUTE, received, routed);
+    }
+
+    public void sent() {
+        if (routed == 0)
+            return;
+
+        sent = now();
+    }
+
+    public void firstByte() {
+        if (sent == 0)
+            return;
+
+        firstByte = now();
+        record(UPSTREAM, sent, firstByte);
+    }
+
+    public void completed() {
+        if (firstByte == 0 || completed != 0)
+            return;
+
+        completed = now();
+        record(BODY, firstByte, completed);
+        record(TOTAL, received, completed);
+    }
+
+    public long routeMicros() {
+        return micros(received, routed);
+    }
+
+    public long upstreamMicros() {
+        return micros(sent, firstByte);
+    }
+
+    public long bodyMicros() {
+        return micros(firstByte, completed);
+    }
+
+    public long totalMicros() {
+        return micros(received, completed != 0 ? completed : now());
+    }
+
+    public String serverTiming() {
+        final StringBuilder sb = new StringBuilder();
+        duration(sb, ROUTE, received, routed);
+        duration(sb, UPSTREAM, sent, firstByte);
+        return sb.toString();
+    }
+
+    protected long now() {
+        return System.nanoTime();
+    }
+
+    private static long micros(long from, long to) {
+        return from == 0 || to == 0 ? -1 : (to - from) / 1000L;
+    }
+
+    private void record(String phase, long from, long to) {
+        metrics.phase(phase, (to - from) / 1000L);
+    }
+
+    private static void duration(StringBuilder sb, String phase, long from, long to) {
+        if (sb.length() > 0)
+            sb.append(", ");
+
+        final long micros = (to - from) / 1000L;
+        sb.append(phase).append(";dur=").append(micros / 1000L).append('.').append(String.format("%03d", micros % 1000L));
+    }
+}
@@ -0,0 +1,109 @@
+package com.msnos.proxy.filter.http;
+
+import io.netty.handler.codec.http.HttpRequest;
+
+import com.msnos.proxy.trace.Span;
+import com.msnos.proxy.trace.TraceContext;
+import com.msnos.proxy.trace.Tracer;
+import com.workshare.msnos.usvc.api.RestApi;
+
+/**
+ * The spans of a proxied request: one for the request as received by the
+ * proxy, with a child for the call to the upstream endpoint, whose context
+ * is propagated in the traceparent header, and children for hedges and
+ * failovers.
+ */
+class RequestTrace {
+
+    private final Tracer tracer;
+
+    private volatile Span server;
+    private volatile Span upstream;
+    private volatile Span hedge;
+
+    RequestTrace(Tracer tracer) {
+        this.tracer = tracer;
+    }
+
+    public void received(HttpRequest request) {
+        if (tracer == null)
+            return;
+
+        final String uri = request.getUri();
+        final int query = uri.indexOf('?');
+        server = tracer.server(request.getMethod().name() + " " + (query < 0 ? uri : uri.substring(0, query)), request.headers().get(TraceContext.TRACEPARENT));
+        server.attribute("http.method", request.getMethod().name());
+        server.attribute("http.target", uri);
+    }
+
+    public void upstream(HttpRequest request, RestApi api) {
+        if (server == null || api == null)
+            return;
+
+        server.attribute("msnos.api.path", api.getPath());
+        upstream = server.child("upstream " + api.getPath(), Span.Kind.CLIENT)
+                .attribute("msnos.api.id", api.getId())
+                .attribute("http.url", api.getUrl());
+        request.headers().set(TraceContext.TRACEPARENT, upstream.context().format());
+    }
+
+    public void upstreamResponse(int status, boolean failed) {
+        end(upstream, status, failed);
+    }
+
+    public void upstreamTimeout() {
+        final Span current = upstream;
+        if (current != null)
+            current.attribute("msnos.timeout", true).error().end();
+    }
+
+    public void failover(RestApi api, String reason) {
+        if (server == null || api == null)
+            return;
+
+        server.child("failover " + api.getPath(), Span.Kind.INTERNAL)
+                .attribute("msnos.api.id", api.getId())
+                .attribute("http.url", api.getUrl())
+                .attribute("msnos.reason", reason)
+                .end();
+    }
+
+    public String hedge(RestApi api) {
+        if (server == null)
+            return null;
+
+        hedge = server.child("hedge " + api.getPath(), Span.Kind.CLIENT)
+                .attribute("msnos.api.id", api.getId())
+                .attribute("http.url", api.getUrl());
+        return hedge.context().format();
+    }
+
+    public void hedgeResponse(int status, boolean failed, boolean won) {
+        end(hedge, status, failed);
+        if (won) {
+            final Span current = upstream;
+            if (current != null)
+                current.attribute("msnos.cancelled", true).end();
+        }
+    }
+
+    public void hedgeCancelled() {
+        final Span current = hedge;
+        if (current != null)
+            current.attribute("msnos.cancelled", true).end();
+    }
+
+    public void completed(int status) {
+        end(server, status, status >= 500);
+    }
+
+    private static void end(Span span, int status, boolean failed) {
+        if (span == null)
+            return;
+
+        span.attribute("http.status_code", status);
+        if (failed)
+            span.error();
+        span.end();
+    }
+}
@@ -0,0 +1,156 @@
+package com.msnos.proxy.filter.http;
+
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.workshare.msnos.usvc.api.RestApi;
+
+/**
+ * Ramps up the share of traffic of endpoints that just joined a path already
+ * served by others, or that just came back after the router marked them
+ * faulty, so that they can warm up before receiving their full share.
+ * Endpoints marked faulty by ms-nos itself are never handed to the router
+ * while faulty, so their recovery is not seen here and they come back at
+ * full weight. The ramp of each endpoint is read and updated without locks,
+ * as every routing decision weighs all of its candidates.
+ */
+class SlowStart {
+
+    public enum Mode {LINEAR, EXPONENTIAL}
+
+    public static final long WINDOW_MILLIS = Long.getLong("com.msnos.proxy.slowstart.window", 30000L);
+    public static final int MIN_PERCENT = Integer.getInteger("com.msnos.proxy.slowstart.min", 10);
+    public static final Mode MODE = Mode.valueOf(System.getProperty("com.msnos.proxy.slowstart.mode", "linear").toUpperCase());
+
+    private static final int EVICTION_FACTOR = 10;
+    private static final long FAULTY = Long.MIN_VALUE;
+
+    private final ConcurrentMap<String, Long> paths = new ConcurrentHashMap<String, Long>();
+    private final ConcurrentMap<Long, Endpoint> endpoints = new ConcurrentHashMap<Long, Endpoint>();
+
+    private final long window;
+    private final double min;
+    private final Mode mode;
+
+    public SlowStart() {
+        this(WINDOW_MILLIS, MIN_PERCENT, MODE);
+    }
+
+    SlowStart(long window, int minPercent, Mode mode) {
+        this.window = window;
+        this.min = minPercent / 100.0;
+        this.mode = mode;
+    }
+
+    public boolean admits(RestApi api) {
+        if (window <= 0)
+            return true;
+
+        final double weight = weight(api);
+        return weight >= 1.0 || ThreadLocalRandom.current().nextDouble() < weight;
+    }
+
+    public void faulty(RestApi api) {
+        endpoint(api, now()).since.set(FAULTY);
+    }
+
+    double weight(RestApi api) {
+        final long now = now();
+        final Endpoint endpoint = endpoint(api, now);
+        endpoint.seen(now);
+        if (api.isFaulty()) {
+            if (endpoint.since.get() != FAULTY)
+                endpoint.since.set(FAULTY);
+            return 1.0;
+        }
+
+        long since = endpoint.since.get();
+        if (since == FAULTY && !endpoint.since.compareAndSet(FAULTY, now))
+            since = endpoint.since.get();
+
+        return since == FAULTY ? ramp(0) : ramp(now - since);
+    }
+
+    double ramp(long elapsed) {
+        if (elapsed >= window)
+            return 1.0;
+
+        final double progress = (double) elapsed / window;
+        if (mode == Mode.EXPONENTIAL)
+            return min * Math.pow(1.0 / min, progress);
+        else
+            return min + (1.0 - min) * progress;
+    }
+
+    int size() {
+        return paths.size();
+    }
+
+    protected long now() {
+        return System.currentTimeMillis();
+    }
+
+    private Endpoint endpoint(RestApi api, long now) {
+        Endpoint endpoint = endpoints.get(api.getId());
+        if (endpoint == null) {
+            final Endpoint fresh = new Endpoint(api.getPath(), isEstablished(api.getPath(), now) ? now : now - window, now);
+            endpoint = endpoints.putIfAbsent(api.getId(), fresh);
+            if (endpoint == null) {
+                endpoint = fresh;
+                evict(now);
+            }
+        }
+        return endpoint;
+    }
+
+    private boolean isEstablished(String path, long now) {
+        final Long firstSeen = paths.putIfAbsent(path, now);
+        return firstSeen != null && now - firstSeen >= window;
+    }
+
+    // a path is forgotten with the last of its endpoints, once it is well
+    // past the ramp of the first ones: it would be treated as new otherwise
+    private void evict(long now) {
+        final Set<String> served = new HashSet<String>();
+        final Iterator<Endpoint> i = endpoints.values().iterator();
+        while (i.hasNext()) {
+            final Endpoint endpoint = i.next();
+            if (now - endpoint.lastSeen > window * EVICTION_FACTOR)
+                i.remove();
+            else
+                served.add(endpoint.path);
+        }
+
+        final Iterator<Map.Entry<String, Long>> j = paths.entrySet().iterator();
+        while (j.hasNext()) {
+            final Map.Entry<String, Long> path = j.next();
+            if (!served.contains(path.getKey()) && now - path.getValue() > window * EVICTION_FACTOR)
+                j.remove();
+        }
+    }
+
+    // the ramp starts at since, or when the endpoint is next seen healthy
+    // while FAULTY; lastSeen is only written once per millisecond
+    static class Endpoint {
+        private final String path;
+        private final AtomicLong since;
+        private volatile long lastSeen;
+
+        Endpoint(String path, long since, long now) {
+            this.path = path;
+            this.since = new AtomicLong(since);
+            this.lastSeen = now;
+        }
+
+        void seen(long now) {
+            if (lastSeen != now)
+                lastSeen = now;
+        }
+    }
+}
@@ -0,0 +1,319 @@
+package com.msnos.proxy.filter.msnos;
+
+import static io.netty.handler.codec.http.HttpHeaders.Names.CONTENT_TYPE;
+import io.netty.buffer.ByteBuf;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.util.CharsetUtil;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.math.BigInteger;
+import java.util.Base64;
+import java.util.Map;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonPrimitive;
+import com.google.gson.stream.JsonWriter;
+
+/**
+ * The compact binary form of the cloud messages, as CBOR (RFC 7049), that
+ * peers may post to /msnos instead of json by declaring it as content type.
+ * Messages are built from json text by the wire serializer, so a binary
+ * message is written into that text straight from the request buffer,
+ * without an intermediate tree. Every CBOR item has a json counterpart but
+ * for byte strings, written as base64, and tags, dropped.
+ */
+public final class Cbor {
+
+    public static final String MEDIA_TYPE = "application/cbor";
+
+    private static final int MAX_DEPTH = 64;
+    private static final int BREAK = 0xff;
+
+    private Cbor() {
+    }
+
+    public static boolean isCbor(HttpRequest request) {
+        final String type = request.headers().get(CONTENT_TYPE);
+        return type != null && type.regionMatches(true, 0, MEDIA_TYPE, 0, MEDIA_TYPE.length());
+    }
+
+    /**
+     * Reads the next item from the buffer, advancing its reader index, and
+     * returns it as json text.
+     */
+    public static String toJson(ByteBuf in) {
+        final StringWriter text = new StringWriter(in.readableBytes() + (in.readableBytes() >> 2));
+        final JsonWriter writer = new JsonWriter(text);
+        writer.setLenient(true);
+        try {
+            item(in, writer, 0);
+            writer.flush();
+        } catch (IOException e) {
+            throw new JsonParseException(e);
+        } catch (IllegalArgumentException e) {
+            throw new JsonParseException(e);
+        }
+        return text.toString();
+    }
+
+    /**
+     * Reads the head of an array from the buffer, returning the number of
+     * its items or -1 when they are closed by a break.
+     */
+    static long arrayHead(ByteBuf in) {
+        final int initial = readByte(in);
+        if (initial >> 5 != 4)
+            throw new JsonParseException("Not a cbor array");
+        return length(in, initial & 0x1f);
+    }
+
+    static boolean atBreak(ByteBuf in) {
+        if (readable(in, 1).getUnsignedByte(in.readerIndex()) != BREAK)
+            return false;
+        in.skipBytes(1);
+        return true;
+    }
+
+    public static void encode(JsonElement json, ByteBuf out) {
+        if (json == null || json.isJsonNull()) {
+            out.writeByte(0xf6);
+        } else if (json.isJsonObject()) {
+            final JsonObject object = json.getAsJsonObject();
+            head(out, 5, object.entrySet().size());
+            for (Map.Entry<String, JsonElement> entry : object.entrySet()) {
+                text(out, entry.getKey());
+                encode(entry.getValue(), out);
+            }
+        } else if (json.isJsonArray()) {
+            final JsonArray array = json.getAsJsonArray();
+            head(out, 4, array.size());
+            for (JsonElement element : array) {
+                encode(element, out);
+            }
+        } else {
+            final JsonPrimitive primitive = json.getAsJsonPrimitive();
+            if (primitive.isBoolean())
+                out.writeByte(primitive.getAsBoolean() ? 0xf5 : 0xf4);
+            else if (primitive.isString())
+                text(out, primitive.getAsString());
+            else
+                number(out, primitive.getAsNumber());
+        }
+    }
+
+    private static void number(ByteBuf out, Number number) {
+        final double value = number.doubleValue();
+        final long integer = number.longValue();
+        if (value == integer && number.toString().indexOf('.') < 0) {
+            if (integer >= 0)
+                head(out, 0, integer);
+            else
+                head(out, 1, -1 - integer);
+        } else {
+            out.writeByte(0xfb);
+            out.writeLong(Double.doubleToLongBits(value));
+        }
+    }
+
+    private static void text(ByteBuf out, String value) {
+        final byte[] bytes = value.getBytes(CharsetUtil.UTF_8);
+        head(out, 3, bytes.length);
+        out.writeBytes(bytes);
+    }
+
+    private static void head(ByteBuf out, int major, long argument) {
+        final int type = major << 5;
+        if (argument < 24) {
+            out.writeByte(type | (int) argument);
+        } else if (argument < 0x100) {
+            out.writeByte(type | 24);
+            out.writeByte((int) argument);
+        } else if (argument < 0x10000) {
+            out.writeByte(type | 25);
+            out.writeShort((int) argument);
+        } else if (argument < 0x100000000L) {
+            out.writeByte(type | 26);
+            out.writeInt((int) argument);
+        } else {
+            out.writeByte(type | 27);
+            out.writeLong(argument);
+        }
+    }
+
+    private static void item(ByteBuf in, JsonWriter writer, int depth) throws IOException {
+        if (depth > MAX_DEPTH)
+            throw new JsonParseException("Cbor nested too deep");
+
+        final int initial = readByte(in);
+        final int major = initial >> 5;
+        final int info = initial & 0x1f;
+        switch (major) {
+        case 0:
+            unsigned(writer, argument(in, info));
+            break;
+        case 1:
+            negative(writer, argument(in, info));
+            break;
+        case 2:
+            writer.value(Base64.getEncoder().encodeToString(bytes(in, info)));
+            break;
+        case 3:
+            writer.value(string(in, info));
+            break;
+        case 4:
+            array(in, writer, info, depth);
+            break;
+        case 5:
+            map(in, writer, info, depth);
+            break;
+        case 6:
+            argument(in, info);
+            item(in, writer, depth + 1);
+            break;
+        default:
+            simple(in, writer, info);
+        }
+    }
+
+    private static void array(ByteBuf in, JsonWriter writer, int info, int depth) throws IOException {
+        final long length = length(in, info);
+        writer.beginArray();
+        for (long i = 0; length < 0 ? !atBreak(in) : i < length; i++) {
+            item(in, writer, depth + 1);
+        }
+        writer.endArray();
+    }
+
+    private static void map(ByteBuf in, JsonWriter writer, int info, int depth) throws IOException {
+        final long length = length(in, info);
+        writer.beginObject();
+        for (long i = 0; length < 0 ? !atBreak(in) : i < length; i++) {
+            final int key = readByte(in);
+            if (key >> 5 != 3)
+                throw new JsonParseException("Cbor map key is not a text string");
+            writer.name(string(in, key & 0x1f));
+            item(in, writer, depth + 1);
+        }
+        writer.endObject();
+    }
+
+    private static void simple(ByteBuf in, JsonWriter writer, int info) throws IOException {
+        switch (info) {
+        case 20:
+            writer.value(false);
+            break;
+        case 21:
+            writer.value(true);
+            break;
+        case 22:
+        case 23:
+            writer.nullValue();
+            break;
+        case 25:
+            writer.value(half(readable(in, 2).readUnsignedShort()));
+            break;
+        case 26:
+            writer.value(Float.intBitsToFloat(readable(in, 4).readInt()));
+            break;
+        case 27:
+            writer.value(Double.longBitsToDouble(readable(in, 8).readLong()));
+            break;
+        default:
+            throw new JsonParseException("Unsupported cbor simple value " + info);
+        }
+    }
+
+    private static String string(ByteBuf in, int info) {
+        if (info != 31) {
+            final int length = (int) checked(argument(in, info), in);
+            final String value = in.toString(in.readerIndex(), length, CharsetUtil.UTF_8);
+            in.skipBytes(length);
+            return value;
+        }
+
+        final StringBuilder value = new StringBuilder();
+        while (!atBreak(in)) {
+            final int chunk = readByte(in);
+            if (chunk >> 5 != 3 || (chunk & 0x1f) == 31)
+                throw new JsonParseException("Malformed cbor text chunk");
+            value.append(string(in, chunk & 0x1f));
+        }
+        return value.toString();
+    }
+
+    private static byte[] bytes(ByteBuf in, int info) {
+        if (info == 31)
+            throw new JsonParseException("Unsupported indefinite cbor byte string");
+        final byte[] value = new byte[(int) checked(argument(in, info), in)];
+        in.readBytes(value);
+        return value;
+    }
+
+    private static void unsigned(JsonWriter writer, long value) throws IOException {
+        if (value >= 0)
+            writer.value(value);
+        else
+            writer.value(new BigInteger(Long.toUnsignedString(value)));
+    }
+
+    private static void negative(JsonWriter writer, long value) throws IOException {
+        if (value >= 0)
+            writer.value(-1 - value);
+        else
+            writer.value(new BigInteger(Long.toUnsignedString(value)).negate().subtract(BigInteger.ONE));
+    }
+
+    private static long length(ByteBuf in, int info) {
+        return info == 31 ? -1 : argument(in, info);
+    }
+
+    private static long argument(ByteBuf in, int info) {
+        if (info < 24)
+            return info;
+        switch (info) {
+        case 24:
+            return readable(in, 1).readUnsignedByte();
+        case 25:
+            return readable(in, 2).readUnsignedShort();
+        case 26:
+            return readable(in, 4).readUnsignedInt();
+        case 27:
+            return readable(in, 8).readLong();
+        default:
+            throw new JsonParseException("Malformed cbor argument " + info);
+        }
+    }
+
+    private static long checked(long length, ByteBuf in) {
+        if (length < 0 || length > in.readableBytes())
+            throw new JsonParseException("Truncated cbor");
+        return length;
+    }
+
+    private static int readByte(ByteBuf in) {
+        return readable(in, 1).readUnsignedByte();
+    }
+
+    private static ByteBuf readable(ByteBuf in, int length) {
+        if (in.readableBytes() < length)
+            throw new JsonParseException("Truncated cbor");
+        return in;
+    }
+
+    private static double half(int bits) {
+        final int exponent = (bits >> 10) & 0x1f;
+        final int mantissa = bits & 0x3ff;
+        final double value;
+        if (exponent == 0)
+            value = Math.scalb((double) mantissa, -24);
+        else if (exponent != 31)
+            value = Math.scalb((double) (mantissa + 1024), exponent - 25);
+        else
+            value = mantissa == 0 ? Double.POSITIVE_INFINITY : Double.NaN;
+        return (bits & 0x8000) == 0 ? value : -value;
+    }
+}
@@ -0,0 +1,154 @@
+package com.msnos.proxy.filter.msnos;
+
+import static io.netty.handler.codec.http.HttpResponseStatus.ACCEPTED;
+import static io.netty.handler.codec.http.HttpResponseStatus.BAD_REQUEST;
+import static io.netty.handler.codec.http.HttpResponseStatus.SERVICE_UNAVAILABLE;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufInputStream;
+import io.netty.buffer.ByteBufProcessor;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.util.CharsetUtil;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonReader;
+import com.workshare.msnos.usvc.Microcloud;
+
+/**
+ * Many cloud messages posted in one request, either as a json array, as
+ * newline delimited json or as a CBOR array, each queued on its own and answered with its own
+ * status, in order: 202 when queued, 503 when the queue was full and 400
+ * when it could not be read. The body is read straight from the request
+ * buffer, one message at a time, and the wire deserialization of each is
+ * left to the queue.
+ * <p>
+ * An array broken partway cannot be read any further: the messages before
+ * the break keep their status, the break gets a 400, and the batch is
+ * answered as not complete, none of the messages after it having been
+ * looked at. The sender is expected to send those again.
+ */
+class MessageBatch {
+
+    private final MessageQueue queue;
+    private final Microcloud cloud;
+    private final JsonArray results = new JsonArray();
+
+    private int accepted;
+    private int rejected;
+    private int malformed;
+    private boolean complete = true;
+
+    MessageBatch(MessageQueue queue, Microcloud cloud) {
+        this.queue = queue;
+        this.cloud = cloud;
+    }
+
+    JsonObject submit(ByteBuf content) {
+        final int start = content.forEachByte(ByteBufProcessor.FIND_NON_LINEAR_WHITESPACE);
+        if (start >= 0 && content.getByte(start) == '[')
+            array(content);
+        else
+            lines(content);
+        return results();
+    }
+
+    JsonObject submitBinary(ByteBuf content) {
+        final ByteBuf in = content.duplicate();
+        try {
+            final long length = Cbor.arrayHead(in);
+            for (long i = 0; length < 0 ? !Cbor.atBreak(in) : i < length; i++) {
+                final String message = Cbor.toJson(in);
+                if (message.startsWith("{"))
+                    submit(message);
+                else
+                    failed("Not a cbor map");
+            }
+        } catch (JsonParseException e) {
+            broken(e.getMessage());
+        }
+        return results();
+    }
+
+    private JsonObject results() {
+        final JsonObject json = new JsonObject();
+        json.addProperty("accepted", accepted);
+        json.addProperty("rejected", rejected);
+        json.addProperty("malformed", malformed);
+        json.addProperty("complete", complete);
+        json.add("results", results);
+        return json;
+    }
+
+    private void array(ByteBuf content) {
+        final JsonParser parser = new JsonParser();
+        final JsonReader reader = new JsonReader(new InputStreamReader(new ByteBufInputStream(content.duplicate()), CharsetUtil.UTF_8));
+        try {
+            reader.beginArray();
+            while (reader.hasNext()) {
+                final JsonElement message = parser.parse(reader);
+                if (message.isJsonObject())
+                    submit(message.toString());
+                else
+                    failed("Not a json object");
+            }
+            reader.endArray();
+        } catch (IOException e) {
+            broken(e.getMessage());
+        } catch (JsonParseException e) {
+            broken(e.getMessage());
+        } catch (IllegalStateException e) {
+            broken(e.getMessage());
+        }
+    }
+
+    private void lines(ByteBuf content) {
+        int from = content.readerIndex();
+        final int end = content.writerIndex();
+        while (from < end) {
+            int eol = content.forEachByte(from, end - from, ByteBufProcessor.FIND_LF);
+            if (eol < 0)
+                eol = end;
+
+            final String line = content.toString(from, eol - from, CharsetUtil.UTF_8).trim();
+            if (line.startsWith("{"))
+                submit(line);
+            else if (!line.isEmpty())
+                failed("Not a json object");
+            from = eol + 1;
+        }
+    }
+
+    private void submit(String message) {
+        if (queue.submit(cloud, message)) {
+            accepted++;
+            result(ACCEPTED, null);
+        } else {
+            rejected++;
+            result(SERVICE_UNAVAILABLE, null);
+        }
+    }
+
+    private void failed(String error) {
+        malformed++;
+        result(BAD_REQUEST, error);
+    }
+
+    private void broken(String error) {
+        failed(error);
+        complete = false;
+    }
+
+    private void result(HttpResponseStatus status, String error) {
+        final JsonObject result = new JsonObject();
+        result.addProperty("status", status.code());
+        if (error != null)
+            result.addProperty("error", error);
+        results.add(result);
+    }
+}
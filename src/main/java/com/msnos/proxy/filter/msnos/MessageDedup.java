@@ -0,0 +1,144 @@
+package com.msnos.proxy.filter.msnos;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+/**
+ * The cloud messages seen lately, so that a copy reaching the proxy again
+ * within the window is dropped before being decoded and processed twice.
+ * Messages are told apart by their uuid, picked from the top level fields
+ * of the raw text without building the message: the scan stops as soon as
+ * it is found. The name of the field is the one the wire serializer gives
+ * to the uuid of a message, pinned by a test against the serializer; a
+ * message carrying no uuid is never dropped.
+ * The cache holds at most the given number of messages, the oldest leaving
+ * first.
+ */
+public class MessageDedup {
+
+    public static final long WINDOW = Long.getLong("com.msnos.proxy.msnos.dedup.window", 30000L);
+    public static final int SIZE = Integer.getInteger("com.msnos.proxy.msnos.dedup.size", 8192);
+
+    public static final String UUID_FIELD = System.getProperty("com.msnos.proxy.msnos.dedup.field", "uu");
+
+    private final long window;
+    private final int size;
+    private final String field;
+    private final Map<String, Long> seen;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    public MessageDedup(long window, int size) {
+        this(window, size, UUID_FIELD);
+    }
+
+    MessageDedup(long window, final int size, String field) {
+        this.window = window;
+        this.size = size;
+        this.field = field;
+        this.seen = new LinkedHashMap<String, Long>(16, 0.75f, false) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+                return size() > size;
+            }
+        };
+    }
+
+    /**
+     * Returns true if the message was already seen within the window,
+     * remembering it otherwise.
+     */
+    public boolean duplicate(String content) {
+        final String key = key(content, field);
+        if (key == null || size <= 0)
+            return false;
+
+        final long now = now();
+        synchronized (seen) {
+            expire(now);
+            if (seen.containsKey(key)) {
+                hits.incrementAndGet();
+                return true;
+            }
+            seen.put(key, now);
+        }
+        misses.incrementAndGet();
+        return false;
+    }
+
+    /**
+     * Forgets the message, so that a copy of it is no longer a duplicate:
+     * used when the message was refused, for the sender to retry it.
+     */
+    public void forget(String content) {
+        final String key = key(content, field);
+        if (key == null)
+            return;
+
+        synchronized (seen) {
+            seen.remove(key);
+        }
+    }
+
+    public long hits() {
+        return hits.get();
+    }
+
+    public long misses() {
+        return misses.get();
+    }
+
+    public int size() {
+        synchronized (seen) {
+            return seen.size();
+        }
+    }
+
+    private void expire(long now) {
+        final Iterator<Long> times = seen.values().iterator();
+        while (times.hasNext() && now - times.next() >= window) {
+            times.remove();
+        }
+    }
+
+    static String key(String content) {
+        return key(content, UUID_FIELD);
+    }
+
+    static String key(String content, String field) {
+        final JsonReader reader = new JsonReader(new StringReader(content));
+        try {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                if (field.equals(reader.nextName()))
+                    return scalar(reader);
+                reader.skipValue();
+            }
+        } catch (IOException e) {
+            return null;
+        } catch (IllegalStateException e) {
+            return null;
+        }
+        return null;
+    }
+
+    private static String scalar(JsonReader reader) throws IOException {
+        final JsonToken token = reader.peek();
+        if (token == JsonToken.STRING || token == JsonToken.NUMBER)
+            return reader.nextString();
+        return null;
+    }
+
+    protected long now() {
+        return System.currentTimeMillis();
+    }
+}
@@ -0,0 +1,117 @@
+package com.msnos.proxy.filter.msnos;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.msnos.proxy.jfr.MessageEvent;
+import com.msnos.proxy.jfr.ProxyEvents;
+import com.msnos.proxy.metrics.Metrics;
+import com.workshare.msnos.core.Message;
+import com.workshare.msnos.core.protocols.ip.Endpoint;
+import com.workshare.msnos.core.serializers.WireJsonSerializer;
+import com.workshare.msnos.usvc.Microcloud;
+
+/**
+ * The cloud messages posted to the proxy, decoded and processed by their
+ * own threads rather than on the event loop that received them, so that a
+ * burst of gossip does not stall the proxied requests sharing that loop.
+ * The queue is bounded: a message that finds it full is refused at once and
+ * the sender is expected to retry. With the default single thread messages
+ * are processed in the order they were received.
+ */
+public class MessageQueue {
+
+    private static final Logger log = LoggerFactory.getLogger(MessageQueue.class);
+
+    public static final int THREADS = Integer.getInteger("com.msnos.proxy.msnos.threads", 1);
+    public static final int CAPACITY = Integer.getInteger("com.msnos.proxy.msnos.queue", 1024);
+
+    public static final MessageQueue DEFAULT = new MessageQueue(THREADS, CAPACITY, new MessageDedup(MessageDedup.WINDOW, MessageDedup.SIZE), Metrics.DEFAULT);
+
+    private static final WireJsonSerializer serializer = new WireJsonSerializer();
+
+    private final ThreadPoolExecutor executor;
+    private final MessageDedup dedup;
+    private final Metrics metrics;
+
+    public MessageQueue(int threads, int capacity, Metrics metrics) {
+        this(threads, capacity, new MessageDedup(MessageDedup.WINDOW, MessageDedup.SIZE), metrics);
+    }
+
+    public MessageQueue(int threads, int capacity, MessageDedup dedup, Metrics metrics) {
+        this.dedup = dedup;
+        this.metrics = metrics;
+        this.executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(capacity), new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                final Thread thread = new Thread(runnable, "msnos-messages-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Queues the given message text for processing in the microcloud,
+     * returning false if the queue is full. A message already seen lately
+     * is dropped without being queued, unless it was refused then.
+     */
+    public boolean submit(final Microcloud cloud, final String content) {
+        if (dedup.duplicate(content)) {
+            metrics.messageDuplicate();
+            return true;
+        }
+
+        final long queued = System.nanoTime();
+        metrics.messageQueued();
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    process(cloud, content, queued);
+                }
+            });
+            return true;
+        } catch (RejectedExecutionException e) {
+            dedup.forget(content);
+            metrics.messageRejected();
+            return false;
+        }
+    }
+
+    public int depth() {
+        return executor.getQueue().size();
+    }
+
+    void process(Microcloud cloud, String content, long queued) {
+        final long started = System.nanoTime();
+        final MessageEvent event = ProxyEvents.message();
+        boolean failed = false;
+        try {
+            final Message message = decode(content);
+            log.debug("Message received: {}", message);
+            cloud.process(message, Endpoint.Type.HTTP);
+            if (event != null)
+                event.processed(String.valueOf(message.getType()), String.valueOf(message.getFrom()), content.length());
+        } catch (RuntimeException e) {
+            failed = true;
+            log.warn("Unable to process message {}", content, e);
+        } finally {
+            final long now = System.nanoTime();
+            metrics.messageProcessed((started - queued) / 1000L, (now - started) / 1000L, failed);
+        }
+    }
+
+    protected Message decode(String content) {
+        return serializer.fromText(content, Message.class);
+    }
+}
@@ -1,8 +1,15 @@
 package com.msnos.proxy.filter.msnos;
 
+import static io.netty.handler.codec.http.HttpHeaders.Names.CONTENT_LENGTH;
+import static io.netty.handler.codec.http.HttpHeaders.Names.CONTENT_TYPE;
+import static io.netty.handler.codec.http.HttpHeaders.Names.RETRY_AFTER;
+import static io.netty.handler.codec.http.HttpResponseStatus.ACCEPTED;
+import static io.netty.handler.codec.http.HttpResponseStatus.BAD_REQUEST;
 import static io.netty.handler.codec.http.HttpResponseStatus.NOT_FOUND;
 import static io.netty.handler.codec.http.HttpResponseStatus.OK;
+import static io.netty.handler.codec.http.HttpResponseStatus.SERVICE_UNAVAILABLE;
 import static io.netty.handler.codec.http.HttpVersion.HTTP_1_1;
+import io.netty.buffer.Unpooled;
 import io.netty.handler.codec.http.DefaultFullHttpResponse;
 import io.netty.handler.codec.http.FullHttpRequest;
 import io.netty.handler.codec.http.HttpObject;
@@ -14,21 +21,27 @@ import org.littleshoot.proxy.HttpFiltersAdapter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.workshare.msnos.core.Message;
-import com.workshare.msnos.core.protocols.ip.Endpoint;
-import com.workshare.msnos.core.serializers.WireJsonSerializer;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
 import com.workshare.msnos.usvc.Microcloud;
 
 public class MsnosFilter extends HttpFiltersAdapter {
     
     private static final Logger log = LoggerFactory.getLogger(MsnosFilter.class);
-    private static final WireJsonSerializer serializer = new WireJsonSerializer();
+
+    public static final String PATH_BATCH = "/msnos/batch";
 
     private final Microcloud cloud;
+    private final MessageQueue queue;
 
     public MsnosFilter(HttpRequest request, Microcloud microcloud) {
+        this(request, microcloud, MessageQueue.DEFAULT);
+    }
+
+    public MsnosFilter(HttpRequest request, Microcloud microcloud, MessageQueue queue) {
         super(request);
         this.cloud = microcloud;
+        this.queue = queue;
     }
 
     @Override
@@ -43,10 +56,38 @@ public class MsnosFilter extends HttpFiltersAdapter {
     }
                 
     private HttpResponse handle(FullHttpRequest request) {
-        String content = request.content().toString(CharsetUtil.UTF_8);
-        Message message = serializer.fromText(content, Message.class);
-        log.debug("Message received: {}", message);
-        cloud.process(message, Endpoint.Type.HTTP); 
-        return new DefaultFullHttpResponse(HTTP_1_1, OK);
+        if (request.getUri().startsWith(PATH_BATCH))
+            return batch(request);
+
+        String content;
+        if (Cbor.isCbor(request)) {
+            try {
+                content = Cbor.toJson(request.content().duplicate());
+            } catch (JsonParseException e) {
+                log.debug("Unable to read binary message", e);
+                return new DefaultFullHttpResponse(HTTP_1_1, BAD_REQUEST);
+            }
+        } else {
+            content = request.content().toString(CharsetUtil.UTF_8);
+        }
+
+        if (queue.submit(cloud, content))
+            return new DefaultFullHttpResponse(HTTP_1_1, ACCEPTED);
+
+        log.debug("Message queue full, refusing message");
+        DefaultFullHttpResponse response = new DefaultFullHttpResponse(HTTP_1_1, SERVICE_UNAVAILABLE);
+        response.headers().set(RETRY_AFTER, "1");
+        return response;
+    }
+
+    private HttpResponse batch(FullHttpRequest request) {
+        MessageBatch batch = new MessageBatch(queue, cloud);
+        JsonObject results = Cbor.isCbor(request) ? batch.submitBinary(request.content()) : batch.submit(request.content());
+        log.debug("Message batch received: {}", results);
+        byte[] content = results.toString().getBytes(CharsetUtil.UTF_8);
+        DefaultFullHttpResponse response = new DefaultFullHttpResponse(HTTP_1_1, OK, Unpooled.wrappedBuffer(content));
+        response.headers().set(CONTENT_TYPE, "application/json; charset=UTF-8");
+        response.headers().set(CONTENT_LENGTH, content.length);
+        return response;
     }
 }
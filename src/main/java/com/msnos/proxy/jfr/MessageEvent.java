@@ -0,0 +1,43 @@
+package com.msnos.proxy.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+@Name("com.msnos.proxy.MsnosMessage")
+@Label("Ms-nos Message")
+@Category({"ms-nos", "Proxy"})
+@Description("An ms-nos message received over http, deserialized and processed by the cloud")
+@StackTrace(false)
+@Threshold("10 ms")
+public class MessageEvent extends Event {
+
+    @Label("Type")
+    String type;
+
+    @Label("From")
+    String from;
+
+    @Label("Size")
+    @DataAmount
+    long size;
+
+    MessageEvent() {
+    }
+
+    public void processed(String type, String from, long size) {
+        end();
+        if (!shouldCommit())
+            return;
+
+        this.type = type;
+        this.from = from;
+        this.size = size;
+        commit();
+    }
+}
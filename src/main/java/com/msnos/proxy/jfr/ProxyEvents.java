@@ -0,0 +1,75 @@
+package com.msnos.proxy.jfr;
+
+/**
+ * Entry point to the Flight Recorder events of the proxy. Events cost next
+ * to nothing when no recording is running, but the JFR api is only present
+ * from Java 8u262, so the event classes are touched only when it is there:
+ * on older runtimes the factory methods return null and nothing is recorded.
+ */
+public final class ProxyEvents {
+
+    public static final boolean ENABLED = isAvailable();
+
+    public static final String RETRY = "retry";
+    public static final String TEMP_FAULT = "temp-fault";
+    public static final String FAULTY = "faulty";
+
+    private ProxyEvents() {
+    }
+
+    /**
+     * Starts timing a proxied request, or returns null if JFR is not available.
+     */
+    public static RequestEvent request() {
+        if (!ENABLED)
+            return null;
+
+        final RequestEvent event = new RequestEvent();
+        event.begin();
+        return event;
+    }
+
+    /**
+     * Starts timing the processing of an ms-nos message, or returns null if
+     * JFR is not available.
+     */
+    public static MessageEvent message() {
+        if (!ENABLED)
+            return null;
+
+        final MessageEvent event = new MessageEvent();
+        event.begin();
+        return event;
+    }
+
+    /**
+     * Starts timing the republishing of announced apis, or returns null if
+     * JFR is not available.
+     */
+    public static RepublishEvent republish() {
+        if (!ENABLED)
+            return null;
+
+        final RepublishEvent event = new RepublishEvent();
+        event.begin();
+        return event;
+    }
+
+    /**
+     * Records a routing decision taken on an endpoint, one of {@link #RETRY},
+     * {@link #TEMP_FAULT} or {@link #FAULTY}.
+     */
+    public static void decision(String decision, String path, String endpoint) {
+        if (ENABLED)
+            RoutingDecisionEvent.record(decision, path, endpoint);
+    }
+
+    private static boolean isAvailable() {
+        try {
+            Class.forName("jdk.jfr.Event");
+            return true;
+        } catch (ClassNotFoundException e) {
+            return false;
+        }
+    }
+}
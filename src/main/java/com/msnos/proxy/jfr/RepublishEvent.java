@@ -0,0 +1,39 @@
+package com.msnos.proxy.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+@Name("com.msnos.proxy.Republish")
+@Label("Api Republish")
+@Category({"ms-nos", "Proxy"})
+@Description("Apis announced by a microservice and published again on the proxy port")
+@StackTrace(false)
+public class RepublishEvent extends Event {
+
+    @Label("Announced")
+    int announced;
+
+    @Label("Published")
+    int published;
+
+    @Label("Failed")
+    boolean failed;
+
+    RepublishEvent() {
+    }
+
+    public void published(int announced, int published, boolean failed) {
+        end();
+        if (!shouldCommit())
+            return;
+
+        this.announced = announced;
+        this.published = published;
+        this.failed = failed;
+        commit();
+    }
+}
@@ -0,0 +1,59 @@
+package com.msnos.proxy.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+import com.msnos.proxy.log.AccessLog;
+
+@Name("com.msnos.proxy.Request")
+@Label("Proxied Request")
+@Category({"ms-nos", "Proxy"})
+@Description("A request routed to an upstream endpoint, from its arrival to the end of the response")
+@StackTrace(false)
+@Threshold("20 ms")
+public class RequestEvent extends Event {
+
+    @Label("Path")
+    String path;
+
+    @Label("Endpoint")
+    String endpoint;
+
+    @Label("Status")
+    int status;
+
+    @Label("Retried")
+    boolean retried;
+
+    @Label("Timed Out")
+    boolean timedOut;
+
+    @Label("Hedged")
+    boolean hedged;
+
+    RequestEvent() {
+    }
+
+    /**
+     * Ends the request and commits it if it lasted longer than the threshold
+     * of the recording; flags are the ones of {@link AccessLog.Entry}.
+     */
+    public void completed(String path, String endpoint, int status, int flags) {
+        end();
+        if (!shouldCommit())
+            return;
+
+        this.path = path;
+        this.endpoint = endpoint;
+        this.status = status;
+        this.retried = (flags & AccessLog.Entry.RETRIED) != 0;
+        this.timedOut = (flags & AccessLog.Entry.TIMED_OUT) != 0;
+        this.hedged = (flags & AccessLog.Entry.HEDGED) != 0;
+        commit();
+    }
+}
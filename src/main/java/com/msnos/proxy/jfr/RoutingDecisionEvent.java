@@ -0,0 +1,36 @@
+package com.msnos.proxy.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+@Name("com.msnos.proxy.RoutingDecision")
+@Label("Routing Decision")
+@Category({"ms-nos", "Proxy"})
+@Description("An endpoint marked as faulty, or a request sent back to the client to be retried")
+@StackTrace(false)
+class RoutingDecisionEvent extends Event {
+
+    @Label("Decision")
+    String decision;
+
+    @Label("Path")
+    String path;
+
+    @Label("Endpoint")
+    String endpoint;
+
+    static void record(String decision, String path, String endpoint) {
+        final RoutingDecisionEvent event = new RoutingDecisionEvent();
+        if (!event.isEnabled())
+            return;
+
+        event.decision = decision;
+        event.path = path;
+        event.endpoint = endpoint;
+        event.commit();
+    }
+}
@@ -0,0 +1,280 @@
+package com.msnos.proxy.log;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.msnos.proxy.metrics.Metrics;
+
+/**
+ * The access log of the proxied requests. The I/O threads fill preallocated
+ * entries of a bounded ring buffer without locking, and a single background
+ * thread encodes them in batches into a binary, size-rotated file: when the
+ * buffer is full the entry is dropped and counted rather than blocking the
+ * event loop. Use {@link AccessLogReader} to turn the file into text.
+ */
+public class AccessLog {
+
+    private static final Logger log = LoggerFactory.getLogger(AccessLog.class);
+
+    public static final String FILE = System.getProperty("com.msnos.proxy.accesslog.file");
+    public static final int CAPACITY = Integer.getInteger("com.msnos.proxy.accesslog.buffer", 64 * 1024);
+    public static final long ROTATE_BYTES = Long.getLong("com.msnos.proxy.accesslog.rotate", 100L * 1024 * 1024);
+    public static final int ROTATE_FILES = Integer.getInteger("com.msnos.proxy.accesslog.files", 10);
+
+    public static final AccessLog DEFAULT = FILE == null ? null : new AccessLog(new File(FILE), CAPACITY, ROTATE_BYTES, ROTATE_FILES, Metrics.DEFAULT).start();
+
+    static final int BATCH_BYTES = 256 * 1024;
+    static final long IDLE_NANOS = 1000000L;
+
+    private final Entry[] entries;
+    private final AtomicLongArray sequences;
+    private final int mask;
+    private final AtomicLong tail = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final RotatingFile file;
+    private final Metrics metrics;
+    private final Thread writer;
+
+    private volatile boolean running = true;
+    private long head;
+
+    public AccessLog(File file, int capacity, long rotateBytes, int rotateFiles, Metrics metrics) {
+        int size = 1;
+        while (size < capacity) {
+            size <<= 1;
+        }
+
+        this.entries = new Entry[size];
+        this.sequences = new AtomicLongArray(size);
+        this.mask = size - 1;
+        for (int i = 0; i < size; i++) {
+            entries[i] = new Entry(i);
+            sequences.set(i, i);
+        }
+
+        this.file = new RotatingFile(file, rotateBytes, rotateFiles);
+        this.metrics = metrics;
+        this.writer = new Thread(new Writer(), "msnos-access-log");
+        this.writer.setDaemon(true);
+    }
+
+    public AccessLog start() {
+        writer.start();
+        Runtime.getRuntime().addShutdownHook(new Thread() {
+            @Override
+            public void run() {
+                close();
+            }
+        });
+        return this;
+    }
+
+    /**
+     * Claims the next free entry, or returns null (and counts the drop) when
+     * the writer is lagging behind and the buffer is full. The entry must be
+     * filled and then handed back with {@link #publish(Entry)}.
+     */
+    public Entry claim() {
+        while (true) {
+            final long position = tail.get();
+            final int index = (int) (position & mask);
+            final long sequence = sequences.get(index);
+            if (sequence == position) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    final Entry entry = entries[index];
+                    entry.position = position;
+                    entry.timestamp = System.currentTimeMillis();
+                    return entry;
+                }
+            } else if (sequence < position) {
+                dropped.incrementAndGet();
+                metrics.accessLogDropped();
+                return null;
+            }
+        }
+    }
+
+    public void publish(Entry entry) {
+        sequences.lazySet(entry.index, entry.position + 1);
+    }
+
+    public long dropped() {
+        return dropped.get();
+    }
+
+    public void close() {
+        if (!running)
+            return;
+
+        running = false;
+        LockSupport.unpark(writer);
+        try {
+            writer.join(5000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private int drain(ByteBuffer buffer) {
+        int count = 0;
+        while (buffer.remaining() >= Entry.MAX_BYTES) {
+            final int index = (int) (head & mask);
+            if (sequences.get(index) != head + 1)
+                break;
+
+            entries[index].encode(buffer);
+            sequences.lazySet(index, head + entries.length);
+            head++;
+            count++;
+        }
+        return count;
+    }
+
+    private class Writer implements Runnable {
+        @Override
+        public void run() {
+            final ByteBuffer buffer = ByteBuffer.allocateDirect(BATCH_BYTES);
+            try {
+                file.open();
+                while (true) {
+                    final int count = drain(buffer);
+                    if (count > 0)
+                        metrics.accessLogWritten(count);
+
+                    if (buffer.position() > 0 && (count == 0 || buffer.remaining() < Entry.MAX_BYTES)) {
+                        buffer.flip();
+                        file.write(buffer);
+                        buffer.clear();
+                    }
+
+                    if (count == 0) {
+                        if (!running)
+                            break;
+                        LockSupport.parkNanos(IDLE_NANOS);
+                    }
+                }
+            } catch (IOException e) {
+                log.error("Access log writer stopped", e);
+            } finally {
+                file.close();
+            }
+        }
+    }
+
+    /**
+     * A single access, written by the I/O thread that claimed it and read by
+     * the writer once published.
+     */
+    public static class Entry {
+
+        public static final int RETRIED = 1;
+        public static final int TIMED_OUT = 2;
+        public static final int HEDGED = 4;
+
+        static final int MAX_STRING_BYTES = 1024;
+        static final int MAX_BYTES = 64 + 2 * (2 + MAX_STRING_BYTES);
+
+        private final int index;
+        private long position;
+        private long timestamp;
+        private long apiId;
+        private String path;
+        private String endpoint;
+        private int status;
+        private int flags;
+        private long bytesIn;
+        private long bytesOut;
+        private final int[] phases = new int[4];
+
+        Entry(int index) {
+            this.index = index;
+        }
+
+        public Entry api(long apiId, String path, String endpoint) {
+            this.apiId = apiId;
+            this.path = path;
+            this.endpoint = endpoint;
+            return this;
+        }
+
+        public Entry status(int status, int flags) {
+            this.status = status;
+            this.flags = flags;
+            return this;
+        }
+
+        public Entry bytes(long bytesIn, long bytesOut) {
+            this.bytesIn = bytesIn;
+            this.bytesOut = bytesOut;
+            return this;
+        }
+
+        public Entry phases(long route, long upstream, long body, long total) {
+            phases[0] = toInt(route);
+            phases[1] = toInt(upstream);
+            phases[2] = toInt(body);
+            phases[3] = toInt(total);
+            return this;
+        }
+
+        void encode(ByteBuffer buffer) {
+            final int start = buffer.position();
+            buffer.putShort((short) 0);
+            buffer.putLong(timestamp);
+            buffer.putLong(apiId);
+            buffer.putShort((short) status);
+            buffer.put((byte) flags);
+            buffer.putLong(bytesIn);
+            buffer.putLong(bytesOut);
+            for (int phase : phases) {
+                buffer.putInt(phase);
+            }
+            putString(buffer, path);
+            putString(buffer, endpoint);
+            buffer.putShort(start, (short) (buffer.position() - start - 2));
+
+            path = null;
+            endpoint = null;
+        }
+
+        // same encoding as DataOutput.writeUTF, truncated to MAX_STRING_BYTES
+        private static void putString(ByteBuffer buffer, String value) {
+            if (value == null) {
+                buffer.putShort((short) 0);
+                return;
+            }
+
+            final int lengthAt = buffer.position();
+            buffer.putShort((short) 0);
+            int length = 0;
+            for (int i = 0; i < value.length() && length < MAX_STRING_BYTES - 3; i++) {
+                final char c = value.charAt(i);
+                if (c < 0x80) {
+                    buffer.put((byte) c);
+                    length += 1;
+                } else if (c < 0x800) {
+                    buffer.put((byte) (0xC0 | (c >> 6)));
+                    buffer.put((byte) (0x80 | (c & 0x3F)));
+                    length += 2;
+                } else {
+                    buffer.put((byte) (0xE0 | (c >> 12)));
+                    buffer.put((byte) (0x80 | ((c >> 6) & 0x3F)));
+                    buffer.put((byte) (0x80 | (c & 0x3F)));
+                    length += 3;
+                }
+            }
+            buffer.putShort(lengthAt, (short) length);
+        }
+
+        private static int toInt(long micros) {
+            return (int) Math.min(Integer.MAX_VALUE, micros);
+        }
+    }
+}
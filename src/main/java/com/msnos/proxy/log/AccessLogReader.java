@@ -0,0 +1,99 @@
+package com.msnos.proxy.log;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+
+import com.google.gson.JsonObject;
+
+/**
+ * Reads the binary access log and prints it as json lines, one access per
+ * line, oldest first when the files are given from the oldest one:
+ *
+ *     java -cp ms-nos-proxy.jar com.msnos.proxy.log.AccessLogReader access.log.2 access.log.1 access.log
+ */
+public class AccessLogReader {
+
+    private static final String[] PHASES = {"route", "upstream", "body", "total"};
+
+    private final DataInputStream in;
+
+    public AccessLogReader(InputStream in) throws IOException {
+        this.in = new DataInputStream(new BufferedInputStream(in));
+
+        final int magic = this.in.readInt();
+        final short version = this.in.readShort();
+        if (magic != RotatingFile.MAGIC || version != RotatingFile.VERSION)
+            throw new IOException("Not an access log, or unsupported version " + version);
+    }
+
+    /**
+     * Returns the next access, or null at the end of the log.
+     */
+    public JsonObject next() throws IOException {
+        final int length;
+        try {
+            length = in.readUnsignedShort();
+        } catch (EOFException e) {
+            return null;
+        }
+
+        final byte[] record = new byte[length];
+        in.readFully(record);
+        final DataInputStream data = new DataInputStream(new ByteArrayInputStream(record));
+
+        final JsonObject json = new JsonObject();
+        json.addProperty("timestamp", data.readLong());
+        json.addProperty("api", data.readLong());
+        json.addProperty("status", data.readShort());
+
+        final int flags = data.readByte();
+        json.addProperty("retried", (flags & AccessLog.Entry.RETRIED) != 0);
+        json.addProperty("timedOut", (flags & AccessLog.Entry.TIMED_OUT) != 0);
+        json.addProperty("hedged", (flags & AccessLog.Entry.HEDGED) != 0);
+
+        json.addProperty("bytesIn", data.readLong());
+        json.addProperty("bytesOut", data.readLong());
+
+        final JsonObject phases = new JsonObject();
+        for (String phase : PHASES) {
+            final int micros = data.readInt();
+            if (micros >= 0)
+                phases.addProperty(phase, micros);
+        }
+
+        json.addProperty("path", data.readUTF());
+        json.addProperty("endpoint", data.readUTF());
+        json.add("phasesMicros", phases);
+        return json;
+    }
+
+    public void close() throws IOException {
+        in.close();
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length == 0) {
+            System.err.println("Usage: AccessLogReader file...");
+            System.exit(1);
+        }
+
+        final PrintStream out = System.out;
+        for (String file : args) {
+            final AccessLogReader reader = new AccessLogReader(new FileInputStream(file));
+            try {
+                JsonObject access;
+                while ((access = reader.next()) != null) {
+                    out.println(access.toString());
+                }
+            } finally {
+                reader.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package com.msnos.proxy.log;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * An append-only log file that is renamed to file.1, file.2... once it
+ * grows past a size, keeping a bounded number of old files. Every file
+ * starts with a header identifying the format.
+ */
+class RotatingFile {
+
+    private static final Logger log = LoggerFactory.getLogger(RotatingFile.class);
+
+    static final int MAGIC = 0x4D534E4C;
+    static final short VERSION = 2;
+
+    private final File file;
+    private final long maxBytes;
+    private final int maxFiles;
+    private final int magic;
+    private final short version;
+
+    private FileOutputStream stream;
+    private FileChannel channel;
+    private long size;
+
+    RotatingFile(File file, long maxBytes, int maxFiles) {
+        this(file, maxBytes, maxFiles, MAGIC, VERSION);
+    }
+
+    RotatingFile(File file, long maxBytes, int maxFiles, int magic, short version) {
+        this.file = file;
+        this.maxBytes = maxBytes;
+        this.maxFiles = maxFiles;
+        this.magic = magic;
+        this.version = version;
+    }
+
+    void open() throws IOException {
+        final File parent = file.getAbsoluteFile().getParentFile();
+        if (parent != null && !parent.exists())
+            parent.mkdirs();
+
+        final boolean fresh = !file.exists() || file.length() == 0;
+        stream = new FileOutputStream(file, true);
+        channel = stream.getChannel();
+        size = file.length();
+
+        if (fresh) {
+            final ByteBuffer header = ByteBuffer.allocate(6);
+            header.putInt(magic).putShort(version).flip();
+            write(header);
+        }
+    }
+
+    void write(ByteBuffer buffer) throws IOException {
+        if (size > 0 && size + buffer.remaining() > maxBytes)
+            rotate();
+
+        while (buffer.hasRemaining()) {
+            size += channel.write(buffer);
+        }
+    }
+
+    void close() {
+        try {
+            if (stream != null)
+                stream.close();
+        } catch (IOException e) {
+            log.warn("Unable to close log file {}", file);
+        }
+    }
+
+    private void rotate() throws IOException {
+        close();
+
+        new File(file.getPath() + "." + maxFiles).delete();
+        for (int i = maxFiles - 1; i >= 1; i--) {
+            final File older = new File(file.getPath() + "." + i);
+            if (older.exists())
+                older.renameTo(new File(file.getPath() + "." + (i + 1)));
+        }
+        if (maxFiles > 0)
+            file.renameTo(new File(file.getPath() + ".1"));
+        else
+            file.delete();
+
+        open();
+    }
+}
@@ -0,0 +1,220 @@
+package com.msnos.proxy.log;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.handler.codec.http.HttpRequest;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A sampled capture of the requests received by the proxy, to be replayed
+ * against a test instance: method, uri, headers, body size and optionally
+ * the body itself, with the time of arrival and the response status and
+ * duration. The I/O threads only copy the request and enqueue it when done,
+ * a background thread appends it to a binary, size-rotated file, and when
+ * the queue is full the request is dropped rather than blocking. Use
+ * {@link TrafficCaptureReader} to read the file back.
+ */
+public class TrafficCapture {
+
+    private static final Logger log = LoggerFactory.getLogger(TrafficCapture.class);
+
+    public static final String FILE = System.getProperty("com.msnos.proxy.capture.file");
+    public static final double SAMPLE_RATE = Double.parseDouble(System.getProperty("com.msnos.proxy.capture.sample", "0.1"));
+    public static final boolean BODIES = Boolean.getBoolean("com.msnos.proxy.capture.bodies");
+    public static final int BODY_MAX_BYTES = Integer.getInteger("com.msnos.proxy.capture.body.max", 64 * 1024);
+    public static final int QUEUE_SIZE = Integer.getInteger("com.msnos.proxy.capture.queue", 8192);
+    public static final long ROTATE_BYTES = Long.getLong("com.msnos.proxy.capture.rotate", 100L * 1024 * 1024);
+    public static final int ROTATE_FILES = Integer.getInteger("com.msnos.proxy.capture.files", 10);
+
+    public static final TrafficCapture DEFAULT = FILE == null ? null : new TrafficCapture(new File(FILE), SAMPLE_RATE, BODIES ? BODY_MAX_BYTES : 0, QUEUE_SIZE, ROTATE_BYTES, ROTATE_FILES).start();
+
+    static final int MAGIC = 0x4D534E43;
+    static final short VERSION = 1;
+    static final long IDLE_MILLIS = 100L;
+
+    private final RotatingFile file;
+    private final double sampleRate;
+    private final int bodyMaxBytes;
+    private final BlockingQueue<Request> queue;
+    private final AtomicLong dropped = new AtomicLong();
+    private final long startNanos = System.nanoTime();
+    private final Thread writer;
+
+    private volatile boolean running = true;
+
+    public TrafficCapture(File file, double sampleRate, int bodyMaxBytes, int queueSize, long rotateBytes, int rotateFiles) {
+        this.file = new RotatingFile(file, rotateBytes, rotateFiles, MAGIC, VERSION);
+        this.sampleRate = sampleRate;
+        this.bodyMaxBytes = bodyMaxBytes;
+        this.queue = new ArrayBlockingQueue<Request>(queueSize);
+        this.writer = new Thread(new Writer(), "msnos-traffic-capture");
+        this.writer.setDaemon(true);
+    }
+
+    public TrafficCapture start() {
+        writer.start();
+        Runtime.getRuntime().addShutdownHook(new Thread() {
+            @Override
+            public void run() {
+                close();
+            }
+        });
+        return this;
+    }
+
+    /**
+     * Starts capturing a request if it is sampled, otherwise returns null.
+     */
+    public Request start(HttpRequest request) {
+        if (!sample())
+            return null;
+
+        final Request result = new Request();
+        result.timestamp = System.currentTimeMillis();
+        result.offsetMicros = (System.nanoTime() - startNanos) / 1000L;
+        result.method = request.getMethod().name();
+        result.uri = request.getUri();
+        result.headers = request.headers().entries();
+        result.body = bodyMaxBytes > 0 ? new ByteArrayOutputStream() : null;
+        return result;
+    }
+
+    public void completed(Request request, int status) {
+        request.status = status;
+        request.durationMicros = (System.nanoTime() - startNanos) / 1000L - request.offsetMicros;
+        if (!queue.offer(request))
+            dropped.incrementAndGet();
+    }
+
+    public long dropped() {
+        return dropped.get();
+    }
+
+    public void close() {
+        if (!running)
+            return;
+
+        // no interrupt, that would close the file channel under the writer
+        running = false;
+        try {
+            writer.join(5000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private boolean sample() {
+        if (sampleRate >= 1.0)
+            return true;
+
+        return ThreadLocalRandom.current().nextDouble() < sampleRate;
+    }
+
+    private class Writer implements Runnable {
+        @Override
+        public void run() {
+            final List<Request> batch = new ArrayList<Request>();
+            final ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 * 1024);
+            final DataOutputStream out = new DataOutputStream(bytes);
+            try {
+                file.open();
+                while (running || !queue.isEmpty()) {
+                    final Request first = queue.poll(IDLE_MILLIS, TimeUnit.MILLISECONDS);
+                    if (first == null)
+                        continue;
+
+                    batch.add(first);
+                    queue.drainTo(batch);
+
+                    for (Request request : batch) {
+                        request.encode(out);
+                    }
+                    batch.clear();
+
+                    file.write(ByteBuffer.wrap(bytes.toByteArray()));
+                    bytes.reset();
+                }
+            } catch (IOException e) {
+                log.error("Traffic capture writer stopped", e);
+            } catch (InterruptedException e) {
+                log.warn("Traffic capture writer interrupted");
+            } finally {
+                file.close();
+            }
+        }
+    }
+
+    /**
+     * A captured request, filled by the I/O thread serving it.
+     */
+    public class Request {
+
+        private long timestamp;
+        private long offsetMicros;
+        private String method;
+        private String uri;
+        private List<Map.Entry<String, String>> headers;
+        private long bodySize;
+        private ByteArrayOutputStream body;
+        private int status;
+        private long durationMicros;
+
+        public void content(ByteBuf content) {
+            final int length = content.readableBytes();
+            bodySize += length;
+
+            if (body != null && body.size() < bodyMaxBytes) {
+                final int copy = Math.min(length, bodyMaxBytes - body.size());
+                final byte[] chunk = new byte[copy];
+                content.getBytes(content.readerIndex(), chunk);
+                body.write(chunk, 0, copy);
+            }
+        }
+
+        void encode(DataOutputStream out) throws IOException {
+            final ByteArrayOutputStream record = new ByteArrayOutputStream(256);
+            final DataOutputStream data = new DataOutputStream(record);
+            data.writeLong(timestamp);
+            data.writeLong(offsetMicros);
+            data.writeShort(status);
+            data.writeLong(durationMicros);
+            data.writeUTF(method);
+            data.writeUTF(truncate(uri));
+            data.writeShort(headers.size());
+            for (Map.Entry<String, String> header : headers) {
+                data.writeUTF(truncate(header.getKey()));
+                data.writeUTF(truncate(header.getValue()));
+            }
+            data.writeLong(bodySize);
+            if (body == null) {
+                data.writeInt(0);
+            } else {
+                data.writeInt(body.size());
+                body.writeTo(data);
+            }
+
+            out.writeInt(record.size());
+            record.writeTo(out);
+        }
+
+        // writeUTF is limited to 64k bytes, more than enough for any header
+        private String truncate(String value) {
+            return value.length() > 16 * 1024 ? value.substring(0, 16 * 1024) : value;
+        }
+    }
+}
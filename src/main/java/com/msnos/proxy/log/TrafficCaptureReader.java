@@ -0,0 +1,176 @@
+package com.msnos.proxy.log;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+
+/**
+ * Reads a traffic capture back, one request at a time, or prints it as
+ * json lines without the bodies:
+ *
+ *     java -cp ms-nos-proxy.jar com.msnos.proxy.log.TrafficCaptureReader capture.bin.1 capture.bin
+ */
+public class TrafficCaptureReader {
+
+    private final DataInputStream in;
+
+    public TrafficCaptureReader(InputStream in) throws IOException {
+        this.in = new DataInputStream(new BufferedInputStream(in));
+
+        final int magic = this.in.readInt();
+        final short version = this.in.readShort();
+        if (magic != TrafficCapture.MAGIC || version != TrafficCapture.VERSION)
+            throw new IOException("Not a traffic capture, or unsupported version " + version);
+    }
+
+    /**
+     * Returns the next request, or null at the end of the capture.
+     */
+    public Record next() throws IOException {
+        final int length;
+        try {
+            length = in.readInt();
+        } catch (EOFException e) {
+            return null;
+        }
+
+        final byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        final DataInputStream data = new DataInputStream(new ByteArrayInputStream(bytes));
+
+        final Record record = new Record();
+        record.timestamp = data.readLong();
+        record.offsetMicros = data.readLong();
+        record.status = data.readShort();
+        record.durationMicros = data.readLong();
+        record.method = data.readUTF();
+        record.uri = data.readUTF();
+
+        final int headers = data.readUnsignedShort();
+        record.headers = new ArrayList<Map.Entry<String, String>>(headers);
+        for (int i = 0; i < headers; i++) {
+            record.headers.add(new AbstractMap.SimpleImmutableEntry<String, String>(data.readUTF(), data.readUTF()));
+        }
+
+        record.bodySize = data.readLong();
+        record.body = new byte[data.readInt()];
+        data.readFully(record.body);
+        return record;
+    }
+
+    public void close() throws IOException {
+        in.close();
+    }
+
+    public static class Record {
+
+        private long timestamp;
+        private long offsetMicros;
+        private int status;
+        private long durationMicros;
+        private String method;
+        private String uri;
+        private List<Map.Entry<String, String>> headers;
+        private long bodySize;
+        private byte[] body;
+
+        public long timestamp() {
+            return timestamp;
+        }
+
+        /**
+         * The time of arrival since the capture started.
+         */
+        public long offsetMicros() {
+            return offsetMicros;
+        }
+
+        public int status() {
+            return status;
+        }
+
+        public long durationMicros() {
+            return durationMicros;
+        }
+
+        public String method() {
+            return method;
+        }
+
+        public String uri() {
+            return uri;
+        }
+
+        public List<Map.Entry<String, String>> headers() {
+            return Collections.unmodifiableList(headers);
+        }
+
+        public long bodySize() {
+            return bodySize;
+        }
+
+        /**
+         * The captured body, empty when bodies were not captured, and
+         * possibly shorter than the body size when truncated.
+         */
+        public byte[] body() {
+            return body;
+        }
+
+        public JsonObject toJson() {
+            final JsonArray headersJson = new JsonArray();
+            for (Map.Entry<String, String> header : headers) {
+                final JsonArray pair = new JsonArray();
+                pair.add(new JsonPrimitive(header.getKey()));
+                pair.add(new JsonPrimitive(header.getValue()));
+                headersJson.add(pair);
+            }
+
+            final JsonObject json = new JsonObject();
+            json.addProperty("timestamp", timestamp);
+            json.addProperty("offsetMicros", offsetMicros);
+            json.addProperty("method", method);
+            json.addProperty("uri", uri);
+            json.add("headers", headersJson);
+            json.addProperty("bodySize", bodySize);
+            json.addProperty("bodyCaptured", body.length);
+            json.addProperty("status", status);
+            json.addProperty("durationMicros", durationMicros);
+            return json;
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length == 0) {
+            System.err.println("Usage: TrafficCaptureReader file...");
+            System.exit(1);
+        }
+
+        final PrintStream out = System.out;
+        for (String file : args) {
+            final TrafficCaptureReader reader = new TrafficCaptureReader(new FileInputStream(file));
+            try {
+                Record record;
+                while ((record = reader.next()) != null) {
+                    out.println(record.toJson().toString());
+                }
+            } finally {
+                reader.close();
+            }
+        }
+    }
+}
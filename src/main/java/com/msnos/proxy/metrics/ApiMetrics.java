@@ -0,0 +1,52 @@
+package com.msnos.proxy.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Traffic numbers of a single proxied api path.
+ */
+public class ApiMetrics {
+
+    final LatencyRecorder latency = new LatencyRecorder();
+    final AtomicLongArray statuses = new AtomicLongArray(6);
+    final AtomicLong retries = new AtomicLong();
+    final AtomicLong tempFaults = new AtomicLong();
+    final AtomicLong faulty = new AtomicLong();
+    final AtomicLong timeouts = new AtomicLong();
+    final AtomicLong hedges = new AtomicLong();
+    final AtomicLong expired = new AtomicLong();
+
+    public void response(int status, long micros) {
+        latency.record(micros);
+        statuses.incrementAndGet(Math.min(5, Math.max(0, status / 100)));
+    }
+
+    public void retry() {
+        retries.incrementAndGet();
+    }
+
+    public void tempFault() {
+        tempFaults.incrementAndGet();
+    }
+
+    public void faulty() {
+        faulty.incrementAndGet();
+    }
+
+    public void timeout() {
+        timeouts.incrementAndGet();
+    }
+
+    public void hedge() {
+        hedges.incrementAndGet();
+    }
+
+    public void expired() {
+        expired.incrementAndGet();
+    }
+
+    public long expiredCount() {
+        return expired.get();
+    }
+}
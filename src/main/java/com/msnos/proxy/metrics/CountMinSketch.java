@@ -0,0 +1,72 @@
+package com.msnos.proxy.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A count-min sketch of string keys: a fixed grid of counters where each
+ * key increments one counter per row, so that the smallest of its counters
+ * is an estimate of its frequency that can only be too high, by at most
+ * e/width of the total with probability 1 - e^-depth. Counters are updated
+ * without locking by concurrent threads.
+ */
+class CountMinSketch {
+
+    private final AtomicLongArray counters;
+    private final int depth;
+    private final int width;
+    private final int mask;
+
+    CountMinSketch(int depth, int width) {
+        int size = 1;
+        while (size < width) {
+            size <<= 1;
+        }
+
+        this.depth = depth;
+        this.width = size;
+        this.mask = size - 1;
+        this.counters = new AtomicLongArray(depth * size);
+    }
+
+    /**
+     * Adds one occurrence of the key and returns its new estimate.
+     */
+    public long add(String key) {
+        final int h1 = mix(key.hashCode());
+        final int h2 = mix(h1 ^ 0x9E3779B9);
+
+        long estimate = Long.MAX_VALUE;
+        for (int row = 0; row < depth; row++) {
+            final long count = counters.incrementAndGet(row * width + ((h1 + row * h2) & mask));
+            estimate = Math.min(estimate, count);
+        }
+        return estimate;
+    }
+
+    public long estimate(String key) {
+        final int h1 = mix(key.hashCode());
+        final int h2 = mix(h1 ^ 0x9E3779B9);
+
+        long estimate = Long.MAX_VALUE;
+        for (int row = 0; row < depth; row++) {
+            estimate = Math.min(estimate, counters.get(row * width + ((h1 + row * h2) & mask)));
+        }
+        return estimate;
+    }
+
+    public void clear() {
+        for (int i = 0; i < counters.length(); i++) {
+            counters.set(i, 0);
+        }
+    }
+
+    // murmur3 finalizer, spreads the bits of String.hashCode over the row
+    private static int mix(int h) {
+        h ^= h >>> 16;
+        h *= 0x85EBCA6B;
+        h ^= h >>> 13;
+        h *= 0xC2B2AE35;
+        h ^= h >>> 16;
+        return h;
+    }
+}
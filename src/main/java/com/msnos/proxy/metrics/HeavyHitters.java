@@ -0,0 +1,159 @@
+package com.msnos.proxy.metrics;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+
+/**
+ * The most frequent keys seen over a sliding window, in fixed memory
+ * whatever their cardinality. The window is split in slots, each with its
+ * own count-min sketch and its own small set of candidate heavy hitters:
+ * when time moves on, the oldest slot is cleared and reused. A key enters
+ * the candidates of a slot only when its estimate beats the weakest of them,
+ * so cold keys cost just the sketch update.
+ */
+class HeavyHitters {
+
+    private final Slot[] slots;
+    private final long slotMillis;
+    private final int size;
+
+    HeavyHitters(int size, long windowMillis, int slots, int depth, int width) {
+        this.size = size;
+        this.slotMillis = Math.max(1, windowMillis / slots);
+        this.slots = new Slot[slots];
+        for (int i = 0; i < slots; i++) {
+            this.slots[i] = new Slot(depth, width);
+        }
+    }
+
+    public void add(String key) {
+        if (key == null)
+            return;
+
+        final long epoch = now() / slotMillis;
+        final Slot slot = slots[(int) (epoch % slots.length)];
+        if (slot.epoch != epoch)
+            slot.reset(epoch);
+
+        slot.add(key, epoch);
+    }
+
+    public long windowMillis() {
+        return slotMillis * slots.length;
+    }
+
+    public JsonObject toJson(int limit) {
+        final long oldest = now() / slotMillis - slots.length + 1;
+
+        long total = 0;
+        final Set<String> keys = new HashSet<String>();
+        for (Slot slot : slots) {
+            if (slot.epoch >= oldest) {
+                total += slot.total.get();
+                keys.addAll(slot.candidates.keySet());
+            }
+        }
+
+        final List<Map.Entry<String, Long>> counts = new ArrayList<Map.Entry<String, Long>>();
+        for (String key : keys) {
+            long count = 0;
+            for (Slot slot : slots) {
+                if (slot.epoch >= oldest)
+                    count += slot.sketch.estimate(key);
+            }
+            counts.add(new AbstractMap.SimpleEntry<String, Long>(key, count));
+        }
+
+        Collections.sort(counts, new Comparator<Map.Entry<String, Long>>() {
+            @Override
+            public int compare(Map.Entry<String, Long> one, Map.Entry<String, Long> two) {
+                return two.getValue().compareTo(one.getValue());
+            }
+        });
+
+        final JsonArray top = new JsonArray();
+        for (Map.Entry<String, Long> entry : counts.subList(0, Math.min(limit, counts.size()))) {
+            final JsonObject json = new JsonObject();
+            json.addProperty("key", entry.getKey());
+            json.addProperty("count", Math.min(entry.getValue(), total));
+            top.add(json);
+        }
+
+        final JsonObject result = new JsonObject();
+        result.addProperty("total", total);
+        result.add("top", top);
+        return result;
+    }
+
+    protected long now() {
+        return System.currentTimeMillis();
+    }
+
+    private class Slot {
+
+        private final CountMinSketch sketch;
+        private final ConcurrentMap<String, Long> candidates = new ConcurrentHashMap<String, Long>();
+        private final AtomicLong total = new AtomicLong();
+
+        private volatile long epoch = -1;
+        private volatile long weakest;
+
+        Slot(int depth, int width) {
+            this.sketch = new CountMinSketch(depth, width);
+        }
+
+        void add(String key, long epoch) {
+            total.incrementAndGet();
+            final long estimate = sketch.add(key);
+            if (candidates.replace(key, estimate) != null)
+                return;
+
+            if (candidates.size() >= size && estimate <= weakest)
+                return;
+
+            synchronized (this) {
+                if (this.epoch != epoch)
+                    return;
+
+                candidates.put(key, estimate);
+                if (candidates.size() > size) {
+                    String evict = null;
+                    long min = Long.MAX_VALUE;
+                    for (Map.Entry<String, Long> entry : candidates.entrySet()) {
+                        if (entry.getValue() < min) {
+                            min = entry.getValue();
+                            evict = entry.getKey();
+                        }
+                    }
+                    candidates.remove(evict);
+                    weakest = min;
+                }
+            }
+        }
+
+        // writers still adding to the previous epoch may leak a few counts
+        // into the new one, a tolerable error for an estimate
+        synchronized void reset(long epoch) {
+            if (this.epoch >= epoch)
+                return;
+
+            sketch.clear();
+            candidates.clear();
+            total.set(0);
+            weakest = 0;
+            this.epoch = epoch;
+        }
+    }
+}
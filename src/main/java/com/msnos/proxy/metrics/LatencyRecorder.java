@@ -0,0 +1,37 @@
+package com.msnos.proxy.metrics;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+/**
+ * Latencies in microseconds, recorded wait-free by the I/O threads and
+ * accumulated in a total histogram when read.
+ */
+public class LatencyRecorder {
+
+    public static final int SIGNIFICANT_DIGITS = Integer.getInteger("com.msnos.proxy.metrics.digits", 2);
+
+    private final Recorder recorder = new Recorder(SIGNIFICANT_DIGITS);
+    private final Histogram total = new Histogram(SIGNIFICANT_DIGITS);
+    private Histogram interval;
+    private volatile long updated;
+
+    public void record(long micros) {
+        recorder.recordValue(Math.max(0, micros));
+    }
+
+    public void record(long micros, long now) {
+        record(micros);
+        updated = now;
+    }
+
+    public long updated() {
+        return updated;
+    }
+
+    public synchronized Histogram snapshot() {
+        interval = recorder.getIntervalHistogram(interval);
+        total.add(interval);
+        return total.copy();
+    }
+}
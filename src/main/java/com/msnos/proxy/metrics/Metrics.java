@@ -0,0 +1,372 @@
+package com.msnos.proxy.metrics;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.HdrHistogram.Histogram;
+
+import com.google.gson.JsonObject;
+
+/**
+ * The traffic numbers of the proxy, per api path, per endpoint and per
+ * request phase, served by the admin interface both as json and in the
+ * prometheus text format. Endpoints come and go with the deployments, so
+ * the ones not seen for a while are forgotten when a new one shows up or
+ * the numbers are read.
+ */
+public class Metrics {
+
+    public static final long ENDPOINT_IDLE_MILLIS = Long.getLong("com.msnos.proxy.metrics.endpoints.idle", 600000L);
+
+    public static final Metrics DEFAULT = new Metrics();
+
+    private static final String PREFIX = "msnos_proxy_";
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+    private static final String[] STATUS_CLASSES = {"other", "1xx", "2xx", "3xx", "4xx", "5xx"};
+
+    private final ConcurrentMap<String, ApiMetrics> apis = new ConcurrentHashMap<String, ApiMetrics>();
+    private final ConcurrentMap<String, LatencyRecorder> endpoints = new ConcurrentHashMap<String, LatencyRecorder>();
+    private final ConcurrentMap<String, LatencyRecorder> phases = new ConcurrentHashMap<String, LatencyRecorder>();
+    private final AtomicLong notFound = new AtomicLong();
+    private final AtomicLong badGateway = new AtomicLong();
+    private final AtomicLong accessLogWritten = new AtomicLong();
+    private final AtomicLong accessLogDropped = new AtomicLong();
+    private final AtomicLong messagesReceived = new AtomicLong();
+    private final AtomicLong messagesRejected = new AtomicLong();
+    private final AtomicLong messagesFailed = new AtomicLong();
+    private final AtomicLong messagesQueued = new AtomicLong();
+    private final AtomicLong messagesDuplicate = new AtomicLong();
+    private final LatencyRecorder messageWait = new LatencyRecorder();
+    private final LatencyRecorder messageProcessing = new LatencyRecorder();
+    private final AtomicLong republishes = new AtomicLong();
+    private final AtomicLong republishFailures = new AtomicLong();
+    private final AtomicLong republishedApis = new AtomicLong();
+    private final AtomicLong evictedApis = new AtomicLong();
+    private final Deque<Long> republishTimes = new ArrayDeque<Long>();
+
+    public ApiMetrics api(String path) {
+        ApiMetrics metrics = apis.get(path);
+        if (metrics == null) {
+            final ApiMetrics fresh = new ApiMetrics();
+            metrics = apis.putIfAbsent(path, fresh);
+            if (metrics == null)
+                metrics = fresh;
+        }
+        return metrics;
+    }
+
+    public void endpoint(String url, long micros) {
+        final long now = now();
+        LatencyRecorder recorder = endpoints.get(url);
+        if (recorder == null) {
+            expireEndpoints(now);
+            recorder = recorder(endpoints, url);
+        }
+        recorder.record(micros, now);
+    }
+
+    public void phase(String name, long micros) {
+        recorder(phases, name).record(micros);
+    }
+
+    public void notFound() {
+        notFound.incrementAndGet();
+    }
+
+    public void badGateway() {
+        badGateway.incrementAndGet();
+    }
+
+    public void accessLogWritten(int count) {
+        accessLogWritten.addAndGet(count);
+    }
+
+    public void accessLogDropped() {
+        accessLogDropped.incrementAndGet();
+    }
+
+    public void messageQueued() {
+        messagesReceived.incrementAndGet();
+        messagesQueued.incrementAndGet();
+    }
+
+    public void messageDuplicate() {
+        messagesReceived.incrementAndGet();
+        messagesDuplicate.incrementAndGet();
+    }
+
+    public void messageRejected() {
+        messagesRejected.incrementAndGet();
+        messagesQueued.decrementAndGet();
+    }
+
+    public void messageProcessed(long waitMicros, long processingMicros, boolean failed) {
+        messagesQueued.decrementAndGet();
+        if (failed)
+            messagesFailed.incrementAndGet();
+        messageWait.record(waitMicros);
+        messageProcessing.record(processingMicros);
+    }
+
+    public void apisRepublished(int count, boolean failed) {
+        republishes.incrementAndGet();
+        republishedApis.addAndGet(count);
+        if (failed)
+            republishFailures.incrementAndGet();
+
+        final long now = now();
+        synchronized (republishTimes) {
+            republishTimes.addLast(now);
+            expireRepublishes(now);
+        }
+    }
+
+    public void apisEvicted(int count) {
+        evictedApis.addAndGet(count);
+    }
+
+    public int republishesPerMinute() {
+        synchronized (republishTimes) {
+            expireRepublishes(now());
+            return republishTimes.size();
+        }
+    }
+
+    private void expireEndpoints(long now) {
+        final Iterator<LatencyRecorder> recorders = endpoints.values().iterator();
+        while (recorders.hasNext()) {
+            if (now - recorders.next().updated() > ENDPOINT_IDLE_MILLIS)
+                recorders.remove();
+        }
+    }
+
+    private void expireRepublishes(long now) {
+        while (!republishTimes.isEmpty() && now - republishTimes.peekFirst() >= 60000L) {
+            republishTimes.removeFirst();
+        }
+    }
+
+    public Map<String, Long> expiredByPath() {
+        final Map<String, Long> result = new HashMap<String, Long>();
+        for (Map.Entry<String, ApiMetrics> entry : apis.entrySet()) {
+            final long expired = entry.getValue().expiredCount();
+            if (expired > 0)
+                result.put(entry.getKey(), expired);
+        }
+        return result;
+    }
+
+    public JsonObject toJson() {
+        final JsonObject apisJson = new JsonObject();
+        for (Map.Entry<String, ApiMetrics> entry : sorted(apis).entrySet()) {
+            final ApiMetrics api = entry.getValue();
+
+            final JsonObject statuses = new JsonObject();
+            for (int i = 0; i < STATUS_CLASSES.length; i++) {
+                statuses.addProperty(STATUS_CLASSES[i], api.statuses.get(i));
+            }
+
+            final JsonObject json = new JsonObject();
+            json.add("latency", toJson(api.latency.snapshot()));
+            json.add("status", statuses);
+            json.addProperty("retries", api.retries.get());
+            json.addProperty("tempFaults", api.tempFaults.get());
+            json.addProperty("faulty", api.faulty.get());
+            json.addProperty("timeouts", api.timeouts.get());
+            json.addProperty("hedges", api.hedges.get());
+            json.addProperty("expired", api.expired.get());
+            apisJson.add(entry.getKey(), json);
+        }
+
+        expireEndpoints(now());
+        final JsonObject endpointsJson = new JsonObject();
+        for (Map.Entry<String, LatencyRecorder> entry : sorted(endpoints).entrySet()) {
+            endpointsJson.add(entry.getKey(), toJson(entry.getValue().snapshot()));
+        }
+
+        final JsonObject phasesJson = new JsonObject();
+        for (Map.Entry<String, LatencyRecorder> entry : sorted(phases).entrySet()) {
+            phasesJson.add(entry.getKey(), toJson(entry.getValue().snapshot()));
+        }
+
+        final JsonObject routing = new JsonObject();
+        routing.addProperty("notFound", notFound.get());
+        routing.addProperty("badGateway", badGateway.get());
+
+        final JsonObject accessLog = new JsonObject();
+        accessLog.addProperty("written", accessLogWritten.get());
+        accessLog.addProperty("dropped", accessLogDropped.get());
+
+        final JsonObject messages = new JsonObject();
+        messages.addProperty("received", messagesReceived.get());
+        messages.addProperty("rejected", messagesRejected.get());
+        messages.addProperty("failed", messagesFailed.get());
+        messages.addProperty("duplicates", messagesDuplicate.get());
+        messages.addProperty("queued", messagesQueued.get());
+        messages.add("waitMicros", toJson(messageWait.snapshot()));
+        messages.add("processingMicros", toJson(messageProcessing.snapshot()));
+
+        final JsonObject republish = new JsonObject();
+        republish.addProperty("publishes", republishes.get());
+        republish.addProperty("failed", republishFailures.get());
+        republish.addProperty("apis", republishedApis.get());
+        republish.addProperty("perMinute", republishesPerMinute());
+        republish.addProperty("evictedApis", evictedApis.get());
+
+        final JsonObject result = new JsonObject();
+        result.add("apis", apisJson);
+        result.add("endpoints", endpointsJson);
+        result.add("phases", phasesJson);
+        result.add("routing", routing);
+        result.add("accessLog", accessLog);
+        result.add("messages", messages);
+        result.add("republish", republish);
+        return result;
+    }
+
+    public String toPrometheus() {
+        final StringBuilder sb = new StringBuilder();
+
+        type(sb, "api_latency_microseconds", "summary");
+        for (Map.Entry<String, ApiMetrics> entry : sorted(apis).entrySet()) {
+            summary(sb, "api_latency_microseconds", "path", entry.getKey(), entry.getValue().latency.snapshot());
+        }
+
+        type(sb, "api_responses_total", "counter");
+        for (Map.Entry<String, ApiMetrics> entry : sorted(apis).entrySet()) {
+            for (int i = 0; i < STATUS_CLASSES.length; i++) {
+                sample(sb, "api_responses_total", "path", entry.getKey(), "status", STATUS_CLASSES[i], entry.getValue().statuses.get(i));
+            }
+        }
+
+        counter(sb, "api_retries_total", apis, new Counter() {public long of(ApiMetrics api) {return api.retries.get();}});
+        counter(sb, "api_temp_faults_total", apis, new Counter() {public long of(ApiMetrics api) {return api.tempFaults.get();}});
+        counter(sb, "api_faulty_total", apis, new Counter() {public long of(ApiMetrics api) {return api.faulty.get();}});
+        counter(sb, "api_timeouts_total", apis, new Counter() {public long of(ApiMetrics api) {return api.timeouts.get();}});
+        counter(sb, "api_hedges_total", apis, new Counter() {public long of(ApiMetrics api) {return api.hedges.get();}});
+        counter(sb, "api_expired_total", apis, new Counter() {public long of(ApiMetrics api) {return api.expired.get();}});
+
+        expireEndpoints(now());
+        type(sb, "endpoint_latency_microseconds", "summary");
+        for (Map.Entry<String, LatencyRecorder> entry : sorted(endpoints).entrySet()) {
+            summary(sb, "endpoint_latency_microseconds", "endpoint", entry.getKey(), entry.getValue().snapshot());
+        }
+
+        type(sb, "phase_latency_microseconds", "summary");
+        for (Map.Entry<String, LatencyRecorder> entry : sorted(phases).entrySet()) {
+            summary(sb, "phase_latency_microseconds", "phase", entry.getKey(), entry.getValue().snapshot());
+        }
+
+        type(sb, "routing_misses_total", "counter");
+        sample(sb, "routing_misses_total", "status", "404", null, null, notFound.get());
+        sample(sb, "routing_misses_total", "status", "502", null, null, badGateway.get());
+
+        type(sb, "access_log_records_total", "counter");
+        sample(sb, "access_log_records_total", "outcome", "written", null, null, accessLogWritten.get());
+        sample(sb, "access_log_records_total", "outcome", "dropped", null, null, accessLogDropped.get());
+
+        type(sb, "messages_total", "counter");
+        sample(sb, "messages_total", "outcome", "received", null, null, messagesReceived.get());
+        sample(sb, "messages_total", "outcome", "rejected", null, null, messagesRejected.get());
+        sample(sb, "messages_total", "outcome", "failed", null, null, messagesFailed.get());
+        sample(sb, "messages_total", "outcome", "duplicate", null, null, messagesDuplicate.get());
+
+        type(sb, "message_queue_depth", "gauge");
+        sample(sb, "message_queue_depth", "queue", "msnos", null, null, messagesQueued.get());
+
+        type(sb, "message_latency_microseconds", "summary");
+        summary(sb, "message_latency_microseconds", "phase", "wait", messageWait.snapshot());
+        summary(sb, "message_latency_microseconds", "phase", "processing", messageProcessing.snapshot());
+
+        type(sb, "api_republishes_total", "counter");
+        sample(sb, "api_republishes_total", "outcome", "published", null, null, republishes.get() - republishFailures.get());
+        sample(sb, "api_republishes_total", "outcome", "failed", null, null, republishFailures.get());
+
+        type(sb, "api_republished_apis_total", "counter");
+        sample(sb, "api_republished_apis_total", null, null, null, null, republishedApis.get());
+
+        type(sb, "api_evicted_apis_total", "counter");
+        sample(sb, "api_evicted_apis_total", null, null, null, null, evictedApis.get());
+
+        type(sb, "api_republishes_per_minute", "gauge");
+        sample(sb, "api_republishes_per_minute", null, null, null, null, republishesPerMinute());
+
+        return sb.toString();
+    }
+
+    private interface Counter {
+        long of(ApiMetrics api);
+    }
+
+    private static LatencyRecorder recorder(ConcurrentMap<String, LatencyRecorder> recorders, String key) {
+        LatencyRecorder recorder = recorders.get(key);
+        if (recorder == null) {
+            final LatencyRecorder fresh = new LatencyRecorder();
+            recorder = recorders.putIfAbsent(key, fresh);
+            if (recorder == null)
+                recorder = fresh;
+        }
+        return recorder;
+    }
+
+    private static JsonObject toJson(Histogram histogram) {
+        final JsonObject json = new JsonObject();
+        json.addProperty("count", histogram.getTotalCount());
+        json.addProperty("mean", (long) histogram.getMean());
+        json.addProperty("p50", histogram.getValueAtPercentile(50.0));
+        json.addProperty("p90", histogram.getValueAtPercentile(90.0));
+        json.addProperty("p99", histogram.getValueAtPercentile(99.0));
+        json.addProperty("p999", histogram.getValueAtPercentile(99.9));
+        json.addProperty("max", histogram.getMaxValue());
+        return json;
+    }
+
+    private static void counter(StringBuilder sb, String name, Map<String, ApiMetrics> apis, Counter counter) {
+        type(sb, name, "counter");
+        for (Map.Entry<String, ApiMetrics> entry : sorted(apis).entrySet()) {
+            sample(sb, name, "path", entry.getKey(), null, null, counter.of(entry.getValue()));
+        }
+    }
+
+    private static void summary(StringBuilder sb, String name, String label, String value, Histogram histogram) {
+        for (double quantile : QUANTILES) {
+            sample(sb, name, label, value, "quantile", Double.toString(quantile), histogram.getValueAtPercentile(quantile * 100.0));
+        }
+        sample(sb, name + "_count", label, value, null, null, histogram.getTotalCount());
+        sample(sb, name + "_sum", label, value, null, null, (long) (histogram.getMean() * histogram.getTotalCount()));
+    }
+
+    private static void type(StringBuilder sb, String name, String type) {
+        sb.append("# TYPE ").append(PREFIX).append(name).append(' ').append(type).append('\n');
+    }
+
+    private static void sample(StringBuilder sb, String name, String label, String value, String otherLabel, String otherValue, long sample) {
+        sb.append(PREFIX).append(name);
+        if (label != null) {
+            sb.append('{').append(label).append("=\"").append(escape(value)).append('"');
+            if (otherLabel != null)
+                sb.append(',').append(otherLabel).append("=\"").append(escape(otherValue)).append('"');
+            sb.append('}');
+        }
+        sb.append(' ').append(sample).append('\n');
+    }
+
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    private static <T> Map<String, T> sorted(Map<String, T> map) {
+        return new TreeMap<String, T>(map);
+    }
+
+    protected long now() {
+        return System.currentTimeMillis();
+    }
+}
@@ -0,0 +1,217 @@
+package com.msnos.proxy.metrics;
+
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.EventLoop;
+import io.netty.util.concurrent.SingleThreadEventExecutor;
+
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryUsage;
+import java.net.InetSocketAddress;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.net.ssl.SSLSession;
+
+import org.HdrHistogram.Histogram;
+import org.littleshoot.proxy.ActivityTracker;
+import org.littleshoot.proxy.ActivityTrackerAdapter;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+
+/**
+ * Netty and JVM internals of the running proxy, served by the admin
+ * interface: connections, event loops, buffers, heap and collectors. All of
+ * them are read from counters or management beans when asked, so that they
+ * can be scraped every few seconds; the only background work is a probe
+ * task that measures how late each event loop runs its scheduled tasks.
+ */
+public class RuntimeStats {
+
+    public static final long PROBE_MILLIS = Long.getLong("com.msnos.proxy.runtime.probe", 1000L);
+
+    public static final RuntimeStats DEFAULT = new RuntimeStats(PROBE_MILLIS);
+
+    private final long probeMillis;
+    private final ConcurrentMap<EventLoop, Probe> loops = new ConcurrentHashMap<EventLoop, Probe>();
+    private final AtomicInteger clients = new AtomicInteger();
+    private final AtomicLong clientsTotal = new AtomicLong();
+    private final AtomicInteger upstreams = new AtomicInteger();
+    private final AtomicInteger hedges = new AtomicInteger();
+
+    private volatile ByteBufAllocator allocator;
+
+    public RuntimeStats(long probeMillis) {
+        this.probeMillis = probeMillis;
+    }
+
+    /**
+     * Tracks the client connections of the proxy server.
+     */
+    public ActivityTracker tracker() {
+        return new ActivityTrackerAdapter() {
+            @Override
+            public void clientConnected(InetSocketAddress clientAddress) {
+                clients.incrementAndGet();
+                clientsTotal.incrementAndGet();
+            }
+
+            @Override
+            public void clientDisconnected(InetSocketAddress clientAddress, SSLSession sslSession) {
+                clients.decrementAndGet();
+            }
+        };
+    }
+
+    /**
+     * Starts probing the event loop of a client channel, once per loop.
+     */
+    public void channel(Channel channel) {
+        if (allocator == null)
+            allocator = channel.config().getAllocator();
+
+        final EventLoop loop = channel.eventLoop();
+        if (loops.containsKey(loop))
+            return;
+
+        final Probe probe = new Probe(loop, loops.size());
+        if (loops.putIfAbsent(loop, probe) == null)
+            probe.schedule();
+    }
+
+    public void upstreamBusy() {
+        upstreams.incrementAndGet();
+    }
+
+    public void upstreamIdle() {
+        upstreams.decrementAndGet();
+    }
+
+    public void hedge(Channel channel) {
+        hedges.incrementAndGet();
+        channel.closeFuture().addListener(new ChannelFutureListener() {
+            @Override
+            public void operationComplete(ChannelFuture future) throws Exception {
+                hedges.decrementAndGet();
+            }
+        });
+    }
+
+    public JsonObject toJson() {
+        final JsonObject connections = new JsonObject();
+        connections.addProperty("clients", clients.get());
+        connections.addProperty("clientsTotal", clientsTotal.get());
+        connections.addProperty("upstreamsBusy", upstreams.get());
+        connections.addProperty("hedges", hedges.get());
+
+        final JsonArray eventLoops = new JsonArray();
+        for (Probe probe : loops.values()) {
+            eventLoops.add(probe.toJson());
+        }
+
+        final JsonObject result = new JsonObject();
+        result.add("connections", connections);
+        result.add("eventLoops", eventLoops);
+        result.add("buffers", buffers());
+        result.add("memory", memory());
+        result.add("gc", gc());
+        return result;
+    }
+
+    private JsonObject buffers() {
+        final ByteBufAllocator current = allocator;
+
+        final JsonObject result = new JsonObject();
+        result.addProperty("allocator", current == null ? "n/a" : current.getClass().getSimpleName());
+        for (BufferPoolMXBean pool : ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class)) {
+            final JsonObject json = new JsonObject();
+            json.addProperty("count", pool.getCount());
+            json.addProperty("used", pool.getMemoryUsed());
+            json.addProperty("capacity", pool.getTotalCapacity());
+            result.add(pool.getName(), json);
+        }
+        return result;
+    }
+
+    private static JsonObject memory() {
+        final JsonObject result = new JsonObject();
+        result.add("heap", toJson(ManagementFactory.getMemoryMXBean().getHeapMemoryUsage()));
+        result.add("nonHeap", toJson(ManagementFactory.getMemoryMXBean().getNonHeapMemoryUsage()));
+        return result;
+    }
+
+    private static JsonObject gc() {
+        final JsonObject result = new JsonObject();
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            final JsonObject json = new JsonObject();
+            json.addProperty("count", collector.getCollectionCount());
+            json.addProperty("timeMillis", collector.getCollectionTime());
+            result.add(collector.getName(), json);
+        }
+        return result;
+    }
+
+    private static JsonObject toJson(MemoryUsage usage) {
+        final JsonObject json = new JsonObject();
+        json.addProperty("used", usage.getUsed());
+        json.addProperty("committed", usage.getCommitted());
+        json.addProperty("max", usage.getMax());
+        return json;
+    }
+
+    /**
+     * A task rescheduling itself on an event loop, recording how late it
+     * runs: the time the loop is too busy to serve its queue.
+     */
+    private class Probe implements Runnable {
+
+        private final EventLoop loop;
+        private final int index;
+        private final LatencyRecorder lag = new LatencyRecorder();
+
+        private volatile String thread;
+        private volatile long lastLagMicros;
+        private long due;
+
+        Probe(EventLoop loop, int index) {
+            this.loop = loop;
+            this.index = index;
+        }
+
+        void schedule() {
+            due = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(probeMillis);
+            loop.schedule(this, probeMillis, TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        public void run() {
+            thread = Thread.currentThread().getName();
+            lastLagMicros = Math.max(0, (System.nanoTime() - due) / 1000L);
+            lag.record(lastLagMicros);
+
+            if (!loop.isShuttingDown())
+                schedule();
+        }
+
+        JsonObject toJson() {
+            final Histogram histogram = lag.snapshot();
+
+            final JsonObject json = new JsonObject();
+            json.addProperty("index", index);
+            json.addProperty("thread", thread);
+            json.addProperty("pendingTasks", loop instanceof SingleThreadEventExecutor ? ((SingleThreadEventExecutor) loop).pendingTasks() : -1);
+            json.addProperty("lagMicros", lastLagMicros);
+            json.addProperty("lagP99Micros", histogram.getValueAtPercentile(99.0));
+            json.addProperty("lagMaxMicros", histogram.getMaxValue());
+            return json;
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package com.msnos.proxy.metrics;
+
+import com.google.gson.JsonObject;
+
+/**
+ * The hottest api paths, clients and upstream endpoints over a sliding
+ * window, served by the admin interface. Memory is fixed by the sketch
+ * dimensions and the number of heavy hitters tracked, whatever the number
+ * of distinct paths or clients.
+ */
+public class TopTraffic {
+
+    public static final int SIZE = Integer.getInteger("com.msnos.proxy.top.size", 20);
+    public static final long WINDOW_MILLIS = Long.getLong("com.msnos.proxy.top.window", 60000L);
+    public static final int SLOTS = Integer.getInteger("com.msnos.proxy.top.slots", 6);
+    public static final int DEPTH = Integer.getInteger("com.msnos.proxy.top.depth", 4);
+    public static final int WIDTH = Integer.getInteger("com.msnos.proxy.top.width", 1024);
+
+    public static final TopTraffic DEFAULT = new TopTraffic(SIZE, WINDOW_MILLIS, SLOTS, DEPTH, WIDTH);
+
+    private final HeavyHitters paths;
+    private final HeavyHitters clients;
+    private final HeavyHitters endpoints;
+    private final int size;
+
+    public TopTraffic(int size, long windowMillis, int slots, int depth, int width) {
+        this(new HeavyHitters(size, windowMillis, slots, depth, width), new HeavyHitters(size, windowMillis, slots, depth, width), new HeavyHitters(size, windowMillis, slots, depth, width), size);
+    }
+
+    TopTraffic(HeavyHitters paths, HeavyHitters clients, HeavyHitters endpoints, int size) {
+        this.paths = paths;
+        this.clients = clients;
+        this.endpoints = endpoints;
+        this.size = size;
+    }
+
+    public void request(String path, String client) {
+        paths.add(path);
+        clients.add(client);
+    }
+
+    public void endpoint(String url) {
+        endpoints.add(url);
+    }
+
+    public JsonObject toJson() {
+        final JsonObject result = new JsonObject();
+        result.addProperty("windowSeconds", paths.windowMillis() / 1000L);
+        result.add("paths", paths.toJson(size));
+        result.add("clients", clients.toJson(size));
+        result.add("endpoints", endpoints.toJson(size));
+        return result;
+    }
+}
@@ -0,0 +1,47 @@
+package com.msnos.proxy.trace;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Appends every batch of spans to a file as a line of OTLP/JSON, the format
+ * read by the file receiver of the OpenTelemetry collector.
+ */
+public class FileSpanExporter implements SpanExporter {
+
+    private static final Logger log = LoggerFactory.getLogger(FileSpanExporter.class);
+
+    private final File file;
+    private Writer writer;
+
+    public FileSpanExporter(File file) {
+        this.file = file;
+    }
+
+    @Override
+    public void export(List<Span> spans) throws IOException {
+        if (writer == null)
+            writer = new OutputStreamWriter(new FileOutputStream(file, true), "UTF-8");
+
+        writer.write(OtlpJson.encode(spans));
+        writer.write('\n');
+        writer.flush();
+    }
+
+    @Override
+    public void close() {
+        try {
+            if (writer != null)
+                writer.close();
+        } catch (IOException e) {
+            log.warn("Unable to close span file {}", file);
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package com.msnos.proxy.trace;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.List;
+
+/**
+ * Posts every batch of spans to an OTLP/HTTP collector endpoint, usually
+ * http://collector:4318/v1/traces, as json.
+ */
+public class OtlpHttpSpanExporter implements SpanExporter {
+
+    public static final int TIMEOUT_MILLIS = Integer.getInteger("com.msnos.proxy.trace.otlp.timeout", 5000);
+
+    private final URL endpoint;
+
+    public OtlpHttpSpanExporter(URL endpoint) {
+        this.endpoint = endpoint;
+    }
+
+    @Override
+    public void export(List<Span> spans) throws IOException {
+        final byte[] body = OtlpJson.encode(spans).getBytes("UTF-8");
+
+        final HttpURLConnection connection = (HttpURLConnection) endpoint.openConnection();
+        try {
+            connection.setRequestMethod("POST");
+            connection.setDoOutput(true);
+            connection.setConnectTimeout(TIMEOUT_MILLIS);
+            connection.setReadTimeout(TIMEOUT_MILLIS);
+            connection.setFixedLengthStreamingMode(body.length);
+            connection.setRequestProperty("Content-Type", "application/json");
+
+            final OutputStream out = connection.getOutputStream();
+            try {
+                out.write(body);
+            } finally {
+                out.close();
+            }
+
+            final int status = connection.getResponseCode();
+            final InputStream in = status < 400 ? connection.getInputStream() : connection.getErrorStream();
+            if (in != null)
+                in.close();
+
+            if (status >= 300)
+                throw new IOException("Collector at " + endpoint + " answered " + status);
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    @Override
+    public void close() {
+    }
+}
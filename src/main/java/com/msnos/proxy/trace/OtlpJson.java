@@ -0,0 +1,93 @@
+package com.msnos.proxy.trace;
+
+import java.util.List;
+import java.util.Map;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+
+/**
+ * Encodes spans as an OTLP/JSON ExportTraceServiceRequest, the payload of
+ * the /v1/traces endpoint of an OpenTelemetry collector.
+ */
+class OtlpJson {
+
+    static final String SERVICE_NAME = "ms-nos-proxy";
+    static final String SCOPE_NAME = "com.msnos.proxy";
+
+    private static final int STATUS_ERROR = 2;
+
+    static String encode(List<Span> spans) {
+        final JsonArray spansJson = new JsonArray();
+        for (Span span : spans) {
+            spansJson.add(encode(span));
+        }
+
+        final JsonObject scope = new JsonObject();
+        scope.addProperty("name", SCOPE_NAME);
+
+        final JsonObject scopeSpans = new JsonObject();
+        scopeSpans.add("scope", scope);
+        scopeSpans.add("spans", spansJson);
+
+        final JsonArray scopeSpansList = new JsonArray();
+        scopeSpansList.add(scopeSpans);
+
+        final JsonArray resourceAttributes = new JsonArray();
+        resourceAttributes.add(attribute("service.name", SERVICE_NAME));
+
+        final JsonObject resource = new JsonObject();
+        resource.add("attributes", resourceAttributes);
+
+        final JsonObject resourceSpans = new JsonObject();
+        resourceSpans.add("resource", resource);
+        resourceSpans.add("scopeSpans", scopeSpansList);
+
+        final JsonArray resourceSpansList = new JsonArray();
+        resourceSpansList.add(resourceSpans);
+
+        final JsonObject request = new JsonObject();
+        request.add("resourceSpans", resourceSpansList);
+        return request.toString();
+    }
+
+    private static JsonObject encode(Span span) {
+        final JsonObject json = new JsonObject();
+        json.addProperty("traceId", span.context().traceId());
+        json.addProperty("spanId", span.context().spanId());
+        if (span.parentSpanId() != null)
+            json.addProperty("parentSpanId", span.parentSpanId());
+        json.addProperty("name", span.name());
+        json.addProperty("kind", span.kind().code);
+        json.addProperty("startTimeUnixNano", Long.toString(span.startEpochNanos()));
+        json.addProperty("endTimeUnixNano", Long.toString(span.endEpochNanos()));
+
+        final JsonArray attributes = new JsonArray();
+        for (Map.Entry<String, Object> entry : span.attributes().entrySet()) {
+            attributes.add(attribute(entry.getKey(), entry.getValue()));
+        }
+        json.add("attributes", attributes);
+
+        if (span.isError()) {
+            final JsonObject status = new JsonObject();
+            status.addProperty("code", STATUS_ERROR);
+            json.add("status", status);
+        }
+        return json;
+    }
+
+    private static JsonObject attribute(String key, Object value) {
+        final JsonObject any = new JsonObject();
+        if (value instanceof Boolean)
+            any.addProperty("boolValue", (Boolean) value);
+        else if (value instanceof Integer || value instanceof Long)
+            any.addProperty("intValue", value.toString());
+        else
+            any.addProperty("stringValue", value.toString());
+
+        final JsonObject json = new JsonObject();
+        json.addProperty("key", key);
+        json.add("value", any);
+        return json;
+    }
+}
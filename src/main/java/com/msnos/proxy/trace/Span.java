@@ -0,0 +1,101 @@
+package com.msnos.proxy.trace;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A timed operation of a trace. Spans that are not sampled still carry the
+ * context to propagate, but record nothing and are never exported.
+ */
+public class Span {
+
+    public enum Kind {
+        INTERNAL(1), SERVER(2), CLIENT(3);
+
+        final int code;
+
+        Kind(int code) {
+            this.code = code;
+        }
+    }
+
+    private final Tracer tracer;
+    private final TraceContext context;
+    private final String parentSpanId;
+    private final String name;
+    private final Kind kind;
+    private final long startNanos;
+    private final long startEpochNanos;
+    private final Map<String, Object> attributes;
+
+    private long endEpochNanos;
+    private boolean error;
+
+    Span(Tracer tracer, TraceContext context, String parentSpanId, String name, Kind kind) {
+        this.tracer = tracer;
+        this.context = context;
+        this.parentSpanId = parentSpanId;
+        this.name = name;
+        this.kind = kind;
+        this.startNanos = System.nanoTime();
+        this.startEpochNanos = System.currentTimeMillis() * 1000000L;
+        this.attributes = context.isSampled() ? new LinkedHashMap<String, Object>() : null;
+    }
+
+    public Span child(String name, Kind kind) {
+        return new Span(tracer, context.child(), context.spanId(), name, kind);
+    }
+
+    public TraceContext context() {
+        return context;
+    }
+
+    public synchronized Span attribute(String key, Object value) {
+        if (attributes != null && value != null && endEpochNanos == 0)
+            attributes.put(key, value);
+        return this;
+    }
+
+    public synchronized Span error() {
+        if (endEpochNanos == 0)
+            error = true;
+        return this;
+    }
+
+    public synchronized void end() {
+        if (endEpochNanos != 0)
+            return;
+
+        endEpochNanos = startEpochNanos + (System.nanoTime() - startNanos);
+        if (context.isSampled())
+            tracer.export(this);
+    }
+
+    String name() {
+        return name;
+    }
+
+    Kind kind() {
+        return kind;
+    }
+
+    String parentSpanId() {
+        return parentSpanId;
+    }
+
+    long startEpochNanos() {
+        return startEpochNanos;
+    }
+
+    long endEpochNanos() {
+        return endEpochNanos;
+    }
+
+    boolean isError() {
+        return error;
+    }
+
+    Map<String, Object> attributes() {
+        return attributes;
+    }
+}
@@ -0,0 +1,11 @@
+package com.msnos.proxy.trace;
+
+import java.io.IOException;
+import java.util.List;
+
+public interface SpanExporter {
+
+    void export(List<Span> spans) throws IOException;
+
+    void close();
+}
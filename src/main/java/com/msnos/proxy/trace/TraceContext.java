@@ -0,0 +1,108 @@
+package com.msnos.proxy.trace;
+
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * A W3C trace context, as carried by the traceparent header:
+ * version-traceid-spanid-flags, all in lowercase hex.
+ */
+public class TraceContext {
+
+    public static final String TRACEPARENT = "traceparent";
+
+    private static final String VERSION = "00";
+    private static final int FLAG_SAMPLED = 1;
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final String traceId;
+    private final String spanId;
+    private final boolean sampled;
+
+    TraceContext(String traceId, String spanId, boolean sampled) {
+        this.traceId = traceId;
+        this.spanId = spanId;
+        this.sampled = sampled;
+    }
+
+    public static TraceContext parse(String header) {
+        if (header == null)
+            return null;
+
+        final String value = header.trim();
+        if (value.length() < 55 || value.charAt(2) != '-' || value.charAt(35) != '-' || value.charAt(52) != '-')
+            return null;
+
+        final String version = value.substring(0, 2);
+        final String traceId = value.substring(3, 35);
+        final String spanId = value.substring(36, 52);
+        final String flags = value.substring(53, 55);
+        if (!isHex(version) || "ff".equals(version) || (VERSION.equals(version) && value.length() != 55))
+            return null;
+        if (!isHex(traceId) || isZero(traceId) || !isHex(spanId) || isZero(spanId) || !isHex(flags))
+            return null;
+
+        return new TraceContext(traceId, spanId, (Integer.parseInt(flags, 16) & FLAG_SAMPLED) != 0);
+    }
+
+    public static TraceContext root(boolean sampled) {
+        return new TraceContext(newId(16), newId(8), sampled);
+    }
+
+    public TraceContext child() {
+        return new TraceContext(traceId, newId(8), sampled);
+    }
+
+    public String traceId() {
+        return traceId;
+    }
+
+    public String spanId() {
+        return spanId;
+    }
+
+    public boolean isSampled() {
+        return sampled;
+    }
+
+    public String format() {
+        return VERSION + "-" + traceId + "-" + spanId + (sampled ? "-01" : "-00");
+    }
+
+    @Override
+    public String toString() {
+        return format();
+    }
+
+    static String newId(int bytes) {
+        final Random rnd = ThreadLocalRandom.current();
+        final char[] chars = new char[bytes * 2];
+        boolean zero = true;
+        for (int i = 0; i < chars.length; i += 2) {
+            final int b = rnd.nextInt(256);
+            zero &= b == 0;
+            chars[i] = HEX[b >> 4];
+            chars[i + 1] = HEX[b & 0xF];
+        }
+        if (zero)
+            chars[chars.length - 1] = '1';
+        return new String(chars);
+    }
+
+    private static boolean isHex(String value) {
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            if ((c < '0' || c > '9') && (c < 'a' || c > 'f'))
+                return false;
+        }
+        return true;
+    }
+
+    private static boolean isZero(String value) {
+        for (int i = 0; i < value.length(); i++) {
+            if (value.charAt(i) != '0')
+                return false;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,144 @@
+package com.msnos.proxy.trace;
+
+import java.io.File;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Creates the spans of the proxied requests and exports the sampled ones
+ * from a background thread, so the event loop only ever enqueues them. The
+ * sampling decision is taken once at the head of the trace: an incoming
+ * traceparent is always honoured, otherwise a fraction of the new traces is
+ * sampled, but only when an exporter is configured.
+ */
+public class Tracer {
+
+    private static final Logger log = LoggerFactory.getLogger(Tracer.class);
+
+    public static final boolean DISABLED = Boolean.getBoolean("com.msnos.proxy.trace.disable");
+    public static final String FILE = System.getProperty("com.msnos.proxy.trace.file");
+    public static final String OTLP = System.getProperty("com.msnos.proxy.trace.otlp");
+    public static final double SAMPLE_RATE = Double.parseDouble(System.getProperty("com.msnos.proxy.trace.sample", "0.01"));
+    public static final int QUEUE_SIZE = Integer.getInteger("com.msnos.proxy.trace.queue", 8192);
+    public static final int BATCH_SIZE = Integer.getInteger("com.msnos.proxy.trace.batch", 512);
+    public static final long FLUSH_MILLIS = Long.getLong("com.msnos.proxy.trace.flush", 1000L);
+
+    public static final Tracer DEFAULT = DISABLED ? null : new Tracer(exporter(), SAMPLE_RATE, QUEUE_SIZE).start();
+
+    private final SpanExporter exporter;
+    private final double sampleRate;
+    private final BlockingQueue<Span> queue;
+    private final AtomicLong dropped = new AtomicLong();
+    private final Thread thread;
+
+    private volatile boolean running = true;
+
+    public Tracer(SpanExporter exporter, double sampleRate, int queueSize) {
+        this.exporter = exporter;
+        this.sampleRate = exporter == null ? 0.0 : sampleRate;
+        this.queue = new ArrayBlockingQueue<Span>(queueSize);
+        this.thread = new Thread(new Exporter(), "msnos-trace-exporter");
+        this.thread.setDaemon(true);
+    }
+
+    public Tracer start() {
+        if (exporter != null)
+            thread.start();
+        return this;
+    }
+
+    /**
+     * Starts the span of a request received by the proxy, continuing the
+     * trace of the given traceparent header when valid.
+     */
+    public Span server(String name, String traceparent) {
+        final TraceContext parent = TraceContext.parse(traceparent);
+        if (parent == null)
+            return new Span(this, TraceContext.root(sample()), null, name, Span.Kind.SERVER);
+        else
+            return new Span(this, parent.child(), parent.spanId(), name, Span.Kind.SERVER);
+    }
+
+    public long dropped() {
+        return dropped.get();
+    }
+
+    public void close() {
+        running = false;
+        thread.interrupt();
+        try {
+            thread.join(FLUSH_MILLIS * 2);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    void export(Span span) {
+        if (exporter != null && !queue.offer(span))
+            dropped.incrementAndGet();
+    }
+
+    private boolean sample() {
+        if (sampleRate <= 0.0)
+            return false;
+
+        return ThreadLocalRandom.current().nextDouble() < sampleRate;
+    }
+
+    private class Exporter implements Runnable {
+        @Override
+        public void run() {
+            final List<Span> batch = new ArrayList<Span>(BATCH_SIZE);
+            try {
+                while (running || !queue.isEmpty()) {
+                    try {
+                        final Span first = queue.poll(FLUSH_MILLIS, TimeUnit.MILLISECONDS);
+                        if (first == null)
+                            continue;
+
+                        batch.add(first);
+                        queue.drainTo(batch, BATCH_SIZE - 1);
+                    } catch (InterruptedException e) {
+                        queue.drainTo(batch);
+                    }
+
+                    if (!batch.isEmpty()) {
+                        try {
+                            exporter.export(batch);
+                        } catch (Exception e) {
+                            log.warn("Unable to export {} spans: {}", batch.size(), e.getMessage());
+                        }
+                        batch.clear();
+                    }
+                }
+            } finally {
+                exporter.close();
+            }
+        }
+    }
+
+    private static SpanExporter exporter() {
+        if (OTLP != null) {
+            try {
+                return new OtlpHttpSpanExporter(new URL(OTLP));
+            } catch (MalformedURLException e) {
+                log.error("Invalid OTLP endpoint {}, spans will not be exported", OTLP);
+            }
+        }
+
+        if (FILE != null)
+            return new FileSpanExporter(new File(FILE));
+
+        return null;
+    }
+}
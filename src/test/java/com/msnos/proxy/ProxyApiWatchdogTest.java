@@ -1,17 +1,28 @@
 package com.msnos.proxy;
 
+import com.msnos.proxy.metrics.Metrics;
 import com.workshare.msnos.core.*;
+import com.workshare.msnos.core.payloads.FltPayload;
 import com.workshare.msnos.core.payloads.QnePayload;
 import com.workshare.msnos.usvc.Microcloud;
 import com.workshare.msnos.usvc.Microservice;
+import com.workshare.msnos.usvc.RemoteMicroservice;
 import com.workshare.msnos.usvc.api.RestApi;
 import org.junit.Before;
 import org.junit.Test;
 import org.mockito.ArgumentCaptor;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 import java.util.UUID;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
+import static org.junit.Assert.assertEquals;
 import static org.mockito.Mockito.*;
 
 public class ProxyApiWatchdogTest {
@@ -19,9 +30,38 @@ public class ProxyApiWatchdogTest {
     private Cloud cloud;
     private Microservice microservice;
     private Microcloud microcloud;
+    private ScheduledExecutorService executor;
+    private List<Runnable> windows;
+    private Runnable sweep;
+    private Metrics metrics;
 
     @Before
     public void setUp() throws Exception {
+        metrics = new Metrics();
+        windows = new ArrayList<Runnable>();
+        executor = mock(ScheduledExecutorService.class);
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) throws Throwable {
+                ((Runnable) invocation.getArguments()[0]).run();
+                return null;
+            }
+        }).when(executor).execute(any(Runnable.class));
+        doAnswer(new Answer<Object>() {
+            @Override
+            public Object answer(InvocationOnMock invocation) throws Throwable {
+                windows.add((Runnable) invocation.getArguments()[0]);
+                return null;
+            }
+        }).when(executor).schedule(any(Runnable.class), anyLong(), any(TimeUnit.class));
+        doAnswer(new Answer<Object>() {
+            @Override
+            public Object answer(InvocationOnMock invocation) throws Throwable {
+                sweep = (Runnable) invocation.getArguments()[0];
+                return null;
+            }
+        }).when(executor).scheduleWithFixedDelay(any(Runnable.class), anyLong(), anyLong(), any(TimeUnit.class));
+
         cloud = mock(Cloud.class);
         when(cloud.getIden()).thenReturn(new Iden(Iden.Type.CLD, UUID.randomUUID()));
         when(cloud.getRing()).thenReturn(Ring.random());
@@ -33,7 +73,7 @@ public class ProxyApiWatchdogTest {
 
     @Test
     public void shouldListenToTheCloud() throws Exception {
-        ProxyApiWatchdog watchdog = new ProxyApiWatchdog(microservice, 8881);
+        ProxyApiWatchdog watchdog = newWatchdog();
         watchdog.start();
 
         verify(cloud, atLeastOnce()).addListener(any(Cloud.Listener.class));
@@ -43,11 +83,12 @@ public class ProxyApiWatchdogTest {
     public void shouldRepublishProxyQNEWhenQNEPayloadReceived() throws Exception {
         microservice = getMockMicroservice();
 
-        ProxyApiWatchdog watchdog = new ProxyApiWatchdog(microservice, 8881);
+        ProxyApiWatchdog watchdog = newWatchdog();
         watchdog.start();
 
         simulateMessageFromCloud(new MessageBuilder(Message.Type.QNE, cloud, microservice.getAgent().getIden()).with(UUID.randomUUID()).with(new QnePayload("WatchDAWG", new RestApi("test", 9999))).make());
         simulateMessageFromCloud(new MessageBuilder(Message.Type.PIN, cloud, microservice.getAgent().getIden()).with(UUID.randomUUID()).make());
+        closeWindows();
 
         verify(microservice, times(1)).publish(any(RestApi.class));
     }
@@ -56,11 +97,12 @@ public class ProxyApiWatchdogTest {
     public void shouldNOTPublishAnythingWhenOtherMessagesReceived() throws Exception {
         microservice = getMockMicroservice();
 
-        ProxyApiWatchdog watchdog = new ProxyApiWatchdog(microservice, 8881);
+        ProxyApiWatchdog watchdog = newWatchdog();
         watchdog.start();
 
         simulateMessageFromCloud(new MessageBuilder(Message.Type.PRS, cloud, microservice.getAgent().getIden()).with(UUID.randomUUID()).make());
         simulateMessageFromCloud(new MessageBuilder(Message.Type.PIN, cloud, microservice.getAgent().getIden()).with(UUID.randomUUID()).make());
+        closeWindows();
 
         verify(microservice, never()).publish(any(RestApi.class));
     }
@@ -69,15 +111,180 @@ public class ProxyApiWatchdogTest {
     public void shouldNOTRepublishAlreadyReverseProxiedApis() throws Exception {
         microservice = getMockMicroservice();
 
-        ProxyApiWatchdog watchdog = new ProxyApiWatchdog( microservice, 8881);
+        ProxyApiWatchdog watchdog = newWatchdog();
         watchdog.start();
 
         simulateMessageFromCloud(new MessageBuilder(Message.Type.QNE, cloud, microservice.getAgent().getIden()).with(UUID.randomUUID()).with(new QnePayload("WatchDAWG", new RestApi("test", 9999))).make());
+        closeWindows();
         simulateMessageFromCloud(new MessageBuilder(Message.Type.QNE, cloud, microservice.getAgent().getIden()).with(UUID.randomUUID()).with(new QnePayload("WatchDAWG", new RestApi("test", 9999))).make());
+        closeWindows();
 
         verify(microservice, times(1)).publish(any(RestApi.class));
     }
 
+    @Test
+    public void shouldPublishAllApisAnnouncedWithinWindowAtOnce() throws Exception {
+        microservice = getMockMicroservice();
+
+        ProxyApiWatchdog watchdog = newWatchdog();
+        watchdog.start();
+
+        simulateMessageFromCloud(new MessageBuilder(Message.Type.QNE, cloud, microservice.getAgent().getIden()).with(UUID.randomUUID()).with(new QnePayload("WatchDAWG", new RestApi("one", 9991))).make());
+        simulateMessageFromCloud(new MessageBuilder(Message.Type.QNE, cloud, microservice.getAgent().getIden()).with(UUID.randomUUID()).with(new QnePayload("WatchDAWG", new RestApi("two", 9992))).make());
+        simulateMessageFromCloud(new MessageBuilder(Message.Type.QNE, cloud, microservice.getAgent().getIden()).with(UUID.randomUUID()).with(new QnePayload("WatchDAWG", new RestApi("three", 9993))).make());
+
+        verify(microservice, never()).publish(any(RestApi.class));
+        assertEquals(1, windows.size());
+        closeWindows();
+
+        verify(microservice, times(1)).publish(any(RestApi.class), any(RestApi.class), any(RestApi.class));
+        assertEquals(1, metrics.toJson().getAsJsonObject("republish").get("publishes").getAsLong());
+        assertEquals(3, metrics.toJson().getAsJsonObject("republish").get("apis").getAsLong());
+        assertEquals(1, metrics.republishesPerMinute());
+    }
+
+    @Test
+    public void shouldCollectAnnouncementsOffTheListenerThread() throws Exception {
+        microservice = getMockMicroservice();
+        executor = mock(ScheduledExecutorService.class);
+
+        ProxyApiWatchdog watchdog = newWatchdog();
+        watchdog.start();
+
+        simulateMessageFromCloud(new MessageBuilder(Message.Type.QNE, cloud, microservice.getAgent().getIden()).with(UUID.randomUUID()).with(new QnePayload("WatchDAWG", new RestApi("test", 9999))).make());
+
+        verify(executor).execute(any(Runnable.class));
+        verify(microservice, never()).publish(any(RestApi.class));
+    }
+
+    @Test
+    public void shouldEvictApiWhenItsLastBackendFaults() throws Exception {
+        microservice = getMockMicroservice();
+        Iden one = new Iden(Iden.Type.AGT, UUID.randomUUID());
+        Iden two = new Iden(Iden.Type.AGT, UUID.randomUUID());
+
+        ProxyApiWatchdog watchdog = newWatchdog();
+        watchdog.start();
+
+        simulateMessageFromCloud(new MessageBuilder(Message.Type.QNE, one, microservice.getAgent().getIden()).with(UUID.randomUUID()).with(new QnePayload("WatchDAWG", new RestApi("test", 9999))).make());
+        simulateMessageFromCloud(new MessageBuilder(Message.Type.QNE, two, microservice.getAgent().getIden()).with(UUID.randomUUID()).with(new QnePayload("WatchDAWG", new RestApi("test", 9998))).make());
+        closeWindows();
+        simulateMessageFromCloud(new MessageBuilder(Message.Type.FLT, cloud, microservice.getAgent().getIden()).with(UUID.randomUUID()).with(new FltPayload(one)).make());
+        closeWindows();
+
+        verify(microservice, never()).leave();
+        assertEquals(1, watchdog.size());
+
+        simulateMessageFromCloud(new MessageBuilder(Message.Type.FLT, cloud, microservice.getAgent().getIden()).with(UUID.randomUUID()).with(new FltPayload(two)).make());
+        closeWindows();
+
+        verify(microservice, never()).leave();
+        verify(microservice, never()).join(any(Microcloud.class));
+        assertEquals(0, watchdog.size());
+        assertEquals(1, metrics.toJson().getAsJsonObject("republish").get("evictedApis").getAsLong());
+    }
+
+    @Test
+    public void shouldPublishEvictedApiAgainWhenABackendComesBack() throws Exception {
+        microservice = getMockMicroservice();
+        Iden one = new Iden(Iden.Type.AGT, UUID.randomUUID());
+
+        ProxyApiWatchdog watchdog = newWatchdog();
+        watchdog.start();
+
+        simulateMessageFromCloud(new MessageBuilder(Message.Type.QNE, one, microservice.getAgent().getIden()).with(UUID.randomUUID()).with(new QnePayload("WatchDAWG", new RestApi("test", 9999))).make());
+        closeWindows();
+        simulateMessageFromCloud(new MessageBuilder(Message.Type.FLT, cloud, microservice.getAgent().getIden()).with(UUID.randomUUID()).with(new FltPayload(one)).make());
+        simulateMessageFromCloud(new MessageBuilder(Message.Type.QNE, one, microservice.getAgent().getIden()).with(UUID.randomUUID()).with(new QnePayload("WatchDAWG", new RestApi("test", 9999))).make());
+        closeWindows();
+
+        verify(microservice, times(2)).publish(any(RestApi.class));
+        assertEquals(1, watchdog.size());
+    }
+
+    @Test
+    public void shouldNotCountEvictedApiThatWasNeverPublished() throws Exception {
+        microservice = getMockMicroservice();
+        Iden one = new Iden(Iden.Type.AGT, UUID.randomUUID());
+
+        ProxyApiWatchdog watchdog = newWatchdog();
+        watchdog.start();
+
+        simulateMessageFromCloud(new MessageBuilder(Message.Type.QNE, one, microservice.getAgent().getIden()).with(UUID.randomUUID()).with(new QnePayload("WatchDAWG", new RestApi("test", 9999))).make());
+        simulateMessageFromCloud(new MessageBuilder(Message.Type.FLT, cloud, microservice.getAgent().getIden()).with(UUID.randomUUID()).with(new FltPayload(one)).make());
+        closeWindows();
+
+        verify(microservice, never()).publish(any(RestApi.class));
+        assertEquals(0, watchdog.size());
+        assertEquals(0, metrics.toJson().getAsJsonObject("republish").get("evictedApis").getAsLong());
+    }
+
+    @Test
+    public void shouldIgnoreApisAnnouncedWithoutSender() throws Exception {
+        microservice = getMockMicroservice();
+        Message message = mock(Message.class);
+        when(message.getType()).thenReturn(Message.Type.QNE);
+        when(message.getData()).thenReturn(new QnePayload("WatchDAWG", new RestApi("test", 9999)));
+
+        ProxyApiWatchdog watchdog = newWatchdog();
+        watchdog.start();
+
+        simulateMessageFromCloud(message);
+        closeWindows();
+
+        verify(microservice, never()).publish(any(RestApi.class));
+        assertEquals(0, watchdog.size());
+    }
+
+    @Test
+    public void shouldEvictBackendsNoLongerInTheCloud() throws Exception {
+        microcloud = spy(microcloud);
+        doReturn(Arrays.asList(getMockRemoteMicroservice())).when(microcloud).getMicroServices();
+        microservice = getMockMicroservice();
+
+        ProxyApiWatchdog watchdog = newWatchdog();
+        watchdog.start();
+
+        simulateMessageFromCloud(new MessageBuilder(Message.Type.QNE, new Iden(Iden.Type.AGT, UUID.randomUUID()), microservice.getAgent().getIden()).with(UUID.randomUUID()).with(new QnePayload("WatchDAWG", new RestApi("test", 9999))).make());
+        closeWindows();
+        assertEquals(1, watchdog.size());
+
+        sweep.run();
+        closeWindows();
+
+        assertEquals(0, watchdog.size());
+        verify(microservice, never()).leave();
+    }
+
+    @Test
+    public void shouldNotEvictBackendsWhenTheCloudLooksEmpty() throws Exception {
+        microcloud = spy(microcloud);
+        doReturn(Collections.emptyList()).when(microcloud).getMicroServices();
+        microservice = getMockMicroservice();
+
+        ProxyApiWatchdog watchdog = newWatchdog();
+        watchdog.start();
+
+        simulateMessageFromCloud(new MessageBuilder(Message.Type.QNE, new Iden(Iden.Type.AGT, UUID.randomUUID()), microservice.getAgent().getIden()).with(UUID.randomUUID()).with(new QnePayload("WatchDAWG", new RestApi("test", 9999))).make());
+        closeWindows();
+
+        sweep.run();
+
+        assertEquals(1, watchdog.size());
+    }
+
+    private ProxyApiWatchdog newWatchdog() {
+        return new ProxyApiWatchdog(microservice, 8881, executor, 100L, metrics);
+    }
+
+    private void closeWindows() {
+        List<Runnable> closing = new ArrayList<Runnable>(windows);
+        windows.clear();
+        for (Runnable window : closing) {
+            window.run();
+        }
+    }
+
     private Microservice getMockMicroservice() {
         Microservice microservice = mock(Microservice.class);
         LocalAgent agent = mock(LocalAgent.class);
@@ -87,6 +294,14 @@ public class ProxyApiWatchdogTest {
         return microservice;
     }
 
+    private RemoteMicroservice getMockRemoteMicroservice() {
+        RemoteMicroservice service = mock(RemoteMicroservice.class);
+        RemoteAgent agent = mock(RemoteAgent.class);
+        when(service.getAgent()).thenReturn(agent);
+        when(agent.getIden()).thenReturn(new Iden(Iden.Type.AGT, UUID.randomUUID()));
+        return service;
+    }
+
     private Message simulateMessageFromCloud(final Message message) {
         ArgumentCaptor<Cloud.Listener> cloudListener = ArgumentCaptor.forClass(Cloud.Listener.class);
         verify(cloud, atLeastOnce()).addListener(cloudListener.capture());
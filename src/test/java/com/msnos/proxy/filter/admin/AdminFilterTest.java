@@ -1,7 +1,11 @@
 package com.msnos.proxy.filter.admin;
 
 import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.any;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
 
 import java.util.HashMap;
 import java.util.List;
@@ -12,6 +16,7 @@ import io.netty.handler.codec.http.DefaultHttpRequest;
 import io.netty.handler.codec.http.HttpMethod;
 import io.netty.handler.codec.http.HttpResponseStatus;
 import io.netty.handler.codec.http.HttpVersion;
+import io.netty.util.CharsetUtil;
 
 import org.junit.Before;
 import org.junit.Test;
@@ -82,6 +87,66 @@ public class AdminFilterTest extends AbstractTest {
         assertJsonReturned(response, expected, "application/json; charset=UTF-8");
     }
 
+    @Test
+    public void shouldReturnMetricsAsJsonWhenAdminMetricsInURI() throws Exception {
+        Microservice microservice = mock(Microservice.class);
+
+        DefaultFullHttpResponse response = invoke(microservice, "metrics");
+
+        assertEquals(HttpResponseStatus.OK, response.getStatus());
+        assertEquals("application/json; charset=UTF-8", response.headers().get("Content-Type"));
+    }
+
+    @Test
+    public void shouldReturnMetricsAsPrometheusTextWhenRequested() throws Exception {
+        Microservice microservice = mock(Microservice.class);
+
+        DefaultFullHttpResponse response = invoke(microservice, "metrics?format=prometheus");
+
+        assertEquals(HttpResponseStatus.OK, response.getStatus());
+        assertEquals("text/plain; version=0.0.4; charset=UTF-8", response.headers().get("Content-Type"));
+    }
+
+    @Test
+    public void shouldKeepLegacyRoutesWhenOnlyCompactIsAsked() throws Exception {
+        RouteIndex routes = routeIndex();
+
+        assertEquals("{}", body(routes(routes, new AdminViews(), "routes?compact")));
+        assertEquals("{\"routes\":{}}", body(routes(routes, new AdminViews(), "routes?compact&limit=5")));
+    }
+
+    @Test
+    public void shouldShareCachedRoutesBetweenEquivalentQueries() throws Exception {
+        RouteIndex routes = routeIndex();
+        AdminViews views = new AdminViews();
+
+        routes(routes, views, "routes?limit=5&faulty=true");
+        routes(routes, views, "routes?faulty=true&limit=5");
+
+        verify(routes, times(1)).query(any(RouteIndex.Query.class));
+    }
+
+    private RouteIndex routeIndex() {
+        RouteIndex routes = mock(RouteIndex.class);
+        RouteIndex.Page page = new RouteIndex.Page();
+        when(routes.query(any(RouteIndex.Query.class))).thenReturn(page);
+        return routes;
+    }
+
+    private DefaultFullHttpResponse routes(RouteIndex routes, AdminViews views, String path) {
+        DefaultHttpRequest request = new DefaultHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, "http://127.0.0.1:8881/admin/"+path);
+        AdminFilter filter = new AdminFilter(request, mock(Microservice.class), views, null, null, routes);
+        return (DefaultFullHttpResponse) filter.requestPre(request);
+    }
+
+    private static String body(DefaultFullHttpResponse response) {
+        try {
+            return response.content().toString(CharsetUtil.UTF_8);
+        } finally {
+            response.release();
+        }
+    }
+
     private void assertJsonReturned(DefaultFullHttpResponse response, String expectedText, final String contentType) {
         final String actual = getBodyTextFromResponse(response);
         assertEquals(HttpResponseStatus.OK, response.getStatus());
@@ -0,0 +1,178 @@
+package com.msnos.proxy.filter.admin;
+
+import static io.netty.handler.codec.http.HttpHeaders.Names.ACCEPT_ENCODING;
+import static io.netty.handler.codec.http.HttpHeaders.Names.CONTENT_ENCODING;
+import static io.netty.handler.codec.http.HttpHeaders.Names.ETAG;
+import static io.netty.handler.codec.http.HttpHeaders.Names.IF_NONE_MATCH;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import io.netty.handler.codec.http.DefaultFullHttpResponse;
+import io.netty.handler.codec.http.DefaultHttpRequest;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.util.CharsetUtil;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.Collections;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class AdminViewsTest {
+
+    private long now;
+    private int builds;
+    private AdminViews views;
+    private AdminViews.View view;
+
+    @Before
+    public void prepare() {
+        now = 1000L;
+        builds = 0;
+        views = new AdminViews(1000L) {
+            @Override
+            protected long now() {
+                return now;
+            }
+        };
+        view = new AdminViews.View() {
+            @Override
+            public Object build() {
+                builds++;
+                return Collections.singletonMap("name", "value" + builds);
+            }
+        };
+    }
+
+    @Test
+    public void shouldBuildViewOnceWhileCached() throws Exception {
+        String first = body(views.respond(get("/admin/agents"), "agents", view));
+        String second = body(views.respond(get("/admin/agents"), "agents", view));
+
+        assertEquals(1, builds);
+        assertEquals(first, second);
+    }
+
+    @Test
+    public void shouldRebuildViewWhenInvalidated() throws Exception {
+        views.respond(get("/admin/agents"), "agents", view).release();
+
+        views.invalidate();
+        String body = body(views.respond(get("/admin/agents"), "agents", view));
+
+        assertEquals(2, builds);
+        assertTrue(body.contains("value2"));
+    }
+
+    @Test
+    public void shouldRebuildViewWhenExpired() throws Exception {
+        views.respond(get("/admin/agents"), "agents", view).release();
+
+        now += 1001L;
+        views.respond(get("/admin/agents"), "agents", view).release();
+
+        assertEquals(2, builds);
+    }
+
+    @Test
+    public void shouldReturnNotModifiedWhenEtagMatches() throws Exception {
+        DefaultFullHttpResponse first = views.respond(get("/admin/agents"), "agents", view);
+        String etag = first.headers().get(ETAG);
+        first.release();
+
+        HttpRequest request = get("/admin/agents");
+        request.headers().set(IF_NONE_MATCH, etag);
+        DefaultFullHttpResponse response = views.respond(request, "agents", view);
+
+        assertEquals(HttpResponseStatus.NOT_MODIFIED, response.getStatus());
+        assertEquals(0, response.content().readableBytes());
+        assertEquals(etag, response.headers().get(ETAG));
+    }
+
+    @Test
+    public void shouldReturnCompactJsonWhenRequested() throws Exception {
+        String pretty = body(views.respond(get("/admin/agents"), "agents", view));
+        String compact = body(views.respond(get("/admin/agents?compact"), "agents", view));
+
+        assertTrue(pretty.contains("\n"));
+        assertEquals("{\"name\":\"value2\"}", compact);
+    }
+
+    @Test
+    public void shouldMatchWeakListedAndAnyEtag() throws Exception {
+        DefaultFullHttpResponse first = views.respond(get("/admin/agents"), "agents", view);
+        String etag = first.headers().get(ETAG);
+        first.release();
+
+        assertEquals(HttpResponseStatus.NOT_MODIFIED, ifNoneMatch("W/" + etag).getStatus());
+        assertEquals(HttpResponseStatus.NOT_MODIFIED, ifNoneMatch("\"other\", " + etag).getStatus());
+        assertEquals(HttpResponseStatus.NOT_MODIFIED, ifNoneMatch("*").getStatus());
+        assertEquals(HttpResponseStatus.OK, ifNoneMatch("\"other\"").getStatus());
+    }
+
+    @Test
+    public void shouldOnlyCompactWhenTheParameterIsThere() throws Exception {
+        String body = body(views.respond(get("/admin/routes?prefix=/compaction"), "routes", view));
+
+        assertTrue(body.contains("\n"));
+    }
+
+    @Test
+    public void shouldCompressWhenClientAcceptsGzip() throws Exception {
+        HttpRequest request = get("/admin/agents?compact");
+        request.headers().set(ACCEPT_ENCODING, "gzip, deflate");
+
+        DefaultFullHttpResponse response = views.respond(request, "agents", view);
+
+        assertEquals("gzip", response.headers().get(CONTENT_ENCODING));
+        assertEquals("{\"name\":\"value1\"}", gunzip(response));
+    }
+
+    @Test
+    public void shouldNotCompressWhenClientDoesNotAcceptGzip() throws Exception {
+        DefaultFullHttpResponse response = views.respond(get("/admin/agents"), "agents", view);
+
+        assertFalse(response.headers().contains(CONTENT_ENCODING));
+        response.release();
+    }
+
+    private DefaultFullHttpResponse ifNoneMatch(String condition) throws Exception {
+        HttpRequest request = get("/admin/agents");
+        request.headers().set(IF_NONE_MATCH, condition);
+        DefaultFullHttpResponse response = views.respond(request, "agents", view);
+        response.release();
+        return response;
+    }
+
+    private static HttpRequest get(String uri) {
+        return new DefaultHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, uri);
+    }
+
+    private static String body(DefaultFullHttpResponse response) {
+        try {
+            return response.content().toString(CharsetUtil.UTF_8);
+        } finally {
+            response.release();
+        }
+    }
+
+    private static String gunzip(DefaultFullHttpResponse response) throws Exception {
+        byte[] bytes = new byte[response.content().readableBytes()];
+        response.content().readBytes(bytes);
+        response.release();
+
+        GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(bytes));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1024];
+        int read;
+        while ((read = in.read(buffer)) > 0) {
+            out.write(buffer, 0, read);
+        }
+        return new String(out.toByteArray(), CharsetUtil.UTF_8);
+    }
+}
@@ -0,0 +1,298 @@
+package com.msnos.proxy.filter.admin;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import com.google.gson.JsonObject;
+import com.workshare.msnos.core.Cloud;
+import com.workshare.msnos.core.Iden;
+import com.workshare.msnos.core.LocalAgent;
+import com.workshare.msnos.core.Message;
+import com.workshare.msnos.core.Payload;
+import com.workshare.msnos.core.RemoteAgent;
+import com.workshare.msnos.core.Ring;
+import com.workshare.msnos.core.geo.Location;
+import com.workshare.msnos.core.payloads.FltPayload;
+import com.workshare.msnos.core.payloads.Presence;
+import com.workshare.msnos.usvc.Microcloud;
+import com.workshare.msnos.usvc.Microservice;
+import com.workshare.msnos.usvc.RemoteMicroservice;
+
+public class RingIndexTest {
+
+    private Cloud cloud;
+    private Microcloud microcloud;
+    private Microservice microservice;
+    private RingIndex index;
+    private Cloud.Listener listener;
+
+    @Before
+    public void prepare() {
+        cloud = mock(Cloud.class);
+        microcloud = mock(Microcloud.class);
+        microservice = mock(Microservice.class);
+        when(microservice.getCloud()).thenReturn(microcloud);
+        when(microcloud.getCloud()).thenReturn(cloud);
+        when(cloud.getLocalAgents()).thenReturn(Collections.<LocalAgent>emptySet());
+        when(cloud.getRemoteAgents()).thenReturn(Collections.<RemoteAgent>emptySet());
+        when(microcloud.getMicroServices()).thenReturn(Collections.<RemoteMicroservice>emptyList());
+
+        LocalAgent self = mock(LocalAgent.class);
+        Iden iden = iden(UUID.randomUUID());
+        when(self.getIden()).thenReturn(iden);
+        when(microservice.getAgent()).thenReturn(self);
+
+        index = new RingIndex(microservice);
+    }
+
+    @Test
+    public void shouldIndexAgentsOfTheCloudWhenListeningStarts() {
+        Ring ring = ring("london");
+        RemoteAgent one = agent(ring);
+        RemoteAgent two = agent(ring);
+        when(cloud.getRemoteAgents()).thenReturn(Arrays.asList(one, two));
+        RemoteMicroservice service = service("one", one);
+        when(microcloud.getMicroServices()).thenReturn(Arrays.asList(service));
+
+        listen();
+        List<JsonObject> rings = rings(null, null);
+
+        assertEquals(1, rings.size());
+        assertEquals(ring.uuid().toString(), rings.get(0).get("uuid").getAsString());
+        assertEquals(2, rings.get(0).getAsJsonArray("agents").size());
+        assertEquals("one", find(rings.get(0), one).get("uservice").getAsString());
+        assertEquals("n/a", find(rings.get(0), two).get("uservice").getAsString());
+    }
+
+    @Test
+    public void shouldAddAgentOnPresence() {
+        listen();
+        RemoteAgent agent = agent(ring("paris"));
+        when(cloud.getRemoteAgents()).thenReturn(Arrays.asList(agent));
+
+        listener.onMessage(presence(agent, true));
+
+        assertEquals(1, rings(null, null).size());
+    }
+
+    @Test
+    public void shouldRemoveAgentAndEmptyRingOnAbsence() {
+        RemoteAgent agent = agent(ring("paris"));
+        when(cloud.getRemoteAgents()).thenReturn(Arrays.asList(agent));
+        listen();
+
+        when(cloud.getRemoteAgents()).thenReturn(Collections.<RemoteAgent>emptyList());
+        listener.onMessage(presence(agent, false));
+
+        assertEquals(0, rings(null, null).size());
+    }
+
+    @Test
+    public void shouldRemoveAgentOnFault() {
+        RemoteAgent agent = agent(ring("paris"));
+        RemoteAgent other = agent(ring("paris"));
+        when(cloud.getRemoteAgents()).thenReturn(Arrays.asList(agent));
+        listen();
+
+        FltPayload fault = mock(FltPayload.class);
+        Iden about = agent.getIden();
+        when(fault.getAbout()).thenReturn(about);
+        when(cloud.getRemoteAgents()).thenReturn(Collections.<RemoteAgent>emptyList());
+        listener.onMessage(message(Message.Type.FLT, other, fault));
+
+        assertEquals(0, rings(null, null).size());
+    }
+
+    @Test
+    public void shouldRebuildWhenAgentsLeftWithoutMessage() {
+        Ring ring = ring("paris");
+        RemoteAgent one = agent(ring);
+        RemoteAgent two = agent(ring);
+        when(cloud.getRemoteAgents()).thenReturn(Arrays.asList(one, two));
+        listen();
+
+        when(cloud.getRemoteAgents()).thenReturn(Arrays.asList(one));
+        List<JsonObject> rings = rings(null, null);
+
+        assertEquals(1, rings.get(0).getAsJsonArray("agents").size());
+        assertEquals(null, find(rings.get(0), two));
+    }
+
+    @Test
+    public void shouldMapMicroserviceOnQne() {
+        listen();
+        RemoteAgent agent = agent(ring("paris"));
+        when(cloud.getRemoteAgents()).thenReturn(Arrays.asList(agent));
+        List<RemoteMicroservice> services = Arrays.asList(service("svc", agent));
+        when(microcloud.getMicroServices()).thenReturn(services);
+
+        listener.onMessage(message(Message.Type.QNE, agent, null));
+
+        assertEquals("svc", find(rings(null, null).get(0), agent).get("uservice").getAsString());
+    }
+
+    @Test
+    public void shouldNotLookUpMicroservicesOfKnownAgentsOnQne() {
+        RemoteAgent agent = agent(ring("paris"));
+        when(cloud.getRemoteAgents()).thenReturn(Arrays.asList(agent));
+        List<RemoteMicroservice> services = Arrays.asList(service("svc", agent));
+        when(microcloud.getMicroServices()).thenReturn(services);
+        listen();
+
+        for (int i = 0; i < 3; i++) {
+            listener.onMessage(message(Message.Type.QNE, agent, null));
+        }
+
+        assertEquals("svc", find(rings(null, null).get(0), agent).get("uservice").getAsString());
+        verify(microcloud, times(1)).getMicroServices();
+    }
+
+    @Test
+    public void shouldRebuildWhenAnAgentExpiredAndAnotherJoinedWithoutMessage() {
+        Ring ring = ring("paris");
+        RemoteAgent one = agent(ring);
+        RemoteAgent two = agent(ring);
+        when(cloud.getRemoteAgents()).thenReturn(Arrays.asList(one));
+        listen();
+
+        when(cloud.getRemoteAgents()).thenReturn(Arrays.asList(two));
+        List<JsonObject> rings = rings(null, null);
+
+        assertEquals(1, rings.get(0).getAsJsonArray("agents").size());
+        assertEquals(null, find(rings.get(0), one));
+        assertEquals("n/a", find(rings.get(0), two).get("uservice").getAsString());
+    }
+
+    @Test
+    public void shouldMoveAgentWhenItsRingChanges() {
+        Ring before = ring("paris");
+        RemoteAgent agent = agent(before);
+        when(cloud.getRemoteAgents()).thenReturn(Arrays.asList(agent));
+        listen();
+
+        Ring after = ring("rome");
+        when(agent.getRing()).thenReturn(after);
+        listener.onMessage(presence(agent, true));
+
+        List<JsonObject> rings = rings(null, null);
+        assertEquals(1, rings.size());
+        assertEquals(after.uuid().toString(), rings.get(0).get("uuid").getAsString());
+    }
+
+    @Test
+    public void shouldFilterByRingAndLocation() {
+        Ring london = ring("london");
+        Ring paris = ring("paris");
+        List<RemoteAgent> agents = Arrays.asList(agent(london), agent(paris));
+        when(cloud.getRemoteAgents()).thenReturn(agents);
+        listen();
+
+        assertEquals(1, rings(london.uuid().toString(), null).size());
+        assertEquals(0, rings("not-an-uuid", null).size());
+        assertEquals(1, rings(null, "PAR").size());
+        assertEquals(0, rings(paris.uuid().toString(), "london").size());
+    }
+
+    @Test
+    public void shouldPaginateRings() {
+        List<RemoteAgent> agents = new ArrayList<RemoteAgent>();
+        for (int i = 0; i < 5; i++) {
+            agents.add(agent(ring("loc" + i)));
+        }
+        when(cloud.getRemoteAgents()).thenReturn(agents);
+        listen();
+
+        List<JsonObject> all = rings(null, null);
+        List<JsonObject> page = new ArrayList<JsonObject>();
+        int total = index.rings(null, null, 1, 2, page);
+
+        assertEquals(5, total);
+        assertEquals(2, page.size());
+        assertEquals(all.get(1), page.get(0));
+        assertEquals(all.get(2), page.get(1));
+    }
+
+    private void listen() {
+        index.listen();
+        ArgumentCaptor<Cloud.Listener> captor = ArgumentCaptor.forClass(Cloud.Listener.class);
+        verify(microcloud).addListener(captor.capture());
+        listener = captor.getValue();
+    }
+
+    private List<JsonObject> rings(String ring, String location) {
+        List<JsonObject> result = new ArrayList<JsonObject>();
+        index.rings(ring, location, 0, Integer.MAX_VALUE, result);
+        return result;
+    }
+
+    private Message presence(RemoteAgent agent, boolean present) {
+        Presence presence = mock(Presence.class);
+        when(presence.isPresent()).thenReturn(present);
+        Message message = message(Message.Type.PRS, agent, presence);
+        when(cloud.find(agent.getIden())).thenReturn(present ? agent : null);
+        return message;
+    }
+
+    private Message message(Message.Type type, RemoteAgent agent, Payload data) {
+        Message message = mock(Message.class);
+        Iden from = agent.getIden();
+        when(message.getType()).thenReturn(type);
+        when(message.getFrom()).thenReturn(from);
+        when(message.getData()).thenReturn(data);
+        when(cloud.find(from)).thenReturn(agent);
+        return message;
+    }
+
+    private static JsonObject find(JsonObject ring, RemoteAgent agent) {
+        for (int i = 0; i < ring.getAsJsonArray("agents").size(); i++) {
+            JsonObject friend = ring.getAsJsonArray("agents").get(i).getAsJsonObject();
+            if (friend.get("agent").getAsString().equals(agent.getIden().getUUID().toString()))
+                return friend;
+        }
+        return null;
+    }
+
+    private static RemoteAgent agent(Ring ring) {
+        RemoteAgent agent = mock(RemoteAgent.class);
+        Iden iden = iden(UUID.randomUUID());
+        when(agent.getIden()).thenReturn(iden);
+        when(agent.getRing()).thenReturn(ring);
+        return agent;
+    }
+
+    private static RemoteMicroservice service(String name, RemoteAgent agent) {
+        RemoteMicroservice service = mock(RemoteMicroservice.class);
+        when(service.getName()).thenReturn(name);
+        when(service.getAgent()).thenReturn(agent);
+        return service;
+    }
+
+    private static Ring ring(String where) {
+        Ring ring = mock(Ring.class);
+        UUID uuid = UUID.randomUUID();
+        Location location = mock(Location.class);
+        when(location.toString()).thenReturn(where);
+        when(ring.uuid()).thenReturn(uuid);
+        when(ring.location()).thenReturn(location);
+        return ring;
+    }
+
+    private static Iden iden(UUID uuid) {
+        Iden iden = mock(Iden.class);
+        when(iden.getUUID()).thenReturn(uuid);
+        return iden;
+    }
+}
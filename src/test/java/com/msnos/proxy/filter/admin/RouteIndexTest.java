@@ -0,0 +1,223 @@
+package com.msnos.proxy.filter.admin;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import com.google.gson.JsonObject;
+import com.workshare.msnos.core.Cloud;
+import com.workshare.msnos.core.Message;
+import com.workshare.msnos.core.geo.Location;
+import com.workshare.msnos.usvc.Microcloud;
+import com.workshare.msnos.usvc.RemoteMicroservice;
+import com.workshare.msnos.usvc.api.RestApi;
+import com.workshare.msnos.usvc.api.routing.ApiEndpoint;
+import com.workshare.msnos.usvc.api.routing.ApiList;
+import com.workshare.msnos.usvc.api.routing.ApiRepository;
+
+public class RouteIndexTest {
+
+    private Map<String, ApiList> apis;
+    private Microcloud microcloud;
+    private RouteIndex index;
+
+    @Before
+    public void prepare() {
+        apis = new HashMap<String, ApiList>();
+        ApiRepository repository = mock(ApiRepository.class);
+        when(repository.getRemoteApis()).thenReturn(apis);
+        microcloud = mock(Microcloud.class);
+        when(microcloud.getApis()).thenReturn(repository);
+
+        index = new RouteIndex(microcloud);
+    }
+
+    @Test
+    public void shouldFindRoutesContainingTextAsBefore() {
+        route("/users", endpoint("users", "http://10.0.0.1/users", false, false, "london"));
+        route("/orders", endpoint("orders", "http://10.0.0.2/orders", false, false, "paris"));
+
+        Map<String, List<JsonObject>> routes = index.query(RouteIndex.Query.contains("user")).routes();
+
+        assertEquals(1, routes.size());
+        JsonObject entry = routes.get("/users").get(0);
+        assertEquals("users", entry.get("service").getAsString());
+        assertEquals("http://10.0.0.1/users", entry.get("url").getAsString());
+        assertEquals("no", entry.get("faulty").getAsString());
+        assertEquals("london", entry.get("location").getAsString());
+    }
+
+    @Test
+    public void shouldFindRoutesByExactPathAndPrefix() {
+        route("/users", endpoint("users", "http://10.0.0.1/users", false, false, "london"));
+        route("/users/admin", endpoint("users", "http://10.0.0.1/users/admin", false, false, "london"));
+        route("/usersx", endpoint("users", "http://10.0.0.1/usersx", false, false, "london"));
+        route("/orders", endpoint("orders", "http://10.0.0.2/orders", false, false, "paris"));
+
+        assertEquals(Arrays.asList("/users"), paths(query("path", "/users")));
+        assertEquals(Arrays.asList("/users", "/users/admin", "/usersx"), paths(query("prefix", "/users")));
+        assertEquals(Arrays.asList("/users/admin"), paths(query("prefix", "/users/")));
+    }
+
+    @Test
+    public void shouldFilterEndpoints() {
+        route("/users",
+            endpoint("users", "http://10.0.0.1/users", true, false, "london"),
+            endpoint("users", "http://10.0.0.2/users", false, true, "paris"),
+            endpoint("accounts", "http://10.0.0.3/users", false, false, "paris"));
+
+        assertEquals(1, count(query("faulty", "true")));
+        assertEquals(2, count(query("faulty", "false")));
+        assertEquals(1, count(query("sticky", "true")));
+        assertEquals(1, count(query("service", "accounts")));
+        assertEquals(2, count(query("location", "PARIS")));
+        assertEquals(3, count(query("type", "public")));
+        assertEquals(0, count(query("type", "internal")));
+    }
+
+    @Test
+    public void shouldProjectRequestedFieldsOnly() {
+        route("/users", endpoint("users", "http://10.0.0.1/users", false, false, "london"));
+
+        JsonObject entry = index.query(query("fields", "url,sticky")).routes().get("/users").get(0);
+
+        assertEquals(2, entry.entrySet().size());
+        assertTrue(entry.has("url"));
+        assertTrue(entry.has("sticky"));
+        assertFalse(entry.has("service"));
+    }
+
+    @Test
+    public void shouldPageWithCursor() {
+        route("/a", endpoint("a", "http://10.0.0.1/a", false, false, "x"), endpoint("a", "http://10.0.0.2/a", false, false, "x"));
+        route("/b", endpoint("b", "http://10.0.0.1/b", false, false, "x"));
+        route("/c", endpoint("c", "http://10.0.0.1/c", false, false, "x"));
+
+        List<String> urls = new ArrayList<String>();
+        String cursor = null;
+        int pages = 0;
+        do {
+            Map<String, List<String>> parameters = parameters("limit", "2");
+            if (cursor != null)
+                parameters.put("cursor", Arrays.asList(cursor));
+            RouteIndex.Page page = index.query(RouteIndex.Query.parse(parameters));
+            for (List<JsonObject> entries : page.routes().values()) {
+                for (JsonObject entry : entries) {
+                    urls.add(entry.get("url").getAsString());
+                }
+            }
+            cursor = page.next();
+            pages++;
+        } while (cursor != null);
+
+        assertEquals(2, pages);
+        assertEquals(Arrays.asList("http://10.0.0.1/a", "http://10.0.0.2/a", "http://10.0.0.1/b", "http://10.0.0.1/c"), urls);
+    }
+
+    @Test
+    public void shouldNotReturnCursorOnLastPage() {
+        route("/a", endpoint("a", "http://10.0.0.1/a", false, false, "x"));
+
+        RouteIndex.Page page = index.query(query("limit", "1"));
+
+        assertNull(page.next());
+    }
+
+    @Test
+    public void shouldReindexAfterTopologyMessage() {
+        index.listen();
+        ArgumentCaptor<Cloud.Listener> captor = ArgumentCaptor.forClass(Cloud.Listener.class);
+        verify(microcloud).addListener(captor.capture());
+        route("/a", endpoint("a", "http://10.0.0.1/a", false, false, "x"));
+        assertEquals(1, count(query("prefix", "/")));
+
+        route("/b", endpoint("b", "http://10.0.0.1/b", false, false, "x"));
+        assertEquals(1, count(query("prefix", "/")));
+
+        Message message = mock(Message.class);
+        when(message.getType()).thenReturn(Message.Type.QNE);
+        captor.getValue().onMessage(message);
+        assertEquals(2, count(query("prefix", "/")));
+    }
+
+    @Test
+    public void shouldDefaultLimitOfQueries() {
+        assertEquals(RouteIndex.DEFAULT_LIMIT, RouteIndex.Query.parse(parameters("prefix", "/")).limit);
+        assertEquals(RouteIndex.MAX_LIMIT, RouteIndex.Query.parse(parameters("limit", "1000000")).limit);
+    }
+
+    @Test
+    public void shouldKeyQueriesByTheirNormalizedFields() {
+        Map<String, List<String>> one = parameters("fields", "url,service");
+        one.put("limit", Arrays.asList("5000"));
+        Map<String, List<String>> two = parameters("fields", "service,url");
+        two.put("limit", Arrays.asList(Integer.toString(RouteIndex.MAX_LIMIT)));
+        two.put("unknown", Arrays.asList("x"));
+
+        assertEquals(RouteIndex.Query.parse(one).key(), RouteIndex.Query.parse(two).key());
+        assertFalse(query("prefix", "/users").key().equals(query("path", "/users").key()));
+    }
+
+    private RouteIndex.Query query(String name, String value) {
+        return RouteIndex.Query.parse(parameters(name, value));
+    }
+
+    private static Map<String, List<String>> parameters(String name, String value) {
+        Map<String, List<String>> parameters = new HashMap<String, List<String>>();
+        parameters.put(name, Arrays.asList(value));
+        return parameters;
+    }
+
+    private List<String> paths(RouteIndex.Query query) {
+        return new ArrayList<String>(index.query(query).routes().keySet());
+    }
+
+    private int count(RouteIndex.Query query) {
+        int count = 0;
+        for (List<JsonObject> entries : index.query(query).routes().values()) {
+            count += entries.size();
+        }
+        return count;
+    }
+
+    private void route(String path, ApiEndpoint... endpoints) {
+        ApiList list = mock(ApiList.class);
+        List<ApiEndpoint> all = Arrays.asList(endpoints);
+        when(list.getEndpoints()).thenReturn(all);
+        apis.put(path, list);
+    }
+
+    private static ApiEndpoint endpoint(String service, String url, boolean faulty, boolean sticky, String where) {
+        RestApi api = mock(RestApi.class);
+        when(api.getUrl()).thenReturn(url);
+        when(api.isFaulty()).thenReturn(faulty);
+        when(api.hasAffinity()).thenReturn(sticky);
+        when(api.getType()).thenReturn(RestApi.Type.PUBLIC);
+
+        RemoteMicroservice svc = mock(RemoteMicroservice.class);
+        when(svc.getName()).thenReturn(service);
+
+        Location location = mock(Location.class);
+        when(location.toString()).thenReturn(where);
+
+        ApiEndpoint endpoint = mock(ApiEndpoint.class);
+        when(endpoint.api()).thenReturn(api);
+        when(endpoint.service()).thenReturn(svc);
+        when(endpoint.location()).thenReturn(location);
+        return endpoint;
+    }
+}
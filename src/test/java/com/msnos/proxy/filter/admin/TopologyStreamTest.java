@@ -0,0 +1,166 @@
+package com.msnos.proxy.filter.admin;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import io.netty.handler.codec.http.DefaultFullHttpResponse;
+import io.netty.handler.codec.http.DefaultHttpRequest;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.util.CharsetUtil;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class TopologyStreamTest {
+
+    private static final long TTL = 1000L;
+
+    private TopologyStream.Topology topology;
+    private TopologyStream stream;
+    private long now;
+    private int reads;
+
+    @Before
+    public void prepare() {
+        now = 1000000L;
+        topology = new TopologyStream.Topology();
+        stream = new TopologyStream(null, 4, TTL) {
+            @Override
+            protected Topology read() {
+                reads++;
+                return topology;
+            }
+
+            @Override
+            protected long now() {
+                return now;
+            }
+        };
+    }
+
+    @Test
+    public void shouldSendSnapshotWhenNoLastEventId() throws Exception {
+        topology = new TopologyStream.Topology().endpoint("/path", "http://host:80/path", "service", false);
+
+        String body = respond(null);
+
+        assertTrue(body.startsWith("retry: "));
+        assertTrue(body.contains("id: 1\nevent: snapshot\n"));
+        assertTrue(body.contains("\"url\":\"http://host:80/path\""));
+    }
+
+    @Test
+    public void shouldSendDeltasAfterLastEventId() throws Exception {
+        topology = new TopologyStream.Topology().endpoint("/path", "http://host:80/path", "service", false);
+        stream.refresh();
+
+        topology = new TopologyStream.Topology()
+            .endpoint("/path", "http://host:80/path", "service", true)
+            .agent("agent", "ring");
+        stream.invalidate();
+        String body = respond("1");
+
+        assertFalse(body.contains("event: snapshot"));
+        assertTrue(body.contains("event: endpoint-faulty\n"));
+        assertTrue(body.contains("event: agent-joined\n"));
+        assertFalse(body.contains("event: api-announced"));
+    }
+
+    @Test
+    public void shouldSendWithdrawnAgentLeftAndRingChanged() throws Exception {
+        topology = new TopologyStream.Topology()
+            .endpoint("/path", "http://host:80/path", "service", false)
+            .agent("one", "ring")
+            .agent("two", "ring");
+        stream.refresh();
+
+        topology = new TopologyStream.Topology().agent("one", "other");
+        stream.invalidate();
+        String body = respond("3");
+
+        assertTrue(body.contains("event: api-withdrawn\n"));
+        assertTrue(body.contains("event: ring-changed\n"));
+        assertTrue(body.contains("\"previous\":\"ring\""));
+        assertTrue(body.contains("event: agent-left\n"));
+    }
+
+    @Test
+    public void shouldSendRecoveredWhenEndpointNoLongerFaulty() throws Exception {
+        topology = new TopologyStream.Topology().endpoint("/path", "http://host:80/path", "service", true);
+        stream.refresh();
+
+        topology = new TopologyStream.Topology().endpoint("/path", "http://host:80/path", "service", false);
+        now += TTL + 1;
+        String body = respond("1");
+
+        assertTrue(body.contains("id: 2\nevent: endpoint-recovered\n"));
+    }
+
+    @Test
+    public void shouldSendCommentWhenNothingChanged() throws Exception {
+        topology = new TopologyStream.Topology().endpoint("/path", "http://host:80/path", "service", false);
+        stream.refresh();
+
+        String body = respond("1");
+
+        assertTrue(body.contains(": no changes\n\n"));
+        assertFalse(body.contains("event:"));
+    }
+
+    @Test
+    public void shouldSendSnapshotWhenClientFellBehindTheJournal() throws Exception {
+        for (int i = 0; i < 6; i++) {
+            topology = new TopologyStream.Topology().agent("agent" + i, "ring");
+            stream.refresh();
+        }
+
+        String body = respond("1");
+
+        assertTrue(body.contains("event: snapshot\n"));
+        assertTrue(body.contains("\"agent\":\"agent5\""));
+        assertFalse(body.contains("agent-joined"));
+    }
+
+    @Test
+    public void shouldReadTopologyAgainOnlyWhenStale() throws Exception {
+        respond(null);
+        respond("0");
+        assertEquals(1, reads);
+
+        stream.invalidate();
+        stream.invalidate();
+        respond("0");
+        assertEquals(2, reads);
+
+        now += TTL + 1;
+        respond("0");
+        assertEquals(3, reads);
+    }
+
+    @Test
+    public void shouldReturnEventStreamContentType() throws Exception {
+        DefaultFullHttpResponse response = stream.respond(get(null));
+
+        assertEquals("text/event-stream; charset=UTF-8", response.headers().get("Content-Type"));
+        assertEquals("no-cache", response.headers().get("Cache-Control"));
+        response.release();
+    }
+
+    private String respond(String lastEventId) {
+        DefaultFullHttpResponse response = stream.respond(get(lastEventId));
+        try {
+            return response.content().toString(CharsetUtil.UTF_8);
+        } finally {
+            response.release();
+        }
+    }
+
+    private static HttpRequest get(String lastEventId) {
+        HttpRequest request = new DefaultHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, "/admin/stream");
+        if (lastEventId != null)
+            request.headers().set(TopologyStream.LAST_EVENT_ID, lastEventId);
+        return request;
+    }
+}
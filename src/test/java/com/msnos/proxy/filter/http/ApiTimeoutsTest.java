@@ -0,0 +1,97 @@
+package com.msnos.proxy.filter.http;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.Collections;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.workshare.msnos.usvc.api.RestApi;
+
+public class ApiTimeoutsTest {
+
+    private static final String PATH = "/path";
+
+    private RestApi api;
+    private OutlierDetector stats;
+
+    @Before
+    public void prepare() throws Exception {
+        api = mock(RestApi.class);
+        when(api.getId()).thenReturn(1L);
+        when(api.getPath()).thenReturn(PATH);
+        stats = new OutlierDetector();
+    }
+
+    @Test
+    public void shouldUseConfiguredTimeoutForPath() throws Exception {
+        ApiTimeouts timeouts = new ApiTimeouts(configured(PATH, 1500L), true, 30000L);
+        record(100L);
+
+        assertEquals(1500L, timeouts.of(api, stats));
+    }
+
+    @Test
+    public void shouldHaveNoTimeoutWhenNotConfiguredAndNotAdaptive() throws Exception {
+        ApiTimeouts timeouts = new ApiTimeouts(configured("/other", 1500L), false, 30000L);
+        record(100L);
+
+        assertEquals(0L, timeouts.of(api, stats));
+    }
+
+    @Test
+    public void shouldHaveNoAdaptiveTimeoutUntilEnoughSamples() throws Exception {
+        ApiTimeouts timeouts = new ApiTimeouts(Collections.<String, Long>emptyMap(), true, 30000L);
+        stats.record(api, 100L, false);
+        stats.evaluate();
+
+        assertEquals(0L, timeouts.of(api, stats));
+    }
+
+    @Test
+    public void shouldDeriveTimeoutFromObservedResponseTimes() throws Exception {
+        ApiTimeouts timeouts = new ApiTimeouts(Collections.<String, Long>emptyMap(), true, 30000L);
+        record(100L);
+
+        assertEquals(100L * ApiTimeouts.ADAPTIVE_MULTIPLIER, timeouts.of(api, stats));
+    }
+
+    @Test
+    public void shouldClampAdaptiveTimeout() throws Exception {
+        ApiTimeouts timeouts = new ApiTimeouts(Collections.<String, Long>emptyMap(), true, 30000L);
+
+        record(1L);
+        assertEquals(ApiTimeouts.ADAPTIVE_MIN_MILLIS, timeouts.of(api, stats));
+
+        record(60000L);
+        assertEquals(30000L, timeouts.of(api, stats));
+    }
+
+    @Test
+    public void shouldNotStretchAdaptiveTimeoutOnTimeouts() throws Exception {
+        ApiTimeouts timeouts = new ApiTimeouts(Collections.<String, Long>emptyMap(), true, 30000L);
+        record(100L);
+
+        for (int i = 0; i < OutlierDetector.SAMPLES; i++) {
+            stats.failed(api);
+        }
+        stats.evaluate();
+
+        assertEquals(100L * ApiTimeouts.ADAPTIVE_MULTIPLIER, timeouts.of(api, stats));
+    }
+
+    private void record(long latency) {
+        for (int i = 0; i < OutlierDetector.SAMPLES; i++) {
+            stats.record(api, latency, false);
+        }
+        stats.evaluate();
+    }
+
+    private static Map<String, Long> configured(String path, long millis) {
+        return Collections.singletonMap(path, millis);
+    }
+}
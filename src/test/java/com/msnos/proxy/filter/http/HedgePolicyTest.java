@@ -0,0 +1,89 @@
+package com.msnos.proxy.filter.http;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.Collections;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.workshare.msnos.usvc.api.RestApi;
+
+public class HedgePolicyTest {
+
+    private static final String PATH = "/path";
+
+    private RestApi api;
+    private OutlierDetector stats;
+
+    @Before
+    public void prepare() throws Exception {
+        api = mock(RestApi.class);
+        when(api.getId()).thenReturn(1L);
+        when(api.getPath()).thenReturn(PATH);
+        stats = new OutlierDetector();
+    }
+
+    @Test
+    public void shouldNotHedgePathsNotConfigured() throws Exception {
+        HedgePolicy policy = new HedgePolicy(Collections.singletonMap("/other", 50L), 10);
+
+        assertEquals(0L, policy.delayOf(api, stats));
+    }
+
+    @Test
+    public void shouldHedgeAfterConfiguredDelay() throws Exception {
+        HedgePolicy policy = new HedgePolicy(Collections.singletonMap(PATH, 50L), 10);
+
+        assertEquals(50L, policy.delayOf(api, stats));
+    }
+
+    @Test
+    public void shouldHedgeAfterObservedPercentileWhenNoDelayConfigured() throws Exception {
+        HedgePolicy policy = new HedgePolicy(Collections.singletonMap(PATH, 0L), 10);
+        for (int i = 0; i < OutlierDetector.SAMPLES; i++) {
+            stats.record(api, 80L, false);
+        }
+        stats.evaluate();
+
+        assertEquals(80L, policy.delayOf(api, stats));
+    }
+
+    @Test
+    public void shouldNotHedgeWithoutBudget() throws Exception {
+        HedgePolicy policy = new HedgePolicy(Collections.singletonMap(PATH, 50L), 10);
+
+        assertFalse(policy.acquire());
+    }
+
+    @Test
+    public void shouldAllowOneHedgeEveryTenRequestsWithTenPercentBudget() throws Exception {
+        HedgePolicy policy = new HedgePolicy(Collections.singletonMap(PATH, 50L), 10);
+
+        for (int i = 0; i < 10; i++) {
+            policy.onRequest();
+        }
+
+        assertTrue(policy.acquire());
+        assertFalse(policy.acquire());
+    }
+
+    @Test
+    public void shouldCapTheBudgetBurst() throws Exception {
+        HedgePolicy policy = new HedgePolicy(Collections.singletonMap(PATH, 50L), 100);
+
+        for (int i = 0; i < HedgePolicy.MAX_BURST * 2; i++) {
+            policy.onRequest();
+        }
+
+        int hedges = 0;
+        while (policy.acquire())
+            hedges++;
+
+        assertEquals(HedgePolicy.MAX_BURST, hedges);
+    }
+}
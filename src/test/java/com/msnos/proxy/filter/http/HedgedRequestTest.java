@@ -0,0 +1,101 @@
+package com.msnos.proxy.filter.http;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import io.netty.handler.codec.http.DefaultHttpRequest;
+import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.HttpHeaders;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.HttpVersion;
+
+import java.net.URI;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.workshare.msnos.usvc.api.RestApi;
+
+public class HedgedRequestTest {
+
+    private static final String URL = "http://10.0.0.1:9999/path?q=1";
+
+    private RestApi api;
+    private HttpRequest original;
+
+    @Before
+    public void prepare() throws Exception {
+        api = mock(RestApi.class);
+        when(api.getId()).thenReturn(1L);
+        when(api.getUrl()).thenReturn(URL);
+        original = new DefaultHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, "/path?q=1");
+    }
+
+    @Test
+    public void shouldCopyEndToEndHeaders() throws Exception {
+        original.headers().add(HttpHeaders.Names.ACCEPT, "application/json");
+        original.headers().add(HttpHeaders.Names.COOKIE, "a=1");
+
+        FullHttpRequest request = createRequest();
+
+        assertEquals("/path?q=1", request.getUri());
+        assertEquals("application/json", request.headers().get(HttpHeaders.Names.ACCEPT));
+        assertEquals("a=1", request.headers().get(HttpHeaders.Names.COOKIE));
+    }
+
+    @Test
+    public void shouldLeaveHopByHopHeadersBehind() throws Exception {
+        original.headers().add(HttpHeaders.Names.CONNECTION, "keep-alive, X-Hop");
+        original.headers().add("X-Hop", "1");
+        original.headers().add("Keep-Alive", "timeout=5");
+        original.headers().add(HttpHeaders.Names.TE, "trailers");
+        original.headers().add(HttpHeaders.Names.TRAILER, "Expires");
+        original.headers().add(HttpHeaders.Names.TRANSFER_ENCODING, "chunked");
+        original.headers().add(HttpHeaders.Names.UPGRADE, "websocket");
+        original.headers().add(HttpHeaders.Names.PROXY_AUTHORIZATION, "Basic Zm9v");
+        original.headers().add("Proxy-Connection", "keep-alive");
+
+        HttpHeaders headers = createRequest().headers();
+
+        assertEquals(HttpHeaders.Values.CLOSE, headers.get(HttpHeaders.Names.CONNECTION));
+        assertFalse(headers.contains("X-Hop"));
+        assertFalse(headers.contains("Keep-Alive"));
+        assertFalse(headers.contains(HttpHeaders.Names.TE));
+        assertFalse(headers.contains(HttpHeaders.Names.TRAILER));
+        assertFalse(headers.contains(HttpHeaders.Names.TRANSFER_ENCODING));
+        assertFalse(headers.contains(HttpHeaders.Names.UPGRADE));
+        assertFalse(headers.contains(HttpHeaders.Names.PROXY_AUTHORIZATION));
+        assertFalse(headers.contains("Proxy-Connection"));
+    }
+
+    @Test
+    public void shouldForwardTheBudgetLeftWhenSent() throws Exception {
+        original.headers().add(Deadline.RELATIVE_HEADER, "10000");
+        Deadline deadline = new Deadline(System.currentTimeMillis() + 5000);
+
+        HttpHeaders headers = new HedgedRequest(api, original, deadline, null).createRequest(URI.create(URL), 9999).headers();
+
+        long remaining = Long.parseLong(headers.get(Deadline.RELATIVE_HEADER));
+        assertTrue(remaining > 0 && remaining <= 5000);
+    }
+
+    @Test
+    public void shouldDefaultThePortFromTheScheme() throws Exception {
+        assertEquals(80, HedgedRequest.port(URI.create("http://10.0.0.1/path")));
+        assertEquals(443, HedgedRequest.port(URI.create("https://10.0.0.1/path")));
+        assertEquals(9999, HedgedRequest.port(URI.create(URL)));
+    }
+
+    @Test
+    public void shouldOnlyHedgeToPlainHttp() throws Exception {
+        assertTrue(HedgedRequest.isPlainHttp(URL));
+        assertFalse(HedgedRequest.isPlainHttp("https://10.0.0.1/path"));
+    }
+
+    private FullHttpRequest createRequest() {
+        return new HedgedRequest(api, original, null, null).createRequest(URI.create(URL), 9999);
+    }
+}
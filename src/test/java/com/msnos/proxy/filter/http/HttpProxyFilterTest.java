@@ -9,6 +9,9 @@ import static io.netty.handler.codec.http.HttpVersion.HTTP_1_1;
 import static junit.framework.TestCase.assertEquals;
 import static junit.framework.TestCase.assertFalse;
 import static org.junit.Assert.*;
+import static org.mockito.AdditionalMatchers.and;
+import static org.mockito.AdditionalMatchers.gt;
+import static org.mockito.AdditionalMatchers.leq;
 import static org.mockito.Matchers.*;
 import static org.mockito.Mockito.*;
 import static org.mockito.Mockito.never;
@@ -18,11 +21,15 @@ import static com.msnos.proxy.TestHelper.*;
 
 import java.awt.List;
 import java.util.UUID;
+import java.util.concurrent.TimeUnit;
 
+import org.mockito.ArgumentCaptor;
 import org.mockito.ArgumentMatcher;
 import org.mockito.invocation.InvocationOnMock;
 import org.mockito.stubbing.Answer;
 
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.handler.codec.http.ClientCookieEncoder;
 import io.netty.handler.codec.http.Cookie;
@@ -38,6 +45,7 @@ import io.netty.handler.codec.http.HttpResponse;
 import io.netty.handler.codec.http.HttpResponseStatus;
 import io.netty.handler.codec.http.HttpVersion;
 import io.netty.handler.codec.http.ServerCookieEncoder;
+import io.netty.util.concurrent.EventExecutor;
 
 import org.junit.Before;
 import org.junit.Test;
@@ -70,12 +78,15 @@ public class HttpProxyFilterTest {
     
     private ApiList apis;
     private ChannelHandlerContext context;
+    private EventExecutor executor;
     
     @Before
     public void prepare() throws Exception {
         
         request = new DefaultHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, PATH);
+        executor = mock(EventExecutor.class);
         context = mock(ChannelHandlerContext.class);
+        when(context.executor()).thenReturn(executor);
         filter = null;
         
         microcloud = mock(Microcloud.class);
@@ -275,6 +286,73 @@ public class HttpProxyFilterTest {
         assertEquals(HttpResponseStatus.FOUND, response.getStatus());
     }
 
+    @Test
+    public void shouldReturnGatewayTimeoutWhenDeadlineAlreadyExpired() throws Exception {
+        installApi(PATH);
+
+        request.headers().add(Deadline.ABSOLUTE_HEADER, Long.toString(System.currentTimeMillis() - 1000));
+        HttpResponse response = invoke();
+
+        assertEquals(HttpResponseStatus.GATEWAY_TIMEOUT, response.getStatus());
+    }
+
+    @Test
+    public void shouldForwardRemainingBudgetUpstream() throws Exception {
+        installApi(PATH);
+
+        request.headers().add(Deadline.RELATIVE_HEADER, "10000");
+        filter().requestPre(request);
+        HttpResponse response = filter().requestPost(request);
+
+        assertNull(response);
+        long remaining = Long.parseLong(request.headers().get(Deadline.RELATIVE_HEADER));
+        assertTrue(remaining > 0 && remaining <= 10000);
+        verify(executor).schedule(any(Runnable.class), and(gt(0L), leq(remaining)), eq(TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void shouldDropLateResponseWhenRequestAlreadyTimedOut() throws Exception {
+        installApi(PATH);
+        Channel channel = mock(Channel.class);
+        ChannelFuture future = mock(ChannelFuture.class);
+        when(context.channel()).thenReturn(channel);
+        when(channel.closeFuture()).thenReturn(future);
+        when(channel.writeAndFlush(any())).thenReturn(future);
+
+        request.headers().add(Deadline.RELATIVE_HEADER, "10000");
+        filter().requestPre(request);
+        filter().requestPost(request);
+        ArgumentCaptor<Runnable> timeout = ArgumentCaptor.forClass(Runnable.class);
+        verify(executor).schedule(timeout.capture(), anyLong(), eq(TimeUnit.MILLISECONDS));
+        timeout.getValue().run();
+
+        verify(channel).writeAndFlush(any(HttpResponse.class));
+        assertNull(filter().responsePre(success()));
+    }
+
+    @Test
+    public void shouldNotRetryNonIdempotentRequestThatTimedOut() throws Exception {
+        RestApi api = installApi(PATH);
+        Channel channel = mock(Channel.class);
+        ChannelFuture future = mock(ChannelFuture.class);
+        when(context.channel()).thenReturn(channel);
+        when(channel.closeFuture()).thenReturn(future);
+        when(channel.writeAndFlush(any())).thenReturn(future);
+
+        request = new DefaultHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.POST, PATH);
+        request.headers().add(Deadline.RELATIVE_HEADER, "10000");
+        filter().requestPre(request);
+        filter().requestPost(request);
+        ArgumentCaptor<Runnable> timeout = ArgumentCaptor.forClass(Runnable.class);
+        verify(executor).schedule(timeout.capture(), anyLong(), eq(TimeUnit.MILLISECONDS));
+        timeout.getValue().run();
+
+        ArgumentCaptor<HttpResponse> response = ArgumentCaptor.forClass(HttpResponse.class);
+        verify(channel).writeAndFlush(response.capture());
+        assertEquals(HttpResponseStatus.GATEWAY_TIMEOUT, response.getValue().getStatus());
+        assertEquals(1, api.getTempFaults());
+    }
+
     private RestApi installApi(final String path) {
         return installApi(path, new RestApi(path, 9999));
     }
@@ -0,0 +1,204 @@
+package com.msnos.proxy.filter.http;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.workshare.msnos.usvc.api.RestApi;
+
+public class OutlierDetectorTest {
+
+    private static final String PATH = "/path";
+
+    private long now;
+    private OutlierDetector detector;
+
+    @Before
+    public void prepare() throws Exception {
+        now = 1000000L;
+        detector = new OutlierDetector() {
+            @Override
+            protected long now() {
+                return now;
+            }
+        };
+    }
+
+    @Test
+    public void shouldEjectEndpointMuchSlowerThanItsPeers() throws Exception {
+        RestApi one = newApi(1), two = newApi(2), three = newApi(3), slow = newApi(4);
+
+        recordMany(one, 20, false);
+        recordMany(two, 20, false);
+        recordMany(three, 20, false);
+        recordMany(slow, 5000, false);
+        evaluate(one);
+
+        assertTrue(detector.isEjected(slow));
+        assertFalse(detector.isEjected(one));
+    }
+
+    @Test
+    public void shouldEjectEndpointFailingMuchMoreThanItsPeers() throws Exception {
+        RestApi one = newApi(1), two = newApi(2), three = newApi(3), failing = newApi(4);
+
+        recordMany(one, 20, false);
+        recordMany(two, 20, false);
+        recordMany(three, 20, false);
+        recordMany(failing, 20, true);
+        evaluate(one);
+
+        assertTrue(detector.isEjected(failing));
+    }
+
+    @Test
+    public void shouldEjectEndpointTimingOutMuchMoreThanItsPeers() throws Exception {
+        RestApi one = newApi(1), two = newApi(2), three = newApi(3), hanging = newApi(4);
+
+        recordMany(one, 20, false);
+        recordMany(two, 20, false);
+        recordMany(three, 20, false);
+        for (int i = 0; i < OutlierDetector.MIN_REQUESTS; i++) {
+            detector.failed(hanging);
+        }
+        evaluate(one);
+
+        assertTrue(detector.isEjected(hanging));
+        assertEquals(-1, detector.percentile(hanging, 50));
+    }
+
+    @Test
+    public void shouldNotEjectWhenNotEnoughPeers() throws Exception {
+        RestApi one = newApi(1), slow = newApi(2);
+
+        recordMany(one, 20, false);
+        recordMany(slow, 5000, false);
+        evaluate(one);
+
+        assertFalse(detector.isEjected(slow));
+    }
+
+    @Test
+    public void shouldNotEjectMoreThanTheAllowedFractionOfEndpoints() throws Exception {
+        RestApi one = newApi(1), two = newApi(2), three = newApi(3), slow = newApi(4), slower = newApi(5);
+
+        recordMany(one, 20, false);
+        recordMany(two, 20, false);
+        recordMany(three, 20, false);
+        recordMany(slow, 5000, false);
+        recordMany(slower, 6000, false);
+        evaluate(one);
+
+        assertEquals(1, countEjected(slow, slower));
+    }
+
+    @Test
+    public void shouldReadmitEndpointAfterEjectionTime() throws Exception {
+        RestApi one = newApi(1), two = newApi(2), three = newApi(3), slow = newApi(4);
+        recordMany(one, 20, false);
+        recordMany(two, 20, false);
+        recordMany(three, 20, false);
+        recordMany(slow, 5000, false);
+        evaluate(one);
+
+        now += OutlierDetector.EJECTION_MILLIS + 1;
+
+        assertFalse(detector.isEjected(slow));
+    }
+
+    @Test
+    public void shouldDoubleEjectionTimeOnRepeatedEjections() throws Exception {
+        RestApi one = newApi(1), two = newApi(2), three = newApi(3), slow = newApi(4);
+        recordMany(one, 20, false);
+        recordMany(two, 20, false);
+        recordMany(three, 20, false);
+        recordMany(slow, 5000, false);
+        evaluate(one);
+
+        now += OutlierDetector.EJECTION_MILLIS + 1;
+        recordMany(one, 20, false);
+        recordMany(two, 20, false);
+        recordMany(three, 20, false);
+        recordMany(slow, 5000, false);
+        evaluate(one);
+
+        now += OutlierDetector.EJECTION_MILLIS + 1;
+        assertTrue(detector.isEjected(slow));
+    }
+
+    @Test
+    public void shouldDropPathsWhoseEndpointsWentIdle() throws Exception {
+        RestApi one = newApi(1);
+        recordMany(one, 20, false);
+        detector.evaluate();
+        assertEquals(1, detector.size());
+
+        now += OutlierDetector.INTERVAL_MILLIS * 10 + 1;
+        detector.evaluate();
+
+        assertEquals(0, detector.size());
+        assertEquals(-1, detector.percentile(one, 50));
+    }
+
+    @Test
+    public void shouldReadPercentilesAsOfTheLastEvaluation() throws Exception {
+        RestApi one = newApi(1);
+        recordMany(one, 20, false);
+        assertEquals(-1, detector.percentile(one, 50));
+
+        detector.evaluate();
+        recordMany(one, 80, false);
+        assertEquals(20, detector.percentile(one, 50));
+
+        detector.evaluate();
+        assertEquals(80, detector.percentile(one, 99));
+    }
+
+    @Test
+    public void shouldLeaveEvaluationToTheTimer() throws Exception {
+        RestApi one = newApi(1), two = newApi(2), three = newApi(3), slow = newApi(4);
+
+        recordMany(one, 20, false);
+        recordMany(two, 20, false);
+        recordMany(three, 20, false);
+        recordMany(slow, 5000, false);
+        now += OutlierDetector.INTERVAL_MILLIS;
+        detector.record(one, 20, false);
+
+        assertFalse(detector.isEjected(slow));
+    }
+
+    private int countEjected(RestApi... apis) {
+        int count = 0;
+        for (RestApi api : apis) {
+            if (detector.isEjected(api))
+                count++;
+        }
+        return count;
+    }
+
+    private void evaluate(RestApi api) {
+        now += OutlierDetector.INTERVAL_MILLIS;
+        detector.record(api, 20, false);
+        detector.evaluate();
+    }
+
+    private void recordMany(RestApi api, long latency, boolean failed) {
+        for (int i = 0; i < OutlierDetector.MIN_REQUESTS; i++) {
+            detector.record(api, latency, failed);
+        }
+    }
+
+    private RestApi newApi(long id) {
+        RestApi api = mock(RestApi.class);
+        when(api.getId()).thenReturn(id);
+        when(api.getPath()).thenReturn(PATH);
+        when(api.getUrl()).thenReturn("http://10.0.0." + id + ":9999" + PATH);
+        return api;
+    }
+}
@@ -0,0 +1,94 @@
+package com.msnos.proxy.filter.http;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.gson.JsonObject;
+import com.msnos.proxy.metrics.Metrics;
+
+public class PhaseTimingsTest {
+
+    private static final long MILLIS = 1000000L;
+
+    private long now;
+    private Metrics metrics;
+    private PhaseTimings timings;
+
+    @Before
+    public void prepare() throws Exception {
+        now = 5000 * MILLIS;
+        metrics = new Metrics();
+        timings = new PhaseTimings(metrics) {
+            @Override
+            protected long now() {
+                return now;
+            }
+        };
+    }
+
+    @Test
+    public void shouldRecordEveryPhaseOfTheRequest() throws Exception {
+        timings.received();
+        now += 1 * MILLIS;
+        timings.routed();
+        now += 2 * MILLIS;
+        timings.sent();
+        now += 30 * MILLIS;
+        timings.firstByte();
+        now += 7 * MILLIS;
+        timings.completed();
+
+        assertEquals(1000, max(PhaseTimings.ROUTE), 10);
+        assertEquals(30000, max(PhaseTimings.UPSTREAM), 300);
+        assertEquals(7000, max(PhaseTimings.BODY), 70);
+        assertEquals(40000, max(PhaseTimings.TOTAL), 400);
+    }
+
+    @Test
+    public void shouldNotRecordPhasesOfRequestsNeverRouted() throws Exception {
+        timings.received();
+        now += 1 * MILLIS;
+        timings.sent();
+        timings.firstByte();
+        timings.completed();
+
+        assertFalse(phases().has(PhaseTimings.UPSTREAM));
+        assertFalse(phases().has(PhaseTimings.TOTAL));
+    }
+
+    @Test
+    public void shouldRecordCompletionOnlyOnce() throws Exception {
+        timings.received();
+        timings.routed();
+        timings.sent();
+        timings.firstByte();
+        timings.completed();
+        timings.completed();
+
+        assertEquals(1, phases().getAsJsonObject(PhaseTimings.TOTAL).get("count").getAsLong());
+    }
+
+    @Test
+    public void shouldDescribePhasesInServerTimingFormat() throws Exception {
+        timings.received();
+        now += 1500000L;
+        timings.routed();
+        now += 2 * MILLIS;
+        timings.sent();
+        now += 30 * MILLIS;
+        timings.firstByte();
+
+        assertEquals("route;dur=1.500, upstream;dur=30.000", timings.serverTiming());
+    }
+
+    private long max(String phase) {
+        return phases().getAsJsonObject(phase).get("max").getAsLong();
+    }
+
+    private JsonObject phases() {
+        return metrics.toJson().getAsJsonObject("phases");
+    }
+}
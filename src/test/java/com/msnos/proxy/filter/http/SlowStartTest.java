@@ -0,0 +1,124 @@
+package com.msnos.proxy.filter.http;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.msnos.proxy.filter.http.SlowStart.Mode;
+import com.workshare.msnos.usvc.api.RestApi;
+
+public class SlowStartTest {
+
+    private static final String PATH = "/path";
+    private static final long WINDOW = 10000L;
+
+    private long now;
+
+    @Before
+    public void prepare() throws Exception {
+        now = 1000000L;
+    }
+
+    @Test
+    public void shouldGiveFullWeightToEndpointsSeenWhenPathIsFirstServed() throws Exception {
+        SlowStart slowStart = newSlowStart(Mode.LINEAR);
+
+        assertEquals(1.0, slowStart.weight(newApi(1)), 0.001);
+        assertEquals(1.0, slowStart.weight(newApi(2)), 0.001);
+    }
+
+    @Test
+    public void shouldRampLinearlyEndpointJoiningAnEstablishedPath() throws Exception {
+        SlowStart slowStart = newSlowStart(Mode.LINEAR);
+        slowStart.weight(newApi(1));
+        now += WINDOW;
+
+        RestApi fresh = newApi(2);
+        assertEquals(0.1, slowStart.weight(fresh), 0.001);
+
+        now += WINDOW / 2;
+        assertEquals(0.55, slowStart.weight(fresh), 0.001);
+
+        now += WINDOW / 2;
+        assertEquals(1.0, slowStart.weight(fresh), 0.001);
+    }
+
+    @Test
+    public void shouldRampExponentiallyWhenConfigured() throws Exception {
+        SlowStart slowStart = newSlowStart(Mode.EXPONENTIAL);
+        slowStart.weight(newApi(1));
+        now += WINDOW;
+
+        RestApi fresh = newApi(2);
+        assertEquals(0.1, slowStart.weight(fresh), 0.001);
+
+        now += WINDOW / 2;
+        assertEquals(Math.sqrt(0.1), slowStart.weight(fresh), 0.001);
+    }
+
+    @Test
+    public void shouldRampEndpointRecoveringFromFaulty() throws Exception {
+        SlowStart slowStart = newSlowStart(Mode.LINEAR);
+        RestApi api = newApi(1);
+        slowStart.weight(api);
+        now += WINDOW;
+
+        slowStart.faulty(api);
+        now += WINDOW;
+
+        assertEquals(0.1, slowStart.weight(api), 0.001);
+    }
+
+    @Test
+    public void shouldForgetPathsNoLongerServed() throws Exception {
+        SlowStart slowStart = newSlowStart(Mode.LINEAR);
+        slowStart.weight(newApi(1));
+        now += WINDOW * 11;
+
+        RestApi other = newApi(2);
+        when(other.getPath()).thenReturn("/other");
+        slowStart.weight(other);
+
+        assertEquals(1, slowStart.size());
+    }
+
+    @Test
+    public void shouldKeepPathsStillServed() throws Exception {
+        SlowStart slowStart = newSlowStart(Mode.LINEAR);
+        RestApi api = newApi(1);
+        slowStart.weight(api);
+        now += WINDOW * 11;
+        slowStart.weight(api);
+
+        RestApi fresh = newApi(2);
+        assertEquals(0.1, slowStart.weight(fresh), 0.001);
+        assertEquals(1, slowStart.size());
+    }
+
+    @Test
+    public void shouldAlwaysAdmitWhenDisabled() throws Exception {
+        SlowStart slowStart = new SlowStart(0, 10, Mode.LINEAR);
+
+        assertTrue(slowStart.admits(newApi(1)));
+    }
+
+    private SlowStart newSlowStart(Mode mode) {
+        return new SlowStart(WINDOW, 10, mode) {
+            @Override
+            protected long now() {
+                return now;
+            }
+        };
+    }
+
+    private RestApi newApi(long id) {
+        RestApi api = mock(RestApi.class);
+        when(api.getId()).thenReturn(id);
+        when(api.getPath()).thenReturn(PATH);
+        return api;
+    }
+}
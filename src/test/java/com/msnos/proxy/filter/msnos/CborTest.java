@@ -0,0 +1,140 @@
+package com.msnos.proxy.filter.msnos;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.handler.codec.http.DefaultFullHttpRequest;
+import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpResponse;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.util.CharsetUtil;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import com.workshare.msnos.usvc.Microcloud;
+
+public class CborTest {
+
+    private static final String MESSAGE = "{\"v\":\"1.0\",\"ty\":\"QNE\",\"sq\":-12,\"hp\":3,\"rx\":true,\"dt\":{\"apis\":[{\"path\":\"/users\",\"port\":8080,\"weight\":0.5}],\"name\":null}}";
+
+    private Microcloud microcloud;
+    private MessageQueue queue;
+
+    @Before
+    public void prepare() {
+        microcloud = mock(Microcloud.class);
+        queue = mock(MessageQueue.class);
+        when(queue.submit(eq(microcloud), anyString())).thenReturn(true);
+    }
+
+    @Test
+    public void shouldReadBackWhatWasEncoded() {
+        JsonElement json = new JsonParser().parse(MESSAGE);
+
+        String text = Cbor.toJson(encode(json));
+
+        assertEquals(json, new JsonParser().parse(text));
+    }
+
+    @Test
+    public void shouldBeSmallerThanJson() {
+        assertTrue(encode(new JsonParser().parse(MESSAGE)).readableBytes() < MESSAGE.getBytes(CharsetUtil.UTF_8).length);
+    }
+
+    @Test
+    public void shouldReadIndefiniteLengthItemsAndFloats() {
+        ByteBuf in = bytes(0xbf, 0x61, 'a', 0x9f, 0x01, 0xf9, 0x3c, 0x00, 0xfa, 0x3f, 0xc0, 0x00, 0x00, 0xff, 0x61, 'b', 0x7f, 0x61, 'x', 0x61, 'y', 0xff, 0xff);
+
+        assertEquals(new JsonParser().parse("{\"a\":[1,1.0,1.5],\"b\":\"xy\"}"), new JsonParser().parse(Cbor.toJson(in)));
+        assertEquals(0, in.readableBytes());
+    }
+
+    @Test
+    public void shouldReadNegativeAndLargeIntegers() {
+        assertEquals("-500", Cbor.toJson(bytes(0x39, 0x01, 0xf3)));
+        assertEquals("18446744073709551615", Cbor.toJson(bytes(0x1b, 0xff, 0xff, 0xff, 0xff, 0xff, 0xff, 0xff, 0xff)));
+    }
+
+    @Test(expected = JsonParseException.class)
+    public void shouldRefuseTruncatedInput() {
+        Cbor.toJson(bytes(0xa1, 0x63, 'a', 'b'));
+    }
+
+    @Test(expected = JsonParseException.class)
+    public void shouldRefuseNonTextKeys() {
+        Cbor.toJson(bytes(0xa1, 0x01, 0x02));
+    }
+
+    @Test
+    public void shouldQueueBinaryMessageAsJsonText() {
+        HttpResponse response = post("/msnos", encode(new JsonParser().parse(MESSAGE)));
+
+        assertEquals(HttpResponseStatus.ACCEPTED, response.getStatus());
+        verify(queue).submit(microcloud, new JsonParser().parse(MESSAGE).toString());
+    }
+
+    @Test
+    public void shouldAnswerBadRequestOnMalformedBinaryMessage() {
+        HttpResponse response = post("/msnos", bytes(0xa1, 0x63));
+
+        assertEquals(HttpResponseStatus.BAD_REQUEST, response.getStatus());
+        verify(queue, never()).submit(eq(microcloud), anyString());
+    }
+
+    @Test
+    public void shouldQueueEveryMapOfBinaryBatch() {
+        FullHttpResponse response = (FullHttpResponse) post(MsnosFilter.PATH_BATCH, encode(new JsonParser().parse("[{\"n\":1}, 2, {\"n\":3}]")));
+
+        JsonObject result = new JsonParser().parse(response.content().toString(CharsetUtil.UTF_8)).getAsJsonObject();
+        assertEquals(2, result.get("accepted").getAsInt());
+        assertEquals(1, result.get("malformed").getAsInt());
+        verify(queue).submit(microcloud, "{\"n\":3}");
+    }
+
+    @Test
+    public void shouldKeepJsonAsDefault() {
+        HttpResponse response = post("/msnos", Unpooled.copiedBuffer(MESSAGE, CharsetUtil.UTF_8), "application/json");
+
+        assertEquals(HttpResponseStatus.ACCEPTED, response.getStatus());
+        verify(queue).submit(microcloud, MESSAGE);
+    }
+
+    private HttpResponse post(String uri, ByteBuf body) {
+        return post(uri, body, Cbor.MEDIA_TYPE);
+    }
+
+    private HttpResponse post(String uri, ByteBuf body, String type) {
+        FullHttpRequest request = new DefaultFullHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.POST, uri, body);
+        request.headers().set("Content-Type", type);
+        return new MsnosFilter(request, microcloud, queue).requestPre(request);
+    }
+
+    private static ByteBuf encode(JsonElement json) {
+        ByteBuf out = Unpooled.buffer();
+        Cbor.encode(json, out);
+        return out;
+    }
+
+    private static ByteBuf bytes(int... values) {
+        ByteBuf out = Unpooled.buffer(values.length);
+        for (int value : values) {
+            out.writeByte(value);
+        }
+        return out;
+    }
+}
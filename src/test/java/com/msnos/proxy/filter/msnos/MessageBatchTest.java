@@ -0,0 +1,118 @@
+package com.msnos.proxy.filter.msnos;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.handler.codec.http.DefaultFullHttpRequest;
+import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.util.CharsetUtil;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.workshare.msnos.usvc.Microcloud;
+
+public class MessageBatchTest {
+
+    private Microcloud microcloud;
+    private MessageQueue queue;
+
+    @Before
+    public void prepare() {
+        microcloud = mock(Microcloud.class);
+        queue = mock(MessageQueue.class);
+        when(queue.submit(eq(microcloud), anyString())).thenReturn(true);
+    }
+
+    @Test
+    public void shouldQueueEveryMessageOfAnArray() {
+        JsonObject result = submit(" [{\"type\":\"QNE\"}, {\"type\":\"PRS\", \"data\":{\"a\":[1,2]}}]");
+
+        assertEquals(2, result.get("accepted").getAsInt());
+        assertEquals(2, result.getAsJsonArray("results").size());
+        verify(queue).submit(microcloud, "{\"type\":\"QNE\"}");
+        verify(queue).submit(microcloud, "{\"type\":\"PRS\",\"data\":{\"a\":[1,2]}}");
+    }
+
+    @Test
+    public void shouldQueueEveryLineOfNewlineDelimitedJson() {
+        JsonObject result = submit("{\"type\":\"QNE\"}\r\n\n{\"type\":\"PRS\"}");
+
+        assertEquals(2, result.get("accepted").getAsInt());
+        verify(queue).submit(microcloud, "{\"type\":\"QNE\"}");
+        verify(queue).submit(microcloud, "{\"type\":\"PRS\"}");
+    }
+
+    @Test
+    public void shouldReportRejectedMessagesWhenQueueIsFull() {
+        when(queue.submit(microcloud, "{\"n\":2}")).thenReturn(false);
+
+        JsonObject result = submit("{\"n\":1}\n{\"n\":2}\n{\"n\":3}");
+
+        assertEquals(2, result.get("accepted").getAsInt());
+        assertEquals(1, result.get("rejected").getAsInt());
+        assertEquals(202, status(result, 0));
+        assertEquals(503, status(result, 1));
+        assertEquals(202, status(result, 2));
+    }
+
+    @Test
+    public void shouldReportMalformedMessages() {
+        JsonObject lines = submit("{\"n\":1}\nnot json\n{\"n\":3}");
+        JsonObject array = submit("[{\"n\":1}, 42, {\"n\":3");
+
+        assertEquals(1, lines.get("malformed").getAsInt());
+        assertEquals(400, status(lines, 1));
+        assertEquals(2, lines.get("accepted").getAsInt());
+        assertEquals(400, status(array, 1));
+        assertEquals(400, status(array, 2));
+        assertEquals(1, array.get("accepted").getAsInt());
+    }
+
+    @Test
+    public void shouldTellWhereABrokenArrayStopped() {
+        JsonObject broken = submit("[{\"n\":1}, {\"n\":2 {\"n\":3}]");
+        JsonObject lines = submit("{\"n\":1}\nnot json\n{\"n\":3}");
+
+        assertFalse(broken.get("complete").getAsBoolean());
+        assertEquals(2, broken.getAsJsonArray("results").size());
+        assertEquals(400, status(broken, 1));
+        assertTrue(lines.get("complete").getAsBoolean());
+    }
+
+    @Test
+    public void shouldAnswerBatchWithResultsThroughFilter() {
+        FullHttpRequest request = new DefaultFullHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.POST, MsnosFilter.PATH_BATCH, buffer("[{\"n\":1}]"));
+
+        FullHttpResponse response = (FullHttpResponse) new MsnosFilter(request, microcloud, queue).requestPre(request);
+
+        assertEquals(HttpResponseStatus.OK, response.getStatus());
+        JsonObject result = new JsonParser().parse(response.content().toString(CharsetUtil.UTF_8)).getAsJsonObject();
+        assertEquals(1, result.get("accepted").getAsInt());
+    }
+
+    private JsonObject submit(String body) {
+        return new MessageBatch(queue, microcloud).submit(buffer(body));
+    }
+
+    private static int status(JsonObject result, int index) {
+        return result.getAsJsonArray("results").get(index).getAsJsonObject().get("status").getAsInt();
+    }
+
+    private static ByteBuf buffer(String text) {
+        return Unpooled.copiedBuffer(text, CharsetUtil.UTF_8);
+    }
+}
@@ -0,0 +1,165 @@
+package com.msnos.proxy.filter.msnos;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import com.msnos.proxy.metrics.Metrics;
+import com.workshare.msnos.core.Iden;
+import com.workshare.msnos.core.Message;
+import com.workshare.msnos.core.MessageBuilder;
+import com.workshare.msnos.core.protocols.ip.Endpoint;
+import com.workshare.msnos.core.serializers.WireJsonSerializer;
+import com.workshare.msnos.usvc.Microcloud;
+
+public class MessageDedupTest {
+
+    private static final String FIELD = "uu";
+
+    private long now;
+    private MessageDedup dedup;
+
+    @Before
+    public void prepare() {
+        now = 1000L;
+        dedup = dedup(100L, 3);
+    }
+
+    @Test
+    public void shouldDropMessageSeenWithinWindow() {
+        assertFalse(dedup.duplicate(message("a", 1)));
+        assertTrue(dedup.duplicate(message("a", 1)));
+        assertFalse(dedup.duplicate(message("a", 2)));
+
+        assertEquals(1, dedup.hits());
+        assertEquals(2, dedup.misses());
+    }
+
+    @Test
+    public void shouldForgetMessagesOutsideWindow() {
+        dedup.duplicate(message("a", 1));
+        now += 100L;
+
+        assertFalse(dedup.duplicate(message("a", 1)));
+    }
+
+    @Test
+    public void shouldKeepAtMostSizeMessages() {
+        dedup.duplicate(message("a", 1));
+        dedup.duplicate(message("b", 1));
+        dedup.duplicate(message("c", 1));
+        dedup.duplicate(message("d", 1));
+
+        assertEquals(3, dedup.size());
+        assertFalse(dedup.duplicate(message("a", 1)));
+        assertTrue(dedup.duplicate(message("d", 1)));
+    }
+
+    @Test
+    public void shouldNeverDropMessagesWithoutUuid() {
+        assertFalse(dedup.duplicate("{\"ty\":\"PRS\"}"));
+        assertFalse(dedup.duplicate("{\"ty\":\"PRS\"}"));
+        assertFalse(dedup.duplicate("not json"));
+        assertFalse(dedup.duplicate("not json"));
+    }
+
+    @Test
+    public void shouldReadKeyFromTopLevelFieldsOnly() {
+        assertEquals("a", MessageDedup.key("{\"dt\":{\"uu\":\"x\"},\"uu\":\"a\"}", FIELD));
+        assertEquals("a", MessageDedup.key("{\"uu\":\"a\",\"dt\":[1,2]}", FIELD));
+        assertNull(MessageDedup.key("{\"dt\":{\"uu\":\"x\"}}", FIELD));
+        assertNull(MessageDedup.key("[{\"uu\":\"a\"}]", FIELD));
+    }
+
+    @Test
+    public void shouldKeyMessagesByTheUuidTheyAreWrittenWith() {
+        Message message = new MessageBuilder(Message.Type.PIN, new Iden(Iden.Type.AGT, UUID.randomUUID()), new Iden(Iden.Type.CLD, UUID.randomUUID())).make();
+
+        String text = new WireJsonSerializer().toText(message);
+
+        assertEquals(message.getUuid().toString(), MessageDedup.key(text));
+    }
+
+    @Test
+    public void shouldAcceptRetryOfMessageRefusedByFullQueue() throws Exception {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        Microcloud microcloud = mock(Microcloud.class);
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) throws Throwable {
+                started.countDown();
+                release.await(5, TimeUnit.SECONDS);
+                return null;
+            }
+        }).when(microcloud).process(any(Message.class), any(Endpoint.Type.class));
+        final Message decoded = mock(Message.class);
+        MessageQueue queue = new MessageQueue(1, 1, dedup, new Metrics()) {
+            @Override
+            protected Message decode(String content) {
+                return decoded;
+            }
+        };
+
+        assertTrue(queue.submit(microcloud, message("a", 1)));
+        assertTrue(started.await(1, TimeUnit.SECONDS));
+        assertTrue(queue.submit(microcloud, message("b", 1)));
+        assertFalse(queue.submit(microcloud, message("c", 1)));
+        release.countDown();
+        verify(microcloud, timeout(1000).times(2)).process(any(Message.class), any(Endpoint.Type.class));
+
+        assertTrue(queue.submit(microcloud, message("c", 1)));
+        verify(microcloud, timeout(1000).times(3)).process(any(Message.class), any(Endpoint.Type.class));
+    }
+
+    @Test
+    public void shouldSkipDuplicatesBeforeQueueingAndCountThem() throws Exception {
+        Metrics metrics = new Metrics();
+        Microcloud microcloud = mock(Microcloud.class);
+        final Message decoded = mock(Message.class);
+        MessageQueue queue = new MessageQueue(1, 8, dedup, metrics) {
+            @Override
+            protected Message decode(String content) {
+                return decoded;
+            }
+        };
+
+        assertTrue(queue.submit(microcloud, message("a", 1)));
+        assertTrue(queue.submit(microcloud, message("a", 1)));
+        verify(microcloud, timeout(1000)).process(any(Message.class), any(Endpoint.Type.class));
+        Thread.sleep(50);
+
+        verify(microcloud).process(any(Message.class), any(Endpoint.Type.class));
+        assertEquals(1, metrics.toJson().getAsJsonObject("messages").get("duplicates").getAsLong());
+        assertEquals(2, metrics.toJson().getAsJsonObject("messages").get("received").getAsLong());
+        assertTrue(metrics.toPrometheus().contains("msnos_proxy_messages_total{outcome=\"duplicate\"} 1"));
+    }
+
+    private MessageDedup dedup(long window, int size) {
+        return new MessageDedup(window, size, FIELD) {
+            @Override
+            protected long now() {
+                return now;
+            }
+        };
+    }
+
+    private static String message(String uuid, int sequence) {
+        return "{\"uu\":\"" + uuid + ":" + sequence + "\",\"ty\":\"PRS\",\"dt\":{\"present\":true}}";
+    }
+}
@@ -0,0 +1,163 @@
+package com.msnos.proxy.filter.msnos;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import io.netty.buffer.Unpooled;
+import io.netty.handler.codec.http.DefaultFullHttpRequest;
+import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpResponse;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.util.CharsetUtil;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import com.google.gson.JsonObject;
+import com.msnos.proxy.metrics.Metrics;
+import com.workshare.msnos.core.Message;
+import com.workshare.msnos.core.protocols.ip.Endpoint;
+import com.workshare.msnos.usvc.Microcloud;
+
+public class MessageQueueTest {
+
+    private Metrics metrics;
+    private Microcloud microcloud;
+    private Message message;
+    private MessageQueue queue;
+
+    @Before
+    public void prepare() {
+        metrics = new Metrics();
+        microcloud = mock(Microcloud.class);
+        message = mock(Message.class);
+        queue = new MessageQueue(1, 1, metrics) {
+            @Override
+            protected Message decode(String content) {
+                return message;
+            }
+        };
+    }
+
+    @Test
+    public void shouldProcessMessageOffTheCallingThread() throws Exception {
+        final Thread caller = Thread.currentThread();
+        final Thread[] processor = new Thread[1];
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) throws Throwable {
+                processor[0] = Thread.currentThread();
+                return null;
+            }
+        }).when(microcloud).process(any(Message.class), any(Endpoint.Type.class));
+
+        assertTrue(queue.submit(microcloud, "{}"));
+
+        verify(microcloud, timeout(1000)).process(eq(message), eq(Endpoint.Type.HTTP));
+        assertFalse(caller == processor[0]);
+    }
+
+    @Test
+    public void shouldRefuseMessagesWhenQueueIsFull() throws Exception {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        block(started, release);
+
+        assertTrue(queue.submit(microcloud, "{}"));
+        assertTrue(started.await(1, TimeUnit.SECONDS));
+        assertTrue(queue.submit(microcloud, "{}"));
+        assertFalse(queue.submit(microcloud, "{}"));
+
+        assertEquals(1, queue.depth());
+        release.countDown();
+    }
+
+    @Test
+    public void shouldAnswerAcceptedOrUnavailableAccordingToQueue() throws Exception {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        block(started, release);
+
+        assertEquals(HttpResponseStatus.ACCEPTED, post().getStatus());
+        assertTrue(started.await(1, TimeUnit.SECONDS));
+        assertEquals(HttpResponseStatus.ACCEPTED, post().getStatus());
+        HttpResponse refused = post();
+
+        assertEquals(HttpResponseStatus.SERVICE_UNAVAILABLE, refused.getStatus());
+        assertEquals("1", refused.headers().get("Retry-After"));
+        release.countDown();
+    }
+
+    @Test
+    public void shouldReportQueueAndProcessingInMetrics() throws Exception {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        block(started, release);
+
+        queue.submit(microcloud, "{}");
+        started.await(1, TimeUnit.SECONDS);
+        queue.submit(microcloud, "{}");
+        queue.submit(microcloud, "{}");
+        JsonObject during = metrics.toJson().getAsJsonObject("messages");
+
+        release.countDown();
+        verify(microcloud, timeout(1000).times(2)).process(any(Message.class), any(Endpoint.Type.class));
+        Thread.sleep(50);
+        JsonObject after = metrics.toJson().getAsJsonObject("messages");
+
+        assertEquals(3, during.get("received").getAsLong());
+        assertEquals(1, during.get("rejected").getAsLong());
+        assertEquals(2, during.get("queued").getAsLong());
+        assertEquals(0, after.get("queued").getAsLong());
+        assertEquals(2, after.getAsJsonObject("processingMicros").get("count").getAsLong());
+        assertTrue(metrics.toPrometheus().contains("msnos_proxy_message_queue_depth{queue=\"msnos\"} 0"));
+    }
+
+    @Test
+    public void shouldCountFailuresAndKeepProcessing() throws Exception {
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) throws Throwable {
+                throw new IllegalStateException("boom");
+            }
+        }).when(microcloud).process(any(Message.class), any(Endpoint.Type.class));
+
+        queue.submit(microcloud, "{}");
+        verify(microcloud, timeout(1000)).process(any(Message.class), any(Endpoint.Type.class));
+        Thread.sleep(50);
+        queue.submit(microcloud, "{}");
+        verify(microcloud, timeout(1000).times(2)).process(any(Message.class), any(Endpoint.Type.class));
+        Thread.sleep(50);
+
+        assertEquals(2, metrics.toJson().getAsJsonObject("messages").get("failed").getAsLong());
+    }
+
+    private void block(final CountDownLatch started, final CountDownLatch release) {
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) throws Throwable {
+                started.countDown();
+                release.await(5, TimeUnit.SECONDS);
+                return null;
+            }
+        }).when(microcloud).process(any(Message.class), any(Endpoint.Type.class));
+    }
+
+    private HttpResponse post() {
+        FullHttpRequest request = new DefaultFullHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.POST, "/msnos", Unpooled.copiedBuffer("{}", CharsetUtil.UTF_8));
+        return new MsnosFilter(request, microcloud, queue).requestPre(request);
+    }
+}
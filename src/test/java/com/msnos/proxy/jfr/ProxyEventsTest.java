@@ -0,0 +1,88 @@
+package com.msnos.proxy.jfr;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.msnos.proxy.log.AccessLog;
+
+public class ProxyEventsTest {
+
+    private Recording recording;
+    private File file;
+
+    @Before
+    public void prepare() throws Exception {
+        file = File.createTempFile("proxy-events", ".jfr");
+        recording = new Recording();
+    }
+
+    @After
+    public void cleanup() throws Exception {
+        recording.close();
+        file.delete();
+    }
+
+    @Test
+    public void shouldRecordRoutingDecisions() throws Exception {
+        recording.enable("com.msnos.proxy.RoutingDecision");
+        recording.start();
+
+        ProxyEvents.decision(ProxyEvents.FAULTY, "/files", "http://10.0.0.1:8080/files");
+
+        List<RecordedEvent> events = stop("com.msnos.proxy.RoutingDecision");
+        assertEquals(1, events.size());
+        assertEquals("faulty", events.get(0).getString("decision"));
+        assertEquals("/files", events.get(0).getString("path"));
+        assertEquals("http://10.0.0.1:8080/files", events.get(0).getString("endpoint"));
+    }
+
+    @Test
+    public void shouldRecordRequestsOverThreshold() throws Exception {
+        recording.enable("com.msnos.proxy.Request").withThreshold(Duration.ZERO);
+        recording.start();
+
+        ProxyEvents.request().completed("/files", "http://10.0.0.1:8080/files", 502, AccessLog.Entry.RETRIED | AccessLog.Entry.HEDGED);
+
+        List<RecordedEvent> events = stop("com.msnos.proxy.Request");
+        assertEquals(1, events.size());
+        assertEquals(502, events.get(0).getInt("status"));
+        assertTrue(events.get(0).getBoolean("retried"));
+        assertTrue(events.get(0).getBoolean("hedged"));
+        assertEquals(false, events.get(0).getBoolean("timedOut"));
+    }
+
+    @Test
+    public void shouldSkipRequestsUnderDefaultThreshold() throws Exception {
+        recording.enable("com.msnos.proxy.Request");
+        recording.start();
+
+        ProxyEvents.request().completed("/files", "http://10.0.0.1:8080/files", 200, 0);
+
+        assertEquals(0, stop("com.msnos.proxy.Request").size());
+    }
+
+    private List<RecordedEvent> stop(String name) throws Exception {
+        recording.stop();
+        recording.dump(file.toPath());
+
+        final List<RecordedEvent> events = new ArrayList<RecordedEvent>();
+        for (RecordedEvent event : RecordingFile.readAllEvents(file.toPath())) {
+            if (name.equals(event.getEventType().getName()))
+                events.add(event);
+        }
+        return events;
+    }
+}
@@ -0,0 +1,134 @@
+package com.msnos.proxy.log;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.gson.JsonObject;
+import com.msnos.proxy.metrics.Metrics;
+
+public class AccessLogTest {
+
+    private File dir;
+    private File file;
+    private Metrics metrics;
+
+    @Before
+    public void prepare() throws Exception {
+        dir = File.createTempFile("accesslog", "");
+        dir.delete();
+        dir.mkdirs();
+        file = new File(dir, "access.log");
+        metrics = new Metrics();
+    }
+
+    @After
+    public void cleanup() {
+        for (File each : dir.listFiles()) {
+            each.delete();
+        }
+        dir.delete();
+    }
+
+    @Test
+    public void shouldWriteAccessesReadableByTheReader() throws Exception {
+        AccessLog accessLog = new AccessLog(file, 16, 1024 * 1024, 2, metrics).start();
+
+        log(accessLog, 1234L, "/path", 200, AccessLog.Entry.RETRIED);
+        accessLog.close();
+
+        List<JsonObject> accesses = read(file);
+        assertEquals(1, accesses.size());
+
+        JsonObject access = accesses.get(0);
+        assertEquals(1234L, access.get("api").getAsLong());
+        assertEquals("/path", access.get("path").getAsString());
+        assertEquals("http://10.0.0.1:9999/path", access.get("endpoint").getAsString());
+        assertEquals(200, access.get("status").getAsInt());
+        assertTrue(access.get("retried").getAsBoolean());
+        assertEquals(10, access.get("bytesIn").getAsLong());
+        assertEquals(20, access.get("bytesOut").getAsLong());
+        assertEquals(40, access.getAsJsonObject("phasesMicros").get("total").getAsLong());
+        assertNull(access.getAsJsonObject("phasesMicros").get("body"));
+        assertEquals(3, access.getAsJsonObject("phasesMicros").get("upstream").getAsLong());
+    }
+
+    @Test
+    public void shouldDropAccessesWhenTheBufferIsFull() throws Exception {
+        AccessLog accessLog = new AccessLog(file, 2, 1024 * 1024, 2, metrics);
+
+        assertNotNull(accessLog.claim());
+        assertNotNull(accessLog.claim());
+        assertNull(accessLog.claim());
+
+        assertEquals(1, accessLog.dropped());
+        assertEquals(1, metrics.toJson().getAsJsonObject("accessLog").get("dropped").getAsLong());
+    }
+
+    @Test
+    public void shouldReuseEntriesOnceWritten() throws Exception {
+        AccessLog accessLog = new AccessLog(file, 2, 1024 * 1024, 2, metrics).start();
+
+        for (int i = 0; i < 100; i++) {
+            while (!log(accessLog, i, "/path", 200, 0)) {
+                Thread.sleep(1);
+            }
+        }
+        accessLog.close();
+
+        assertEquals(100, read(file).size());
+    }
+
+    @Test
+    public void shouldRotateFilesWhenTooBig() throws Exception {
+        AccessLog accessLog = new AccessLog(file, 1024, 200, 2, metrics).start();
+
+        for (int i = 0; i < 20; i++) {
+            log(accessLog, i, "/path", 200, 0);
+            Thread.sleep(5);
+        }
+        accessLog.close();
+
+        assertTrue(new File(dir, "access.log.1").exists());
+        assertTrue(new File(dir, "access.log.2").exists());
+        assertTrue(!new File(dir, "access.log.3").exists());
+        assertTrue(read(file).size() > 0);
+    }
+
+    private boolean log(AccessLog accessLog, long api, String path, int status, int flags) {
+        AccessLog.Entry entry = accessLog.claim();
+        if (entry == null)
+            return false;
+
+        entry.api(api, path, "http://10.0.0.1:9999" + path)
+            .status(status, flags)
+            .bytes(10, 20)
+            .phases(1, 3, -1, 40);
+        accessLog.publish(entry);
+        return true;
+    }
+
+    private List<JsonObject> read(File file) throws Exception {
+        List<JsonObject> result = new ArrayList<JsonObject>();
+        AccessLogReader reader = new AccessLogReader(new FileInputStream(file));
+        try {
+            JsonObject access;
+            while ((access = reader.next()) != null) {
+                result.add(access);
+            }
+        } finally {
+            reader.close();
+        }
+        return result;
+    }
+}
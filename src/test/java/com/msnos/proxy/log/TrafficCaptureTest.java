@@ -0,0 +1,118 @@
+package com.msnos.proxy.log;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import io.netty.buffer.Unpooled;
+import io.netty.handler.codec.http.DefaultHttpRequest;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.util.CharsetUtil;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TrafficCaptureTest {
+
+    private File dir;
+    private File file;
+
+    @Before
+    public void prepare() throws Exception {
+        dir = File.createTempFile("capture", "");
+        dir.delete();
+        dir.mkdirs();
+        file = new File(dir, "capture.bin");
+    }
+
+    @After
+    public void cleanup() {
+        for (File each : dir.listFiles()) {
+            each.delete();
+        }
+        dir.delete();
+    }
+
+    @Test
+    public void shouldCaptureRequestsReadableByTheReader() throws Exception {
+        TrafficCapture capture = new TrafficCapture(file, 1.0, 0, 16, 1024 * 1024, 2).start();
+
+        TrafficCapture.Request request = capture.start(request(HttpMethod.POST, "/files?id=1"));
+        request.content(Unpooled.copiedBuffer("hello world", CharsetUtil.UTF_8));
+        capture.completed(request, 201);
+        capture.close();
+
+        List<TrafficCaptureReader.Record> records = read(file);
+        assertEquals(1, records.size());
+
+        TrafficCaptureReader.Record record = records.get(0);
+        assertEquals("POST", record.method());
+        assertEquals("/files?id=1", record.uri());
+        assertEquals(201, record.status());
+        assertEquals(11, record.bodySize());
+        assertEquals(0, record.body().length);
+        assertEquals("x-custom", record.headers().get(0).getKey());
+        assertEquals("value", record.headers().get(0).getValue());
+    }
+
+    @Test
+    public void shouldCaptureBodiesUpToTheLimit() throws Exception {
+        TrafficCapture capture = new TrafficCapture(file, 1.0, 8, 16, 1024 * 1024, 2).start();
+
+        TrafficCapture.Request request = capture.start(request(HttpMethod.PUT, "/files"));
+        request.content(Unpooled.copiedBuffer("hello ", CharsetUtil.UTF_8));
+        request.content(Unpooled.copiedBuffer("world", CharsetUtil.UTF_8));
+        capture.completed(request, 200);
+        capture.close();
+
+        TrafficCaptureReader.Record record = read(file).get(0);
+        assertEquals(11, record.bodySize());
+        assertArrayEquals("hello wo".getBytes(CharsetUtil.UTF_8), record.body());
+    }
+
+    @Test
+    public void shouldCaptureOnlySampledRequests() throws Exception {
+        TrafficCapture capture = new TrafficCapture(file, 0.0, 0, 16, 1024 * 1024, 2);
+
+        assertNull(capture.start(request(HttpMethod.GET, "/files")));
+    }
+
+    @Test
+    public void shouldDropRequestsWhenTheQueueIsFull() throws Exception {
+        TrafficCapture capture = new TrafficCapture(file, 1.0, 0, 1, 1024 * 1024, 2);
+
+        capture.completed(capture.start(request(HttpMethod.GET, "/one")), 200);
+        capture.completed(capture.start(request(HttpMethod.GET, "/two")), 200);
+
+        assertEquals(1, capture.dropped());
+    }
+
+    private HttpRequest request(HttpMethod method, String uri) {
+        HttpRequest request = new DefaultHttpRequest(HttpVersion.HTTP_1_1, method, uri);
+        request.headers().add("x-custom", "value");
+        return request;
+    }
+
+    private List<TrafficCaptureReader.Record> read(File file) throws Exception {
+        final List<TrafficCaptureReader.Record> records = new ArrayList<TrafficCaptureReader.Record>();
+        final TrafficCaptureReader reader = new TrafficCaptureReader(new FileInputStream(file));
+        try {
+            TrafficCaptureReader.Record record;
+            while ((record = reader.next()) != null) {
+                assertNotNull(record.method());
+                records.add(record);
+            }
+        } finally {
+            reader.close();
+        }
+        return records;
+    }
+}
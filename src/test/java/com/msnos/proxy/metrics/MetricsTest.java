@@ -0,0 +1,109 @@
+package com.msnos.proxy.metrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.gson.JsonObject;
+
+public class MetricsTest {
+
+    private static final String PATH = "/path";
+    private static final String URL = "http://10.0.0.1:9999/path";
+
+    private Metrics metrics;
+
+    @Before
+    public void prepare() throws Exception {
+        metrics = new Metrics();
+    }
+
+    @Test
+    public void shouldCountResponsesByStatusClass() throws Exception {
+        metrics.api(PATH).response(200, 1000);
+        metrics.api(PATH).response(204, 1000);
+        metrics.api(PATH).response(503, 1000);
+
+        JsonObject status = api().getAsJsonObject("status");
+        assertEquals(2, status.get("2xx").getAsLong());
+        assertEquals(1, status.get("5xx").getAsLong());
+    }
+
+    @Test
+    public void shouldRecordLatencyPercentiles() throws Exception {
+        for (int i = 1; i <= 100; i++) {
+            metrics.api(PATH).response(200, i * 1000);
+        }
+
+        JsonObject latency = api().getAsJsonObject("latency");
+        assertEquals(100, latency.get("count").getAsLong());
+        assertEquals(50000, latency.get("p50").getAsLong(), 1000);
+        assertEquals(100000, latency.get("max").getAsLong(), 1000);
+    }
+
+    @Test
+    public void shouldKeepLatencyAcrossSnapshots() throws Exception {
+        metrics.api(PATH).response(200, 1000);
+        metrics.toJson();
+        metrics.api(PATH).response(200, 1000);
+
+        assertEquals(2, api().getAsJsonObject("latency").get("count").getAsLong());
+    }
+
+    @Test
+    public void shouldCountRetriesFaultsAndRoutingMisses() throws Exception {
+        metrics.api(PATH).retry();
+        metrics.api(PATH).faulty();
+        metrics.notFound();
+        metrics.badGateway();
+        metrics.badGateway();
+
+        JsonObject json = metrics.toJson();
+        assertEquals(1, api().get("retries").getAsLong());
+        assertEquals(1, api().get("faulty").getAsLong());
+        assertEquals(1, json.getAsJsonObject("routing").get("notFound").getAsLong());
+        assertEquals(2, json.getAsJsonObject("routing").get("badGateway").getAsLong());
+    }
+
+    @Test
+    public void shouldRenderPrometheusText() throws Exception {
+        metrics.api(PATH).response(200, 1000);
+        metrics.endpoint(URL, 1000);
+        metrics.api(PATH).retry();
+
+        String text = metrics.toPrometheus();
+
+        assertTrue(text.contains("# TYPE msnos_proxy_api_latency_microseconds summary\n"));
+        assertTrue(text.contains("msnos_proxy_api_latency_microseconds_count{path=\"/path\"} 1\n"));
+        assertTrue(text.contains("msnos_proxy_api_responses_total{path=\"/path\",status=\"2xx\"} 1\n"));
+        assertTrue(text.contains("msnos_proxy_api_retries_total{path=\"/path\"} 1\n"));
+        assertTrue(text.contains("msnos_proxy_endpoint_latency_microseconds_count{endpoint=\"" + URL + "\"} 1\n"));
+    }
+
+    @Test
+    public void shouldForgetEndpointsNotSeenForAWhile() throws Exception {
+        final long[] now = {1000000L};
+        metrics = new Metrics() {
+            @Override
+            protected long now() {
+                return now[0];
+            }
+        };
+        metrics.endpoint(URL, 1000);
+        now[0] += Metrics.ENDPOINT_IDLE_MILLIS / 2;
+        metrics.endpoint("http://10.0.0.2:9999/path", 1000);
+
+        now[0] += Metrics.ENDPOINT_IDLE_MILLIS / 2 + 1;
+        JsonObject endpoints = metrics.toJson().getAsJsonObject("endpoints");
+
+        assertFalse(endpoints.has(URL));
+        assertTrue(endpoints.has("http://10.0.0.2:9999/path"));
+    }
+
+    private JsonObject api() {
+        return metrics.toJson().getAsJsonObject("apis").getAsJsonObject(PATH);
+    }
+}
@@ -0,0 +1,110 @@
+package com.msnos.proxy.metrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import io.netty.buffer.UnpooledByteBufAllocator;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelConfig;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.EventLoop;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.channel.nio.NioEventLoopGroup;
+
+import java.net.InetSocketAddress;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.littleshoot.proxy.ActivityTracker;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+
+public class RuntimeStatsTest {
+
+    private RuntimeStats stats;
+    private NioEventLoopGroup group;
+
+    @Before
+    public void prepare() throws Exception {
+        stats = new RuntimeStats(10L);
+        group = new NioEventLoopGroup(1);
+    }
+
+    @After
+    public void cleanup() throws Exception {
+        group.shutdownGracefully(0, 0, TimeUnit.MILLISECONDS).sync();
+    }
+
+    @Test
+    public void shouldCountClientConnections() throws Exception {
+        ActivityTracker tracker = stats.tracker();
+        InetSocketAddress client = new InetSocketAddress("127.0.0.1", 12345);
+
+        tracker.clientConnected(client);
+        tracker.clientConnected(client);
+        tracker.clientDisconnected(client, null);
+
+        JsonObject connections = stats.toJson().getAsJsonObject("connections");
+        assertEquals(1, connections.get("clients").getAsInt());
+        assertEquals(2, connections.get("clientsTotal").getAsLong());
+    }
+
+    @Test
+    public void shouldCountBusyUpstreamsAndOpenHedges() throws Exception {
+        EmbeddedChannel hedge = new EmbeddedChannel(new ChannelInboundHandlerAdapter());
+        stats.upstreamBusy();
+        stats.upstreamBusy();
+        stats.upstreamIdle();
+        stats.hedge(hedge);
+
+        JsonObject connections = stats.toJson().getAsJsonObject("connections");
+        assertEquals(1, connections.get("upstreamsBusy").getAsInt());
+        assertEquals(1, connections.get("hedges").getAsInt());
+
+        hedge.close();
+        assertEquals(0, stats.toJson().getAsJsonObject("connections").get("hedges").getAsInt());
+    }
+
+    @Test
+    public void shouldProbeEachEventLoopOnce() throws Exception {
+        EventLoop loop = group.next();
+        stats.channel(channelOn(loop));
+        stats.channel(channelOn(loop));
+
+        Thread.sleep(100);
+
+        JsonArray loops = stats.toJson().getAsJsonArray("eventLoops");
+        assertEquals(1, loops.size());
+        JsonObject json = loops.get(0).getAsJsonObject();
+        assertNotNull(json.get("thread"));
+        assertEquals(0, json.get("pendingTasks").getAsInt());
+        assertTrue(json.get("lagMaxMicros").getAsLong() >= 0);
+    }
+
+    @Test
+    public void shouldReportBuffersMemoryAndCollectors() throws Exception {
+        stats.channel(channelOn(group.next()));
+
+        JsonObject json = stats.toJson();
+
+        assertEquals("UnpooledByteBufAllocator", json.getAsJsonObject("buffers").get("allocator").getAsString());
+        assertTrue(json.getAsJsonObject("buffers").has("direct"));
+        assertTrue(json.getAsJsonObject("memory").getAsJsonObject("heap").get("used").getAsLong() > 0);
+        assertTrue(json.has("gc"));
+    }
+
+    private Channel channelOn(EventLoop loop) {
+        ChannelConfig config = mock(ChannelConfig.class);
+        when(config.getAllocator()).thenReturn(UnpooledByteBufAllocator.DEFAULT);
+
+        Channel channel = mock(Channel.class);
+        when(channel.eventLoop()).thenReturn(loop);
+        when(channel.config()).thenReturn(config);
+        return channel;
+    }
+}
@@ -0,0 +1,101 @@
+package com.msnos.proxy.metrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+
+public class TopTrafficTest {
+
+    private long now;
+    private TopTraffic top;
+
+    @Before
+    public void prepare() throws Exception {
+        now = 1000000L;
+        top = new TopTraffic(hitters(), hitters(), hitters(), 3);
+    }
+
+    @Test
+    public void shouldRankHottestPaths() throws Exception {
+        request("/hot", 50);
+        request("/warm", 20);
+        request("/mild", 10);
+        for (int i = 0; i < 500; i++) {
+            request("/cold/" + i, 1);
+        }
+
+        JsonArray paths = top("paths");
+        assertEquals(3, paths.size());
+        assertEntry(paths, 0, "/hot", 50);
+        assertEntry(paths, 1, "/warm", 20);
+        assertEntry(paths, 2, "/mild", 10);
+        assertEquals(580, top.toJson().getAsJsonObject("paths").get("total").getAsLong());
+    }
+
+    @Test
+    public void shouldTrackClientsAndEndpoints() throws Exception {
+        top.request("/path", "10.0.0.1");
+        top.request("/path", "10.0.0.1");
+        top.request("/path", "10.0.0.2");
+        top.endpoint("http://10.0.1.1:8080/path");
+
+        assertEntry(top("clients"), 0, "10.0.0.1", 2);
+        assertEntry(top("endpoints"), 0, "http://10.0.1.1:8080/path", 1);
+    }
+
+    @Test
+    public void shouldForgetTrafficOutsideTheWindow() throws Exception {
+        request("/old", 10);
+        now += 4000L;
+        request("/new", 5);
+
+        assertEntry(top("paths"), 0, "/old", 10);
+
+        now += 3000L;
+        JsonArray paths = top("paths");
+        assertEquals(1, paths.size());
+        assertEntry(paths, 0, "/new", 5);
+    }
+
+    @Test
+    public void shouldNeverUnderestimate() throws Exception {
+        final CountMinSketch sketch = new CountMinSketch(4, 16);
+        for (int i = 0; i < 1000; i++) {
+            sketch.add("key-" + (i % 100));
+        }
+
+        for (int i = 0; i < 100; i++) {
+            assertTrue(sketch.estimate("key-" + i) >= 10);
+        }
+    }
+
+    private void request(String path, int times) {
+        for (int i = 0; i < times; i++) {
+            top.request(path, "10.0.0.1");
+        }
+    }
+
+    private JsonArray top(String dimension) {
+        return top.toJson().getAsJsonObject(dimension).getAsJsonArray("top");
+    }
+
+    private void assertEntry(JsonArray top, int index, String key, long count) {
+        final JsonObject entry = top.get(index).getAsJsonObject();
+        assertEquals(key, entry.get("key").getAsString());
+        assertEquals(count, entry.get("count").getAsLong());
+    }
+
+    private HeavyHitters hitters() {
+        return new HeavyHitters(3, 6000L, 6, 4, 1024) {
+            @Override
+            protected long now() {
+                return now;
+            }
+        };
+    }
+}
@@ -0,0 +1,61 @@
+package com.msnos.proxy.trace;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class TraceContextTest {
+
+    private static final String TRACE_ID = "4bf92f3577b34da6a3ce929d0e0e4736";
+    private static final String SPAN_ID = "00f067aa0ba902b7";
+
+    @Test
+    public void shouldParseValidHeader() throws Exception {
+        TraceContext context = TraceContext.parse("00-" + TRACE_ID + "-" + SPAN_ID + "-01");
+
+        assertEquals(TRACE_ID, context.traceId());
+        assertEquals(SPAN_ID, context.spanId());
+        assertTrue(context.isSampled());
+    }
+
+    @Test
+    public void shouldReadSampledFlagOnly() throws Exception {
+        assertFalse(TraceContext.parse("00-" + TRACE_ID + "-" + SPAN_ID + "-00").isSampled());
+        assertFalse(TraceContext.parse("00-" + TRACE_ID + "-" + SPAN_ID + "-02").isSampled());
+        assertTrue(TraceContext.parse("00-" + TRACE_ID + "-" + SPAN_ID + "-03").isSampled());
+    }
+
+    @Test
+    public void shouldRejectInvalidHeaders() throws Exception {
+        assertNull(TraceContext.parse(null));
+        assertNull(TraceContext.parse("garbage"));
+        assertNull(TraceContext.parse("00-" + TRACE_ID.toUpperCase() + "-" + SPAN_ID + "-01"));
+        assertNull(TraceContext.parse("00-00000000000000000000000000000000-" + SPAN_ID + "-01"));
+        assertNull(TraceContext.parse("00-" + TRACE_ID + "-0000000000000000-01"));
+        assertNull(TraceContext.parse("ff-" + TRACE_ID + "-" + SPAN_ID + "-01"));
+        assertNull(TraceContext.parse("00-" + TRACE_ID + "-" + SPAN_ID + "-01-extra"));
+    }
+
+    @Test
+    public void shouldKeepTraceAndSamplingInChildren() throws Exception {
+        TraceContext parent = TraceContext.parse("00-" + TRACE_ID + "-" + SPAN_ID + "-01");
+
+        TraceContext child = parent.child();
+
+        assertEquals(TRACE_ID, child.traceId());
+        assertNotEquals(SPAN_ID, child.spanId());
+        assertTrue(child.isSampled());
+    }
+
+    @Test
+    public void shouldFormatAsTraceparent() throws Exception {
+        TraceContext context = TraceContext.root(false);
+
+        assertEquals("00-" + context.traceId() + "-" + context.spanId() + "-00", context.format());
+        assertEquals(context.traceId(), TraceContext.parse(context.format()).traceId());
+    }
+}
@@ -0,0 +1,112 @@
+package com.msnos.proxy.trace;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+public class TracerTest {
+
+    private static final String PARENT = "00-4bf92f3577b34da6a3ce929d0e0e4736-00f067aa0ba902b7-01";
+    private static final String PARENT_NOT_SAMPLED = "00-4bf92f3577b34da6a3ce929d0e0e4736-00f067aa0ba902b7-00";
+
+    private List<List<Span>> exported;
+    private SpanExporter exporter;
+
+    @Before
+    public void prepare() throws Exception {
+        exported = new ArrayList<List<Span>>();
+        exporter = new SpanExporter() {
+            @Override
+            public synchronized void export(List<Span> spans) throws IOException {
+                exported.add(new ArrayList<Span>(spans));
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+    }
+
+    @Test
+    public void shouldContinueIncomingTrace() throws Exception {
+        Tracer tracer = new Tracer(exporter, 0.0, 16);
+
+        Span span = tracer.server("GET /path", PARENT);
+
+        assertEquals("4bf92f3577b34da6a3ce929d0e0e4736", span.context().traceId());
+        assertEquals("00f067aa0ba902b7", span.parentSpanId());
+        assertTrue(span.context().isSampled());
+    }
+
+    @Test
+    public void shouldHonourIncomingDecisionNotToSample() throws Exception {
+        Tracer tracer = new Tracer(exporter, 1.0, 16);
+
+        Span span = tracer.server("GET /path", PARENT_NOT_SAMPLED);
+
+        assertFalse(span.context().isSampled());
+    }
+
+    @Test
+    public void shouldSampleNewTracesByRate() throws Exception {
+        assertTrue(new Tracer(exporter, 1.0, 16).server("GET /path", null).context().isSampled());
+        assertFalse(new Tracer(exporter, 0.0, 16).server("GET /path", null).context().isSampled());
+    }
+
+    @Test
+    public void shouldNeverSampleNewTracesWithoutExporter() throws Exception {
+        Span span = new Tracer(null, 1.0, 16).server("GET /path", null);
+
+        assertFalse(span.context().isSampled());
+        assertNull(span.parentSpanId());
+    }
+
+    @Test
+    public void shouldExportSampledSpansInBackground() throws Exception {
+        Tracer tracer = new Tracer(exporter, 0.0, 16).start();
+
+        Span server = tracer.server("GET /path", PARENT);
+        server.child("upstream /path", Span.Kind.CLIENT).attribute("http.status_code", 200).end();
+        server.end();
+        tracer.server("GET /other", PARENT_NOT_SAMPLED).end();
+        tracer.close();
+
+        int count = 0;
+        for (List<Span> batch : exported) {
+            count += batch.size();
+        }
+        assertEquals(2, count);
+    }
+
+    @Test
+    public void shouldEncodeSpansAsOtlpJson() throws Exception {
+        Tracer tracer = new Tracer(exporter, 0.0, 16);
+        Span server = tracer.server("GET /path", PARENT);
+        Span upstream = server.child("upstream /path", Span.Kind.CLIENT).attribute("http.status_code", 503).error();
+        upstream.end();
+
+        List<Span> spans = new ArrayList<Span>();
+        spans.add(upstream);
+        JsonObject json = new JsonParser().parse(OtlpJson.encode(spans)).getAsJsonObject();
+
+        JsonObject span = json.getAsJsonArray("resourceSpans").get(0).getAsJsonObject()
+                .getAsJsonArray("scopeSpans").get(0).getAsJsonObject()
+                .getAsJsonArray("spans").get(0).getAsJsonObject();
+        assertEquals(upstream.context().spanId(), span.get("spanId").getAsString());
+        assertEquals(server.context().spanId(), span.get("parentSpanId").getAsString());
+        assertEquals(3, span.get("kind").getAsInt());
+        assertEquals(2, span.getAsJsonObject("status").get("code").getAsInt());
+        assertEquals("503", span.getAsJsonArray("attributes").get(0).getAsJsonObject().getAsJsonObject("value").get("intValue").getAsString());
+    }
+}